@@ -0,0 +1,48 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import utils.AddressIndex;
+import utils.CryptoUnit;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scanning the addresses of a seedphrase up to the gap limit, then resolving a delegator address.
+ * The BIP39 stretching is done once in the setup : see SeedBenchmark.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DerivationBenchmark {
+
+    @Param({ "512" })
+    private int gapLimit;
+
+    private CryptoUnit cryptoUnit;
+    private AddressIndex index;
+    private String lastDelegator;
+
+    @Setup
+    public void setup() throws Exception {
+        this.cryptoUnit = Fixtures.cryptoUnit();
+        this.cryptoUnit.getHierarchy();
+        this.index = AddressIndex.build(List.of(this.cryptoUnit), this.gapLimit, null);
+        this.lastDelegator = this.cryptoUnit.deriveAddresses(this.gapLimit).get(this.gapLimit - 1).getFxDelegatorAddress();
+    }
+
+    @Benchmark
+    public AddressIndex scanAddresses() {
+        return AddressIndex.build(List.of(this.cryptoUnit), this.gapLimit, null);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public Object findDelegator() {
+        return this.index.findDelegator(this.lastDelegator);
+    }
+
+}
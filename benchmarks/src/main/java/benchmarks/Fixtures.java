@@ -0,0 +1,85 @@
+package benchmarks;
+
+import libs.CryptoUtils;
+import utils.AccountMetadataCache;
+import utils.AddressIndex;
+import utils.CryptoUnit;
+import utils.DerivedAddress;
+import utils.FxAccount;
+import utils.FxAmount;
+import utils.TxAssembler;
+import utils.TxMessageType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Deterministic data shared by the benchmarks : a public BIP39 test seedphrase (never use it for real funds), its derived accounts, and transactions.
+ */
+final class Fixtures {
+
+    static final String MNEMONIC = "abandon abandon abandon abandon abandon abandon abandon abandon abandon abandon abandon about";
+    static final String PASSWORD = "benchmark";
+    static final String CHAIN_ID = "fxcore";
+    static final String VALIDATOR = "fxvaloper1z67rkadwrp2nf4zwxpktpqnw969plelyjj5alt";
+
+    private Fixtures() {
+    }
+
+    static String encryptedMnemonic() throws Exception {
+        return CryptoUtils.EncryptAndEncode(CryptoUtils.SALT + PASSWORD, MNEMONIC);
+    }
+
+    static CryptoUnit cryptoUnit() throws Exception {
+        return new CryptoUnit(encryptedMnemonic(), MNEMONIC);
+    }
+
+    /**
+     * @return the first 'count' delegator accounts of the test seedphrase
+     */
+    static List<FxAccount> accounts(int count) throws Exception {
+        CryptoUnit _cu = cryptoUnit();
+        AddressIndex _index = AddressIndex.build(List.of(_cu), count, null);
+        List<FxAccount> ret = new ArrayList<>(count);
+        for (DerivedAddress _da : _cu.deriveAddresses(count)) {
+            ret.add(FxAccount.generateDelegator(_da.getFxDelegatorAddress(), _index));
+        }
+        return ret;
+    }
+
+    static cosmos.staking.v1beta1.Tx.MsgDelegate delegate(FxAccount account, FxAmount amount) {
+        return cosmos.staking.v1beta1.Tx.MsgDelegate.newBuilder()
+                .setDelegatorAddress(account.getFxDelegatorAddress())
+                .setValidatorAddress(VALIDATOR)
+                .setAmount(cosmos.base.v1beta1.CoinOuterClass.Coin.newBuilder()
+                        .setAmount(amount.toAttoString())
+                        .setDenom("FX")
+                        .build())
+                .build();
+    }
+
+    static cosmos.distribution.v1beta1.Tx.MsgWithdrawDelegatorReward withdrawRewards(FxAccount account) {
+        return cosmos.distribution.v1beta1.Tx.MsgWithdrawDelegatorReward.newBuilder()
+                .setDelegatorAddress(account.getFxDelegatorAddress())
+                .setValidatorAddress(VALIDATOR)
+                .build();
+    }
+
+    /**
+     * @return a transaction withdrawing and restaking the rewards of each account, spreading 'messages' messages over the accounts
+     */
+    static TxAssembler transaction(List<FxAccount> accounts, int messages) {
+        TxAssembler ret = new TxAssembler(CHAIN_ID, "FrenchXCore AutoCompounder : benchmark");
+        for (int i = 0; i < messages; i++) {
+            FxAccount _account = accounts.get(i % accounts.size());
+            AccountMetadataCache.Metadata _metadata = new AccountMetadataCache.Metadata(1000L + i % accounts.size(), 42L);
+            if (i % 2 == 0) {
+                ret.addMessage(_account, _metadata, TxMessageType.WITHDRAW_REWARDS, withdrawRewards(_account));
+            } else {
+                ret.addMessage(_account, _metadata, TxMessageType.DELEGATE, delegate(_account, FxAmount.parse("123.456789")));
+            }
+        }
+        return ret;
+    }
+
+}
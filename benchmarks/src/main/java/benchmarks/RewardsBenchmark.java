@@ -0,0 +1,49 @@
+package benchmarks;
+
+import cosmos.base.v1beta1.CoinOuterClass;
+import org.openjdk.jmh.annotations.*;
+import utils.FxAmount;
+import utils.QueryPlanner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Aggregation of the $FX rewards of a delegator over 1, 10 or 100 validators, as returned by the node : one FX decimal coin
+ * (with 36 digits of precision) along with a few other denominations per validator.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RewardsBenchmark {
+
+    @Param({ "1", "10", "100" })
+    private int validators;
+
+    private final List<List<CoinOuterClass.DecCoin>> rewards = new ArrayList<>();
+
+    @Setup
+    public void setup() {
+        for (int i = 0; i < this.validators; i++) {
+            List<CoinOuterClass.DecCoin> _coins = new ArrayList<>();
+            _coins.add(CoinOuterClass.DecCoin.newBuilder().setDenom("FX").setAmount((123456789 + i) + "012345678901234567890123456").build());
+            _coins.add(CoinOuterClass.DecCoin.newBuilder().setDenom("eth0x9c3ac7cbf7e9cb1f1b7ee5e6d5d15b6fd5a1a5a3").setAmount("1234567890123456789012").build());
+            _coins.add(CoinOuterClass.DecCoin.newBuilder().setDenom("ibc/4757BC3AA2C696F7083C825BD3951AE4D1631F21F0DAB3DB26B6BE1B3D2D5C13").setAmount("98765432109876543210").build());
+            this.rewards.add(_coins);
+        }
+    }
+
+    @Benchmark
+    public FxAmount sumRewards() {
+        FxAmount.Sum ret = new FxAmount.Sum();
+        for (List<CoinOuterClass.DecCoin> _coins : this.rewards) {
+            ret.add(QueryPlanner.sumFx(_coins));
+        }
+        return ret.get();
+    }
+
+}
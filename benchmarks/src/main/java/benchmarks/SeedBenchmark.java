@@ -0,0 +1,43 @@
+package benchmarks;
+
+import libs.CryptoUtils;
+import org.bitcoinj.crypto.DeterministicHierarchy;
+import org.openjdk.jmh.annotations.*;
+import utils.CryptoUnit;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decryption of an encrypted seedphrase, and BIP39 stretching of the seedphrase into the root key.
+ * The password key (PBKDF2) is derived once per tenant, before decrypting all its seedphrases : it is derived in the setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SeedBenchmark {
+
+    private String encryptedMnemonic;
+    private SecretKeySpec key;
+
+    @Setup
+    public void setup() throws Exception {
+        this.encryptedMnemonic = Fixtures.encryptedMnemonic();
+        this.key = CryptoUtils.generateKey(CryptoUtils.SALT + Fixtures.PASSWORD);
+    }
+
+    @Benchmark
+    public String decryptSeed() throws Exception {
+        return CryptoUtils.DecodeAndDecrypt(this.key, this.encryptedMnemonic);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public DeterministicHierarchy stretchSeed() throws Exception {
+        return new CryptoUnit(this.encryptedMnemonic, Fixtures.MNEMONIC).getHierarchy();
+    }
+
+}
@@ -0,0 +1,62 @@
+package benchmarks;
+
+import com.google.protobuf.ByteString;
+import cosmos.tx.v1beta1.TxOuterClass;
+import org.openjdk.jmh.annotations.*;
+import utils.FxAccount;
+import utils.FxAmount;
+import utils.TxAssembler;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialization of the TxBody (after a message was patched, e.g. to pay the fee) and of the SignDoc of large transactions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SerializationBenchmark {
+
+    @Param({ "10", "100", "1000" })
+    private int messages;
+
+    private TxAssembler transaction;
+    private FxAccount feePayer;
+    private ByteString authInfoBytes;
+
+    @Setup
+    public void setup() throws Exception {
+        List<FxAccount> _accounts = Fixtures.accounts(10);
+        this.feePayer = _accounts.get(0);
+        this.transaction = Fixtures.transaction(_accounts, this.messages);
+        this.authInfoBytes = TxOuterClass.TxRaw.parseFrom(this.transaction.sign(FxAmount.ofAtto(4000000000000L).multiply(500000L), 500000L).toByteArray()).getAuthInfoBytes();
+    }
+
+    @Benchmark
+    public ByteString serializeBody() {
+        // Patching a message discards the cached body bytes
+        this.transaction.setMessage(1, Fixtures.delegate(this.feePayer, FxAmount.parse("123.456789")));
+        return this.transaction.getBodyBytes();
+    }
+
+    @Benchmark
+    public byte[] serializeSignDoc() {
+        return TxOuterClass.SignDoc.newBuilder()
+                .setBodyBytes(this.transaction.getBodyBytes())
+                .setAuthInfoBytes(this.authInfoBytes)
+                .setChainId(Fixtures.CHAIN_ID)
+                .setAccountNumber(1000L)
+                .build()
+                .toByteArray();
+    }
+
+    @Benchmark
+    public TxOuterClass.Tx buildSimulationTx() {
+        return this.transaction.buildSimulationTx();
+    }
+
+}
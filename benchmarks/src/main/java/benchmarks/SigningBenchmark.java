@@ -0,0 +1,54 @@
+package benchmarks;
+
+import cosmos.tx.v1beta1.TxOuterClass;
+import libs.CryptoUtils;
+import org.bitcoinj.core.ECKey;
+import org.openjdk.jmh.annotations.*;
+import utils.FxAccount;
+import utils.FxAmount;
+import utils.TxAssembler;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Signing of a transaction withdrawing and restaking the rewards of 1, 10 or 100 signers (2 messages each).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SigningBenchmark {
+
+    @Param({ "1", "10", "100" })
+    private int signers;
+
+    private TxAssembler transaction;
+    private TxOuterClass.SignDoc signDoc;
+    private ECKey key;
+
+    @Setup
+    public void setup() throws Exception {
+        List<FxAccount> _accounts = Fixtures.accounts(this.signers);
+        this.transaction = Fixtures.transaction(_accounts, this.signers * 2);
+        this.key = _accounts.get(0).getSigningKey();
+        this.signDoc = TxOuterClass.SignDoc.newBuilder()
+                .setBodyBytes(this.transaction.getBodyBytes())
+                .setChainId(Fixtures.CHAIN_ID)
+                .setAccountNumber(1000L)
+                .build();
+    }
+
+    @Benchmark
+    public TxOuterClass.TxRaw signTransaction() {
+        return this.transaction.sign(FxAmount.ofAtto(4000000000000L).multiply(500000L), 500000L);
+    }
+
+    @Benchmark
+    public byte[] signSingleSignDoc() {
+        return CryptoUtils.signTransaction(this.signDoc, this.key);
+    }
+
+}
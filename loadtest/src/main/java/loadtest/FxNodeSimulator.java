@@ -0,0 +1,757 @@
+package loadtest;
+
+import com.google.protobuf.Any;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Timestamp;
+import cosmos.base.abci.v1beta1.Abci;
+import cosmos.base.query.v1beta1.Pagination;
+import cosmos.base.v1beta1.CoinOuterClass;
+import cosmos.distribution.v1beta1.Distribution;
+import cosmos.staking.v1beta1.Staking;
+import cosmos.tx.v1beta1.ServiceOuterClass;
+import cosmos.tx.v1beta1.TxOuterClass;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.netty.shaded.io.grpc.netty.NettyServerBuilder;
+import io.grpc.netty.shaded.io.netty.channel.nio.NioEventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.grpc.stub.StreamObserver;
+import libs.CryptoUtils;
+import utils.FxAmount;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-process stand-in for an FX node : serves the tendermint, bank, distribution, staking, auth and tx gRPC services used by the auto-compounder.
+ * Blocks are produced on a timer : rewards accrue on every block, and broadcast transactions are executed in the next block (fee, withdrawals and delegations).
+ * Sequences, fees and gas limits are checked the way the node does, but signatures are NOT verified.
+ * Every request can be delayed (latency plus random jitter) or failed with UNAVAILABLE, and delegations are paginated with a configurable maximum page size.
+ * <p>
+ * Accounts are created on their first query, with the balance and delegations of the account template.
+ * Validators have no operator account : their commission is always zero.
+ */
+public class FxNodeSimulator {
+
+    public static final String CHAIN_ID = "fxcore";
+    public static final int ERR_TX_DECODE = 2;
+    public static final int ERR_UNAUTHORIZED = 4;
+    public static final int ERR_INSUFFICIENT_FUNDS = 5;
+    public static final int ERR_UNKNOWN_REQUEST = 6;
+    public static final int ERR_OUT_OF_GAS = 11;
+    public static final int ERR_INSUFFICIENT_FEE = 13;
+    public static final int ERR_INVALID_REQUEST = 18;
+    public static final int ERR_WRONG_SEQUENCE = 32;
+
+    private static final String MSG_WITHDRAW_REWARDS = "/cosmos.distribution.v1beta1.MsgWithdrawDelegatorReward";
+    private static final String MSG_WITHDRAW_COMMISSION = "/cosmos.distribution.v1beta1.MsgWithdrawValidatorCommission";
+    private static final String MSG_DELEGATE = "/cosmos.staking.v1beta1.MsgDelegate";
+    // Gas charged by the simulated node : per transaction byte, per signature and per message
+    private static final long GAS_PER_BYTE = 10L;
+    private static final long GAS_PER_TX = 40000L;
+    private static final long GAS_PER_SIGNER = 25000L;
+    private static final long GAS_WITHDRAW_REWARDS = 70000L;
+    private static final long GAS_DELEGATE = 110000L;
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final String DEC_SCALE = "000000000000000000";
+
+    private final long blockMs;
+    private final long latencyMs;
+    private final long jitterMs;
+    private final double errorRate;
+    private final int maxPageSize;
+    private final long minGasPrice;
+    private FxAmount templateBalance = FxAmount.ONE.multiply(20);
+    private FxAmount templateDelegation = FxAmount.ONE.multiply(10000);
+    private double rewardRatePerBlock = 0.0001d;
+    private final List<String> validators = new ArrayList<>();
+
+    private final Map<String, SimAccount> accounts = new ConcurrentHashMap<>();
+    private final AtomicLong accountNumbers = new AtomicLong();
+    private final Object ledger = new Object();
+    private final Queue<SimTx> mempool = new ConcurrentLinkedQueue<>();
+    private final Map<String, Abci.TxResponse> committed = new ConcurrentHashMap<>();
+    private final AtomicLong height = new AtomicLong(1L);
+    private volatile long blockTime = System.currentTimeMillis();
+    private final Map<String, LongAdder> requests = new ConcurrentHashMap<>();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder rejectedTxs = new LongAdder();
+    private final LongAdder executedTxs = new LongAdder();
+    private final LongAdder failedTxs = new LongAdder();
+
+    private final ScheduledExecutorService blocks = Executors.newSingleThreadScheduledExecutor(daemonThreads("fx-sim-block"));
+    private final ScheduledExecutorService responder = Executors.newScheduledThreadPool(4, daemonThreads("fx-sim-responder"));
+    private final ExecutorService handlers = Executors.newFixedThreadPool(4, daemonThreads("fx-sim-grpc"));
+    private NioEventLoopGroup eventLoops;
+    private Server server;
+
+    /**
+     * @param latencyMs the delay added to every response
+     * @param jitterMs the maximum random delay added on top of the latency
+     * @param errorRate the ratio of requests failed with UNAVAILABLE (0 to 1)
+     * @param maxPageSize the maximum number of delegations returned per page, whatever the requested limit
+     * @param minGasPrice the minimum gas price (in atto-FX) accepted by the node
+     */
+    public FxNodeSimulator(long blockMs, long latencyMs, long jitterMs, double errorRate, int maxPageSize, long minGasPrice) {
+        this.blockMs = blockMs;
+        this.latencyMs = latencyMs;
+        this.jitterMs = jitterMs;
+        this.errorRate = errorRate;
+        this.maxPageSize = maxPageSize;
+        this.minGasPrice = minGasPrice;
+        this.setAccountTemplate(this.templateBalance, 2, this.templateDelegation, this.rewardRatePerBlock);
+    }
+
+    /**
+     * Sets the state of the accounts created from now on
+     * @param validators the number of validators each account delegates to
+     * @param rewardRatePerBlock the rewards earned on each block, as a ratio of the delegation
+     */
+    public void setAccountTemplate(FxAmount balance, int validators, FxAmount delegation, double rewardRatePerBlock) {
+        this.templateBalance = balance;
+        this.templateDelegation = delegation;
+        this.rewardRatePerBlock = rewardRatePerBlock;
+        this.validators.clear();
+        for (int i = 0; i < validators; i++) {
+            try {
+                this.validators.add(CryptoUtils.generateAddress("fxvaloper", ByteBuffer.allocate(20).putInt(16, i + 1).array()));
+            } catch (Exception ex) {
+                throw new IllegalStateException("Could not generate the simulated validator addresses", ex);
+            }
+        }
+    }
+
+    public void start() throws IOException {
+        this.eventLoops = new NioEventLoopGroup(2, daemonThreads("fx-sim-netty"));
+        this.server = NettyServerBuilder.forAddress(new InetSocketAddress("127.0.0.1", 0))
+                .channelType(NioServerSocketChannel.class)
+                .bossEventLoopGroup(this.eventLoops)
+                .workerEventLoopGroup(this.eventLoops)
+                .executor(this.handlers)
+                .addService(new TendermintService())
+                .addService(new BankService())
+                .addService(new DistributionService())
+                .addService(new StakingService())
+                .addService(new AuthService())
+                .addService(new TxService())
+                .build()
+                .start();
+        this.blocks.scheduleAtFixedRate(this::produceBlock, this.blockMs, this.blockMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        this.blocks.shutdownNow();
+        if (this.server != null) {
+            this.server.shutdownNow();
+            try {
+                this.server.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        this.responder.shutdownNow();
+        this.handlers.shutdownNow();
+        if (this.eventLoops != null) {
+            this.eventLoops.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+        }
+    }
+
+    public int getPort() {
+        return this.server.getPort();
+    }
+
+    public long getHeight() {
+        return this.height.get();
+    }
+
+    /**
+     * @return the number of requests received per method (named after the CosmosGrpcApi methods)
+     */
+    public Map<String, Long> getRequestCounts() {
+        Map<String, Long> ret = new TreeMap<>();
+        this.requests.forEach((_method, _count) -> ret.put(_method, _count.sum()));
+        return ret;
+    }
+
+    /**
+     * @return the number of requests failed on purpose (see the error rate)
+     */
+    public long getFailures() {
+        return this.failures.sum();
+    }
+
+    public long getRejectedTxs() {
+        return this.rejectedTxs.sum();
+    }
+
+    public long getExecutedTxs() {
+        return this.executedTxs.sum();
+    }
+
+    public long getFailedTxs() {
+        return this.failedTxs.sum();
+    }
+
+    /**
+     * The state of an account : all fields are guarded by the account itself
+     */
+    private final class SimAccount {
+
+        private final String address;
+        private final long number;
+        private long sequence = 0L;
+        private long checkSequence = 0L;
+        private FxAmount balance;
+        private final Map<String, FxAmount> delegations = new LinkedHashMap<>();
+        private final Map<String, FxAmount> rewards = new HashMap<>();
+        private long accruedHeight;
+
+        private SimAccount(String address) {
+            this.address = address;
+            this.number = FxNodeSimulator.this.accountNumbers.incrementAndGet();
+            this.balance = FxNodeSimulator.this.templateBalance;
+            FxNodeSimulator.this.validators.forEach(_v -> this.delegations.put(_v, FxNodeSimulator.this.templateDelegation));
+            this.accruedHeight = FxNodeSimulator.this.height.get();
+        }
+
+        /**
+         * Rewards accrue on every block since the last accrual
+         */
+        private void accrue(long height) {
+            long _blocks = height - this.accruedHeight;
+            if (_blocks > 0) {
+                this.delegations.forEach((_v, _d) -> this.rewards.merge(_v, FxAmount.ofFx(_d.doubleValue() * FxNodeSimulator.this.rewardRatePerBlock * _blocks), FxAmount::add));
+                this.accruedHeight = height;
+            }
+        }
+
+        private FxAmount withdraw(String validator) {
+            FxAmount ret = this.rewards.remove(validator);
+            if (ret != null) {
+                this.balance = this.balance.add(ret);
+            }
+            return ret != null ? ret : FxAmount.ZERO;
+        }
+
+    }
+
+    /**
+     * A decoded transaction : signers are listed in the order of their first message, as the node does
+     */
+    private static final class SimTx {
+
+        private final String hash;
+        private final int size;
+        private final List<Any> messages;
+        private final List<String> signers = new ArrayList<>();
+        private final List<Long> sequences = new ArrayList<>();
+        private FxAmount fee = FxAmount.ZERO;
+        private long gasLimit;
+        private long gasUsed;
+
+        private SimTx(String hash, int size, TxOuterClass.TxBody body, TxOuterClass.AuthInfo authInfo) {
+            this.hash = hash;
+            this.size = size;
+            this.messages = body.getMessagesList();
+            authInfo.getSignerInfosList().forEach(_s -> this.sequences.add(_s.getSequence()));
+            authInfo.getFee().getAmountList().forEach(_c -> {
+                if (_c.getDenom().equals("FX")) {
+                    this.fee = this.fee.add(FxAmount.fromCoin(_c.getAmountBytes()));
+                }
+            });
+            this.gasLimit = authInfo.getFee().getGasLimit();
+        }
+
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger _count = new AtomicInteger();
+        return _r -> {
+            Thread _t = new Thread(_r, name + "-" + _count.incrementAndGet());
+            _t.setDaemon(true);
+            return _t;
+        };
+    }
+
+    private static String hash(byte[] txBytes) {
+        try {
+            return HexFormat.of().withUpperCase().formatHex(MessageDigest.getInstance("SHA-256").digest(txBytes));
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private SimAccount getAccount(String address) {
+        return this.accounts.computeIfAbsent(address, SimAccount::new);
+    }
+
+    private static CoinOuterClass.DecCoin decCoin(FxAmount amount) {
+        return CoinOuterClass.DecCoin.newBuilder().setDenom("FX").setAmount(amount.signum() == 0 ? "0" : amount.toAttoString() + DEC_SCALE).build();
+    }
+
+    /**
+     * Counts the request, then answers it after the simulated latency (or fails it, at the simulated error rate)
+     */
+    private <T> void respond(String method, StreamObserver<T> observer, Callable<T> handler) {
+        this.requests.computeIfAbsent(method, _m -> new LongAdder()).increment();
+        Runnable _reply = () -> {
+            if (this.errorRate > 0 && ThreadLocalRandom.current().nextDouble() < this.errorRate) {
+                this.failures.increment();
+                observer.onError(Status.UNAVAILABLE.withDescription("Simulated node failure").asRuntimeException());
+                return;
+            }
+            T _response;
+            try {
+                _response = handler.call();
+            } catch (StatusRuntimeException ex) {
+                observer.onError(ex);
+                return;
+            } catch (Exception ex) {
+                observer.onError(Status.INTERNAL.withDescription(ex.getMessage()).asRuntimeException());
+                return;
+            }
+            observer.onNext(_response);
+            observer.onCompleted();
+        };
+        long _delayMs = this.latencyMs + (this.jitterMs > 0 ? ThreadLocalRandom.current().nextLong(this.jitterMs + 1) : 0L);
+        if (_delayMs > 0) {
+            this.responder.schedule(_reply, _delayMs, TimeUnit.MILLISECONDS);
+        } else {
+            _reply.run();
+        }
+    }
+
+    private void produceBlock() {
+        try {
+            synchronized (this.ledger) {
+                long _height = this.height.incrementAndGet();
+                this.blockTime = System.currentTimeMillis();
+                SimTx _tx;
+                while ((_tx = this.mempool.poll()) != null) {
+                    this.deliverTx(_tx, _height);
+                }
+            }
+        } catch (Exception ex) {
+            System.out.println("WARNING: Simulated block production failed : " + ex.getMessage());
+        }
+    }
+
+    private SimTx decodeTx(byte[] txBytes) throws InvalidProtocolBufferException {
+        TxOuterClass.TxRaw _raw = TxOuterClass.TxRaw.parseFrom(txBytes);
+        return new SimTx(hash(txBytes), txBytes.length, TxOuterClass.TxBody.parseFrom(_raw.getBodyBytes()), TxOuterClass.AuthInfo.parseFrom(_raw.getAuthInfoBytes()));
+    }
+
+    /**
+     * Resolves the signers and the gas used of the transaction, then checks its sequences (and its fee when broadcast).
+     * @return the error code (0 if the transaction is valid), with its log set in the response
+     */
+    private int checkTx(SimTx tx, boolean simulate, Abci.TxResponse.Builder response) throws InvalidProtocolBufferException {
+        long _gas = GAS_PER_TX + tx.size * GAS_PER_BYTE;
+        for (Any _message : tx.messages) {
+            String _signer;
+            switch (_message.getTypeUrl()) {
+                case MSG_WITHDRAW_REWARDS:
+                    _signer = cosmos.distribution.v1beta1.Tx.MsgWithdrawDelegatorReward.parseFrom(_message.getValue()).getDelegatorAddress();
+                    _gas += GAS_WITHDRAW_REWARDS;
+                    break;
+                case MSG_DELEGATE:
+                    _signer = cosmos.staking.v1beta1.Tx.MsgDelegate.parseFrom(_message.getValue()).getDelegatorAddress();
+                    _gas += GAS_DELEGATE;
+                    break;
+                case MSG_WITHDRAW_COMMISSION:
+                    response.setRawLog("unauthorized: validators have no operator account on the simulated node");
+                    return ERR_UNAUTHORIZED;
+                default:
+                    response.setRawLog("unrecognized message type: " + _message.getTypeUrl() + ": unknown request");
+                    return ERR_UNKNOWN_REQUEST;
+            }
+            if (!tx.signers.contains(_signer)) {
+                tx.signers.add(_signer);
+            }
+        }
+        tx.gasUsed = _gas + tx.signers.size() * GAS_PER_SIGNER;
+        response.setGasWanted(tx.gasLimit).setGasUsed(tx.gasUsed);
+        if (tx.signers.isEmpty()) {
+            response.setRawLog("must contain at least one message: invalid request");
+            return ERR_INVALID_REQUEST;
+        }
+        if (tx.signers.size() != tx.sequences.size()) {
+            response.setRawLog("wrong number of signers; expected " + tx.signers.size() + ", got " + tx.sequences.size() + ": unauthorized");
+            return ERR_UNAUTHORIZED;
+        }
+        for (int i = 0; i < tx.signers.size(); i++) {
+            SimAccount _account = this.getAccount(tx.signers.get(i));
+            synchronized (_account) {
+                if (_account.checkSequence != tx.sequences.get(i)) {
+                    response.setRawLog("account sequence mismatch, expected " + _account.checkSequence + ", got " + tx.sequences.get(i) + ": incorrect account sequence");
+                    return ERR_WRONG_SEQUENCE;
+                }
+            }
+        }
+        if (simulate) {
+            return 0;
+        }
+        FxAmount _required = FxAmount.ofAtto(this.minGasPrice).multiply(tx.gasLimit);
+        if (tx.fee.compareTo(_required) < 0) {
+            response.setRawLog("insufficient fees; got: " + tx.fee.toAttoString() + "FX required: " + _required.toAttoString() + "FX: insufficient fee");
+            return ERR_INSUFFICIENT_FEE;
+        }
+        long _anteGas = GAS_PER_TX + tx.size * GAS_PER_BYTE + tx.signers.size() * GAS_PER_SIGNER;
+        if (tx.gasLimit < _anteGas) {
+            response.setRawLog("out of gas in location: txSize; gasWanted: " + tx.gasLimit + ", gasUsed: " + _anteGas + ": out of gas");
+            return ERR_OUT_OF_GAS;
+        }
+        SimAccount _feePayer = this.getAccount(tx.signers.get(0));
+        synchronized (_feePayer) {
+            if (_feePayer.balance.compareTo(tx.fee) < 0) {
+                response.setRawLog(_feePayer.balance.toAttoString() + "FX is smaller than " + tx.fee.toAttoString() + "FX: insufficient funds");
+                return ERR_INSUFFICIENT_FUNDS;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Executes a transaction of the mempool : the fee is always paid and the sequences always consumed,
+     * but the messages are only applied if they all succeed.
+     */
+    private void deliverTx(SimTx tx, long height) throws InvalidProtocolBufferException {
+        Abci.TxResponse.Builder _response = Abci.TxResponse.newBuilder()
+                .setTxhash(tx.hash)
+                .setHeight(height)
+                .setGasWanted(tx.gasLimit)
+                .setGasUsed(Math.min(tx.gasUsed, tx.gasLimit))
+                .setTimestamp(java.time.Instant.ofEpochMilli(this.blockTime).toString());
+        tx.signers.forEach(_signer -> {
+            SimAccount _account = this.getAccount(_signer);
+            synchronized (_account) {
+                _account.sequence++;
+            }
+        });
+        SimAccount _feePayer = this.getAccount(tx.signers.get(0));
+        synchronized (_feePayer) {
+            _feePayer.balance = tx.fee.compareTo(_feePayer.balance) > 0 ? FxAmount.ZERO : _feePayer.balance.subtract(tx.fee);
+        }
+        int _code;
+        if (tx.gasUsed > tx.gasLimit) {
+            _code = ERR_OUT_OF_GAS;
+            _response.setRawLog("out of gas in location: WritePerByte; gasWanted: " + tx.gasLimit + ", gasUsed: " + tx.gasUsed + ": out of gas");
+        } else {
+            _code = this.applyMessages(tx, height, _response);
+        }
+        _response.setCode(_code);
+        if (_code == 0) {
+            _response.setRawLog("[]");
+            this.executedTxs.increment();
+        } else {
+            this.failedTxs.increment();
+        }
+        this.committed.put(tx.hash, _response.build());
+    }
+
+    /**
+     * Applies the messages on copies of the touched accounts, and only commits them when all the messages succeed
+     */
+    private int applyMessages(SimTx tx, long height, Abci.TxResponse.Builder response) throws InvalidProtocolBufferException {
+        Map<SimAccount, FxAmount> _balances = new HashMap<>();
+        Map<SimAccount, Map<String, FxAmount>> _rewards = new HashMap<>();
+        Map<SimAccount, Map<String, FxAmount>> _delegations = new HashMap<>();
+        for (Any _message : tx.messages) {
+            String _delegator;
+            String _validator;
+            FxAmount _amount = null;
+            if (_message.getTypeUrl().equals(MSG_DELEGATE)) {
+                cosmos.staking.v1beta1.Tx.MsgDelegate _delegate = cosmos.staking.v1beta1.Tx.MsgDelegate.parseFrom(_message.getValue());
+                _delegator = _delegate.getDelegatorAddress();
+                _validator = _delegate.getValidatorAddress();
+                _amount = FxAmount.fromCoin(_delegate.getAmount().getAmountBytes());
+            } else {
+                cosmos.distribution.v1beta1.Tx.MsgWithdrawDelegatorReward _withdraw = cosmos.distribution.v1beta1.Tx.MsgWithdrawDelegatorReward.parseFrom(_message.getValue());
+                _delegator = _withdraw.getDelegatorAddress();
+                _validator = _withdraw.getValidatorAddress();
+            }
+            SimAccount _account = this.getAccount(_delegator);
+            synchronized (_account) {
+                _account.accrue(height);
+                _balances.computeIfAbsent(_account, _a -> _a.balance);
+                Map<String, FxAmount> _accountRewards = _rewards.computeIfAbsent(_account, _a -> new HashMap<>(_a.rewards));
+                Map<String, FxAmount> _accountDelegations = _delegations.computeIfAbsent(_account, _a -> new LinkedHashMap<>(_a.delegations));
+                if (_amount == null && !_accountDelegations.containsKey(_validator)) {
+                    response.setRawLog("no delegation for (address, validator) tuple: invalid request");
+                    return ERR_INVALID_REQUEST;
+                }
+                // Delegating also withdraws the pending rewards of the validator
+                FxAmount _withdrawn = _accountRewards.remove(_validator);
+                FxAmount _balance = _balances.get(_account).add(_withdrawn != null ? _withdrawn : FxAmount.ZERO);
+                if (_amount != null) {
+                    if (_balance.compareTo(_amount) < 0) {
+                        response.setRawLog(_balance.toAttoString() + "FX is smaller than " + _amount.toAttoString() + "FX: insufficient funds");
+                        return ERR_INSUFFICIENT_FUNDS;
+                    }
+                    _balance = _balance.subtract(_amount);
+                    _accountDelegations.merge(_validator, _amount, FxAmount::add);
+                }
+                _balances.put(_account, _balance);
+            }
+        }
+        _balances.forEach((_account, _balance) -> {
+            synchronized (_account) {
+                _account.balance = _balance;
+                _account.rewards.clear();
+                _account.rewards.putAll(_rewards.get(_account));
+                _account.delegations.clear();
+                _account.delegations.putAll(_delegations.get(_account));
+            }
+        });
+        return 0;
+    }
+
+    private class TendermintService extends cosmos.base.tendermint.v1beta1.ServiceGrpc.ServiceImplBase {
+
+        @Override
+        public void getNodeInfo(cosmos.base.tendermint.v1beta1.Query.GetNodeInfoRequest request, StreamObserver<cosmos.base.tendermint.v1beta1.Query.GetNodeInfoResponse> observer) {
+            respond("tmGetNodeInfo", observer, () -> cosmos.base.tendermint.v1beta1.Query.GetNodeInfoResponse.newBuilder()
+                    .setDefaultNodeInfo(tendermint.p2p.Types.DefaultNodeInfo.newBuilder().setNetwork(CHAIN_ID).setMoniker("fx-node-simulator").build())
+                    .build());
+        }
+
+        @Override
+        public void getLatestBlock(cosmos.base.tendermint.v1beta1.Query.GetLatestBlockRequest request, StreamObserver<cosmos.base.tendermint.v1beta1.Query.GetLatestBlockResponse> observer) {
+            respond("tmGetLatestBlock", observer, () -> {
+                long _time = blockTime;
+                return cosmos.base.tendermint.v1beta1.Query.GetLatestBlockResponse.newBuilder()
+                        .setBlock(tendermint.types.BlockOuterClass.Block.newBuilder()
+                                .setHeader(tendermint.types.Types.Header.newBuilder()
+                                        .setChainId(CHAIN_ID)
+                                        .setHeight(height.get())
+                                        .setTime(Timestamp.newBuilder().setSeconds(_time / 1000L).setNanos((int) (_time % 1000L) * 1000000).build())
+                                        .build())
+                                .build())
+                        .build();
+            });
+        }
+
+    }
+
+    private class BankService extends cosmos.bank.v1beta1.QueryGrpc.QueryImplBase {
+
+        @Override
+        public void balance(cosmos.bank.v1beta1.QueryOuterClass.QueryBalanceRequest request, StreamObserver<cosmos.bank.v1beta1.QueryOuterClass.QueryBalanceResponse> observer) {
+            respond("bankQueryBalance", observer, () -> {
+                SimAccount _account = getAccount(request.getAddress());
+                String _amount;
+                synchronized (_account) {
+                    _amount = request.getDenom().equals("FX") ? _account.balance.toAttoString() : "0";
+                }
+                return cosmos.bank.v1beta1.QueryOuterClass.QueryBalanceResponse.newBuilder()
+                        .setBalance(CoinOuterClass.Coin.newBuilder().setDenom(request.getDenom()).setAmount(_amount).build())
+                        .build();
+            });
+        }
+
+    }
+
+    private class DistributionService extends cosmos.distribution.v1beta1.QueryGrpc.QueryImplBase {
+
+        @Override
+        public void validatorCommission(cosmos.distribution.v1beta1.QueryOuterClass.QueryValidatorCommissionRequest request, StreamObserver<cosmos.distribution.v1beta1.QueryOuterClass.QueryValidatorCommissionResponse> observer) {
+            respond("distributionQueryValidatorCommission", observer, () -> cosmos.distribution.v1beta1.QueryOuterClass.QueryValidatorCommissionResponse.newBuilder()
+                    .setCommission(Distribution.ValidatorAccumulatedCommission.newBuilder().build())
+                    .build());
+        }
+
+        @Override
+        public void delegationRewards(cosmos.distribution.v1beta1.QueryOuterClass.QueryDelegationRewardsRequest request, StreamObserver<cosmos.distribution.v1beta1.QueryOuterClass.QueryDelegationRewardsResponse> observer) {
+            respond("distributionQueryDelegationRewards", observer, () -> {
+                SimAccount _account = getAccount(request.getDelegatorAddress());
+                FxAmount _rewards;
+                synchronized (_account) {
+                    if (!_account.delegations.containsKey(request.getValidatorAddress())) {
+                        throw Status.NOT_FOUND.withDescription("delegation does not exist").asRuntimeException();
+                    }
+                    _account.accrue(height.get());
+                    _rewards = _account.rewards.getOrDefault(request.getValidatorAddress(), FxAmount.ZERO);
+                }
+                return cosmos.distribution.v1beta1.QueryOuterClass.QueryDelegationRewardsResponse.newBuilder().addRewards(decCoin(_rewards)).build();
+            });
+        }
+
+        @Override
+        public void delegationTotalRewards(cosmos.distribution.v1beta1.QueryOuterClass.QueryDelegationTotalRewardsRequest request, StreamObserver<cosmos.distribution.v1beta1.QueryOuterClass.QueryDelegationTotalRewardsResponse> observer) {
+            respond("distributionQueryDelegationTotalRewards", observer, () -> {
+                SimAccount _account = getAccount(request.getDelegatorAddress());
+                cosmos.distribution.v1beta1.QueryOuterClass.QueryDelegationTotalRewardsResponse.Builder _response = cosmos.distribution.v1beta1.QueryOuterClass.QueryDelegationTotalRewardsResponse.newBuilder();
+                FxAmount.Sum _total = new FxAmount.Sum();
+                synchronized (_account) {
+                    _account.accrue(height.get());
+                    _account.delegations.keySet().forEach(_v -> {
+                        FxAmount _rewards = _account.rewards.getOrDefault(_v, FxAmount.ZERO);
+                        _total.add(_rewards);
+                        _response.addRewards(Distribution.DelegationDelegatorReward.newBuilder().setValidatorAddress(_v).addReward(decCoin(_rewards)).build());
+                    });
+                }
+                return _response.addTotal(decCoin(_total.get())).build();
+            });
+        }
+
+    }
+
+    private class StakingService extends cosmos.staking.v1beta1.QueryGrpc.QueryImplBase {
+
+        @Override
+        public void delegatorValidators(cosmos.staking.v1beta1.QueryOuterClass.QueryDelegatorValidatorsRequest request, StreamObserver<cosmos.staking.v1beta1.QueryOuterClass.QueryDelegatorValidatorsResponse> observer) {
+            respond("stakingQueryDelegatorValidators", observer, () -> {
+                SimAccount _account = getAccount(request.getDelegatorAddr());
+                cosmos.staking.v1beta1.QueryOuterClass.QueryDelegatorValidatorsResponse.Builder _response = cosmos.staking.v1beta1.QueryOuterClass.QueryDelegatorValidatorsResponse.newBuilder();
+                synchronized (_account) {
+                    _account.delegations.keySet().forEach(_v -> _response.addValidators(Staking.Validator.newBuilder().setOperatorAddress(_v).build()));
+                }
+                return _response.build();
+            });
+        }
+
+        /**
+         * The page key is the offset of the next delegation
+         */
+        @Override
+        public void delegatorDelegations(cosmos.staking.v1beta1.QueryOuterClass.QueryDelegatorDelegationsRequest request, StreamObserver<cosmos.staking.v1beta1.QueryOuterClass.QueryDelegatorDelegationsResponse> observer) {
+            respond("stakingQueryDelegatorDelegations", observer, () -> {
+                SimAccount _account = getAccount(request.getDelegatorAddr());
+                ByteString _key = request.getPagination().getKey();
+                int _offset = _key.size() == 4 ? _key.asReadOnlyByteBuffer().getInt() : 0;
+                long _limit = request.getPagination().getLimit() > 0 ? request.getPagination().getLimit() : DEFAULT_PAGE_SIZE;
+                int _pageSize = (int) Math.min(_limit, maxPageSize);
+                cosmos.staking.v1beta1.QueryOuterClass.QueryDelegatorDelegationsResponse.Builder _response = cosmos.staking.v1beta1.QueryOuterClass.QueryDelegatorDelegationsResponse.newBuilder();
+                synchronized (_account) {
+                    List<Map.Entry<String, FxAmount>> _delegations = new ArrayList<>(_account.delegations.entrySet());
+                    int _end = Math.min(_delegations.size(), _offset + _pageSize);
+                    for (int i = _offset; i < _end; i++) {
+                        Map.Entry<String, FxAmount> _delegation = _delegations.get(i);
+                        _response.addDelegationResponses(Staking.DelegationResponse.newBuilder()
+                                .setDelegation(Staking.Delegation.newBuilder()
+                                        .setDelegatorAddress(_account.address)
+                                        .setValidatorAddress(_delegation.getKey())
+                                        .setShares(_delegation.getValue().toAttoString() + DEC_SCALE)
+                                        .build())
+                                .setBalance(CoinOuterClass.Coin.newBuilder().setDenom("FX").setAmount(_delegation.getValue().toAttoString()).build())
+                                .build());
+                    }
+                    _response.setPagination(Pagination.PageResponse.newBuilder()
+                            .setNextKey(_end < _delegations.size() ? ByteString.copyFrom(ByteBuffer.allocate(4).putInt(0, _end)) : ByteString.EMPTY)
+                            .setTotal(_delegations.size())
+                            .build());
+                }
+                return _response.build();
+            });
+        }
+
+    }
+
+    private class AuthService extends cosmos.auth.v1beta1.QueryGrpc.QueryImplBase {
+
+        /**
+         * The sequence is the one of the last block, as the node does : transactions still in the mempool are not counted
+         */
+        @Override
+        public void account(cosmos.auth.v1beta1.QueryOuterClass.QueryAccountRequest request, StreamObserver<cosmos.auth.v1beta1.QueryOuterClass.QueryAccountResponse> observer) {
+            respond("authQueryAccount", observer, () -> {
+                SimAccount _account = getAccount(request.getAddress());
+                long _sequence;
+                synchronized (_account) {
+                    _sequence = _account.sequence;
+                }
+                return cosmos.auth.v1beta1.QueryOuterClass.QueryAccountResponse.newBuilder()
+                        .setAccount(Any.pack(cosmos.auth.v1beta1.Auth.BaseAccount.newBuilder()
+                                .setAddress(_account.address)
+                                .setAccountNumber(_account.number)
+                                .setSequence(_sequence)
+                                .build()))
+                        .build();
+            });
+        }
+
+    }
+
+    private class TxService extends cosmos.tx.v1beta1.ServiceGrpc.ServiceImplBase {
+
+        @Override
+        public void simulate(ServiceOuterClass.SimulateRequest request, StreamObserver<ServiceOuterClass.SimulateResponse> observer) {
+            respond("txSimulate", observer, () -> {
+                TxOuterClass.Tx _tx = request.getTx();
+                byte[] _txBytes = TxOuterClass.TxRaw.newBuilder()
+                        .setBodyBytes(_tx.getBody().toByteString())
+                        .setAuthInfoBytes(_tx.getAuthInfo().toByteString())
+                        .addAllSignatures(_tx.getSignaturesList())
+                        .build()
+                        .toByteArray();
+                SimTx _simTx = decodeTx(_txBytes);
+                Abci.TxResponse.Builder _result = Abci.TxResponse.newBuilder();
+                if (checkTx(_simTx, true, _result) != 0) {
+                    throw Status.UNKNOWN.withDescription(_result.getRawLog()).asRuntimeException();
+                }
+                return ServiceOuterClass.SimulateResponse.newBuilder()
+                        .setGasInfo(Abci.GasInfo.newBuilder().setGasUsed(_simTx.gasUsed).setGasWanted(_simTx.gasLimit).build())
+                        .build();
+            });
+        }
+
+        /**
+         * Checks the transaction as the node does in sync mode, and adds it to the mempool when valid
+         */
+        @Override
+        public void broadcastTx(ServiceOuterClass.BroadcastTxRequest request, StreamObserver<ServiceOuterClass.BroadcastTxResponse> observer) {
+            respond("txBroadcastTx", observer, () -> {
+                byte[] _txBytes = request.getTxBytes().toByteArray();
+                Abci.TxResponse.Builder _result = Abci.TxResponse.newBuilder().setTxhash(hash(_txBytes));
+                int _code;
+                synchronized (ledger) {
+                    SimTx _tx;
+                    try {
+                        _tx = decodeTx(_txBytes);
+                        _code = checkTx(_tx, false, _result);
+                    } catch (InvalidProtocolBufferException ex) {
+                        _tx = null;
+                        _code = ERR_TX_DECODE;
+                        _result.setRawLog("tx parse error: " + ex.getMessage());
+                    }
+                    if (_code == 0) {
+                        _tx.signers.forEach(_signer -> {
+                            SimAccount _account = getAccount(_signer);
+                            synchronized (_account) {
+                                _account.checkSequence++;
+                            }
+                        });
+                        mempool.add(_tx);
+                        _result.setRawLog("[]");
+                    } else {
+                        rejectedTxs.increment();
+                    }
+                }
+                return ServiceOuterClass.BroadcastTxResponse.newBuilder().setTxResponse(_result.setCode(_code).build()).build();
+            });
+        }
+
+        @Override
+        public void getTx(ServiceOuterClass.GetTxRequest request, StreamObserver<ServiceOuterClass.GetTxResponse> observer) {
+            respond("txGetTx", observer, () -> {
+                Abci.TxResponse _response = committed.get(request.getHash().toUpperCase());
+                if (_response == null) {
+                    throw Status.NOT_FOUND.withDescription("tx not found: " + request.getHash()).asRuntimeException();
+                }
+                return ServiceOuterClass.GetTxResponse.newBuilder().setTxResponse(_response).build();
+            });
+        }
+
+    }
+
+}
@@ -0,0 +1,251 @@
+package loadtest;
+
+import commands.AutoCompounder;
+import commands.FxAmountConverter;
+import libs.CryptoUtils;
+import picocli.CommandLine;
+import utils.CryptoUnit;
+import utils.DerivedAddress;
+import utils.FxAmount;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.stream.Collectors;
+
+/**
+ * Runs full compound cycles of the auto-compounder against the in-process FX node simulator, for several numbers of synthetic accounts,
+ * and reports the cycle latency percentiles, the RPC counts per cycle and the allocation rates.
+ * Each cycle is run on the calling thread, exactly as the height scheduler would run it, with all accounts due.
+ */
+@CommandLine.Command(
+        name = "loadtest",
+        description = "Runs full compound cycles against an in-process FX node simulator, and reports cycle latencies, RPC counts and allocations."
+)
+public class LoadTest implements Callable<Integer> {
+
+    private static final String MNEMONIC = "abandon abandon abandon abandon abandon abandon abandon abandon abandon abandon abandon about";
+    private static final String PASSWORD = "loadtest";
+    private static final String SIMULATOR_THREADS = "fx-sim-";
+
+    @CommandLine.Option(names = { "-a", "--accounts" }, defaultValue = "10,1000,10000", split = ",", description = "The numbers of synthetic accounts to run the cycles with (separated with a ',').")
+    private List<Integer> accountCounts;
+
+    @CommandLine.Option(names = { "--cycles" }, defaultValue = "10", description = "The number of measured cycles per number of accounts (min=1)")
+    private Integer cycles;
+
+    @CommandLine.Option(names = { "--warmup" }, defaultValue = "2", description = "The number of cycles run before measuring")
+    private Integer warmupCycles;
+
+    @CommandLine.Option(names = { "--cycle-pause" }, defaultValue = "2000", description = "The pause (in ms) between the end of a cycle and the start of the next one (min=1000)")
+    private Long cyclePauseMs;
+
+    @CommandLine.Option(names = { "--block-ms" }, defaultValue = "1000", description = "The simulated block time (in ms)")
+    private Long blockMs;
+
+    @CommandLine.Option(names = { "--latency-ms" }, defaultValue = "0", description = "The latency (in ms) added to every simulated node response")
+    private Long latencyMs;
+
+    @CommandLine.Option(names = { "--jitter-ms" }, defaultValue = "0", description = "The maximum random delay (in ms) added on top of the latency")
+    private Long jitterMs;
+
+    @CommandLine.Option(names = { "--error-rate" }, defaultValue = "0", description = "The ratio of node requests failed with UNAVAILABLE (0 to 1)")
+    private Double errorRate;
+
+    @CommandLine.Option(names = { "--page-size" }, defaultValue = "100", description = "The maximum number of delegations per page returned by the simulated node")
+    private Integer maxPageSize;
+
+    @CommandLine.Option(names = { "--validators" }, defaultValue = "2", description = "The number of validators each synthetic account delegates to")
+    private Integer validators;
+
+    @CommandLine.Option(names = { "--delegation" }, defaultValue = "10000", description = "The initial delegation of each account to each validator", converter = FxAmountConverter.class)
+    private FxAmount delegation;
+
+    @CommandLine.Option(names = { "--balance" }, defaultValue = "50", description = "The initial unstaked balance of each account (the fee payer of a transaction must hold its fee before the rewards are withdrawn)", converter = FxAmountConverter.class)
+    private FxAmount balance;
+
+    @CommandLine.Option(names = { "--reward-rate" }, defaultValue = "0.0005", description = "The rewards earned on each block, as a ratio of the delegation")
+    private Double rewardRate;
+
+    @CommandLine.Option(names = { "--gas-price" }, defaultValue = "4000000000000", description = "The minimum gas price (in atto-FX) of the simulated node, also used by the auto-compounder")
+    private Long gasPrice;
+
+    @CommandLine.Option(names = { "-q", "--max-inflight" }, defaultValue = "32", description = "The maximum number of concurrent queries of the auto-compounder")
+    private Integer maxInFlightRequests;
+
+    @CommandLine.Option(names = { "--verbose" }, defaultValue = "false", description = "Prints the auto-compounder output")
+    private boolean verbose;
+
+    /**
+     * Bytes allocated by each live thread, split between the simulator threads and all the others (the auto-compounder)
+     */
+    private static final class Allocations {
+
+        private final Map<Long, Long> bytes = new HashMap<>();
+        private final Set<Long> simulatorThreads = new HashSet<>();
+
+        private static Allocations sample() {
+            com.sun.management.ThreadMXBean _threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            long[] _ids = _threads.getAllThreadIds();
+            long[] _bytes = _threads.getThreadAllocatedBytes(_ids);
+            ThreadInfo[] _infos = _threads.getThreadInfo(_ids);
+            Allocations ret = new Allocations();
+            for (int i = 0; i < _ids.length; i++) {
+                if (_bytes[i] >= 0 && _infos[i] != null) {
+                    ret.bytes.put(_ids[i], _bytes[i]);
+                    if (_infos[i].getThreadName().startsWith(SIMULATOR_THREADS)) {
+                        ret.simulatorThreads.add(_ids[i]);
+                    }
+                }
+            }
+            return ret;
+        }
+
+        /**
+         * @return the bytes allocated since the previous sample by the auto-compounder [0] and the simulator [1] (threads that died in between are not counted)
+         */
+        private long[] since(Allocations previous) {
+            long[] ret = new long[2];
+            this.bytes.forEach((_id, _bytes) -> ret[this.simulatorThreads.contains(_id) ? 1 : 0] += _bytes - previous.bytes.getOrDefault(_id, 0L));
+            return ret;
+        }
+
+    }
+
+    public static void main(String[] args) {
+        System.exit(new CommandLine(new LoadTest()).execute(args));
+    }
+
+    @Override
+    public Integer call() throws Exception {
+        if (this.cycles < 1) {
+            throw new IllegalArgumentException("!!! ERROR  !!! The number of cycles (--cycles) must be greater or equal to 1.");
+        }
+        if (this.cyclePauseMs < 1000) {
+            throw new IllegalArgumentException("!!! ERROR  !!! The cycle pause (--cycle-pause) must be greater or equal to 1000 ms.");
+        }
+        if (this.errorRate < 0 || this.errorRate > 1) {
+            throw new IllegalArgumentException("!!! ERROR  !!! The error rate (--error-rate) must be between 0 and 1.");
+        }
+        if (this.accountCounts.stream().anyMatch(_count -> _count < 1)) {
+            throw new IllegalArgumentException("!!! ERROR  !!! The numbers of accounts (-a, --accounts) must be greater or equal to 1.");
+        }
+        String _encryptedSeed = CryptoUtils.EncryptAndEncode(CryptoUtils.SALT + PASSWORD, MNEMONIC);
+        int _maxAccounts = Collections.max(this.accountCounts);
+        System.out.println("Deriving " + _maxAccounts + " synthetic accounts...");
+        List<String> _addresses = new CryptoUnit(_encryptedSeed, MNEMONIC).deriveAddresses(_maxAccounts).stream()
+                .map(DerivedAddress::getFxDelegatorAddress)
+                .collect(Collectors.toList());
+        for (int _accounts : this.accountCounts) {
+            this.run(_encryptedSeed, _addresses.subList(0, _accounts));
+        }
+        return 0;
+    }
+
+    private void run(String encryptedSeed, List<String> addresses) throws Exception {
+        FxNodeSimulator _simulator = new FxNodeSimulator(this.blockMs, this.latencyMs, this.jitterMs, this.errorRate, this.maxPageSize, this.gasPrice);
+        _simulator.setAccountTemplate(this.balance, this.validators, this.delegation, this.rewardRate);
+        _simulator.start();
+        AutoCompounder _compounder = new AutoCompounder();
+        // All accounts are due on every cycle : checks are rescheduled at most one recheck period (1 second) after the end of a cycle
+        new CommandLine(_compounder).parseArgs(
+                "-n", "127.0.0.1:" + _simulator.getPort(),
+                "-s", encryptedSeed,
+                "-d", String.join(":", addresses),
+                "-g", Integer.toString(addresses.size()),
+                "-m", "10",
+                "-k", "2",
+                "-t", "1",
+                "--height-poll", "1",
+                "--full-refresh-cycles", "1",
+                "-q", Integer.toString(this.maxInFlightRequests),
+                "--gas-price", Long.toString(this.gasPrice),
+                "-c", "",
+                "--gas-stats", "",
+                "--event-log", "",
+                "--snapshots", "");
+        PrintStream _out = System.out;
+        System.out.println();
+        System.out.println("=== " + addresses.size() + " accounts : " + this.cycles + " cycles (after " + this.warmupCycles + " warm-up cycles) ===");
+        if (!this.verbose) {
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        }
+        List<Long> _durations = new ArrayList<>();
+        long[] _allocated = new long[2];
+        Map<String, Long> _firstRequests = null;
+        long _firstExecuted = 0L;
+        long _firstFailed = 0L;
+        long _firstRejected = 0L;
+        long _measureStart = 0L;
+        boolean _setUp = false;
+        try {
+            _compounder.setUp(PASSWORD);
+            _setUp = true;
+            Runnable _cycle = _compounder.getThread();
+            for (int i = 0; i < this.warmupCycles + this.cycles; i++) {
+                if (i > 0) {
+                    Thread.sleep(this.cyclePauseMs);
+                }
+                boolean _measured = i >= this.warmupCycles;
+                if (_measured && _firstRequests == null) {
+                    _firstRequests = _simulator.getRequestCounts();
+                    _firstExecuted = _simulator.getExecutedTxs();
+                    _firstFailed = _simulator.getFailedTxs();
+                    _firstRejected = _simulator.getRejectedTxs();
+                    _measureStart = System.nanoTime();
+                }
+                Allocations _before = Allocations.sample();
+                long _start = System.nanoTime();
+                _cycle.run();
+                long _duration = System.nanoTime() - _start;
+                if (_measured) {
+                    long[] _bytes = Allocations.sample().since(_before);
+                    _durations.add(_duration);
+                    _allocated[0] += _bytes[0];
+                    _allocated[1] += _bytes[1];
+                }
+            }
+        } finally {
+            System.setOut(_out);
+            if (_setUp) {
+                _compounder.stop();
+            }
+            _simulator.stop();
+        }
+        double _measuredSeconds = (System.nanoTime() - _measureStart) / 1e9d;
+        Collections.sort(_durations);
+        System.out.printf("Cycle latency (ms)  : p50=%.1f p90=%.1f p99=%.1f max=%.1f mean=%.1f%n",
+                percentile(_durations, 50), percentile(_durations, 90), percentile(_durations, 99),
+                _durations.get(_durations.size() - 1) / 1e6d, _durations.stream().mapToLong(Long::longValue).average().orElse(0d) / 1e6d);
+        System.out.printf("Allocations         : compounder=%.1f MB/cycle (%.1f MB/s) - simulator=%.1f MB/cycle (%.1f MB/s)%n",
+                _allocated[0] / 1048576d / this.cycles, _allocated[0] / 1048576d / _measuredSeconds,
+                _allocated[1] / 1048576d / this.cycles, _allocated[1] / 1048576d / _measuredSeconds);
+        Map<String, Long> _requests = _simulator.getRequestCounts();
+        Map<String, Long> _before = _firstRequests;
+        StringBuilder _rpc = new StringBuilder();
+        long[] _total = new long[1];
+        _requests.forEach((_method, _count) -> {
+            long _delta = _count - _before.getOrDefault(_method, 0L);
+            if (_delta > 0) {
+                _total[0] += _delta;
+                _rpc.append(_rpc.length() > 0 ? " - " : "").append(_method).append('=').append(String.format("%.1f", (double) _delta / this.cycles));
+            }
+        });
+        System.out.printf("RPC per cycle       : %.1f (%s)%n", (double) _total[0] / this.cycles, _rpc);
+        System.out.printf("Transactions        : executed=%d failed=%d rejected=%d - simulated failures=%d - height=%d%n",
+                _simulator.getExecutedTxs() - _firstExecuted, _simulator.getFailedTxs() - _firstFailed, _simulator.getRejectedTxs() - _firstRejected,
+                _simulator.getFailures(), _simulator.getHeight());
+    }
+
+    /**
+     * Nearest-rank percentile of sorted durations, in ms
+     */
+    private static double percentile(List<Long> sorted, int percentile) {
+        int _rank = (int) Math.ceil(percentile / 100d * sorted.size());
+        return sorted.get(Math.max(0, _rank - 1)) / 1e6d;
+    }
+
+}
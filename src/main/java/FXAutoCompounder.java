@@ -1,9 +1,12 @@
 import commands.AutoCompounder;
 import commands.Base64Encryptor;
+import commands.CompounderDaemon;
+import commands.CompoundingPlanner;
+import commands.SnapshotReport;
 import picocli.CommandLine;
 
 @CommandLine.Command(name = "FxAutoCompounder", aliases = { "frenchxcore" },
-        subcommands = { AutoCompounder.class, Base64Encryptor.class, CommandLine.HelpCommand.class },
+        subcommands = { AutoCompounder.class, CompounderDaemon.class, Base64Encryptor.class, CompoundingPlanner.class, SnapshotReport.class, CommandLine.HelpCommand.class },
         description = "FrenchXCore $FX Auto-Compounder\nTo restake automatically your validator and/or delegator rewards and commissions with FrenchXCore validator.\n!! USE AT YOUR OWN RISK !!\n",
         header = "(C) 2022 FrenchXCore - https://twitter.com/FrenchXCore1"
 )
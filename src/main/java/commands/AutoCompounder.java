@@ -1,46 +1,72 @@
 package commands;
 
-import com.google.protobuf.Any;
-import com.google.protobuf.ByteString;
-import cosmos.base.query.v1beta1.Pagination;
-import cosmos.tx.signing.v1beta1.Signing;
 import cosmos.tx.v1beta1.ServiceOuterClass;
 import cosmos.tx.v1beta1.TxOuterClass;
 import eu.frenchxcore.api.CosmosGrpcApi;
-import eu.frenchxcore.tools.LocalExecutor;
+import libs.CancellationScope;
 import libs.CryptoUtils;
+import libs.EventLog;
+import libs.InFlightLimiter;
+import libs.Metrics;
+import libs.NodePool;
 import picocli.CommandLine;
+import utils.AccountMetadataCache;
+import utils.AddressCache;
+import utils.AccountTimerWheel;
+import utils.AddressIndex;
+import utils.CompounderMetrics;
+import utils.CompoundingOptimizer;
+import utils.ConfirmationTracker;
+import utils.FxAmount;
+import utils.FxNodePool;
 import utils.CryptoUnit;
+import utils.GasModel;
+import utils.GasStatsStore;
+import utils.GasTuner;
 import utils.FxAccount;
+import utils.HeightScheduler;
+import utils.NodeCapture;
+import utils.QueryPlanner;
+import utils.RefreshTotals;
+import utils.RewardsExtrapolator;
+import utils.SnapshotStore;
+import utils.TxChunk;
+import utils.TxChunkPlanner;
+import utils.TxMessageType;
 
+import javax.crypto.spec.SecretKeySpec;
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.math.BigDecimal;
-import java.math.BigInteger;
-import java.math.MathContext;
 import java.math.RoundingMode;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongSupplier;
 
 @CommandLine.Command(name = "autocompound", aliases = { "ac" }, description = "To run your FX auto-compounder configuration")
 public class AutoCompounder implements Callable<Boolean> {
 
-    private static final Long GAS_COST = 4000000000000L;
-    private static final Double GAS_COEFF = 1.2;
+    // Also used by the planner (see CompoundingPlanner), so that both estimate fees the same way
+    static final Long GAS_COST = 4000000000000L;
+    static final Double GAS_COEFF = 1.2;
+    private static final int TIMER_WHEEL_SIZE = 512;
+    private static final int EVENT_LOG_CAPACITY = 4096;
+    private static final long REPLAY_POLL_DELAY_MS = 10L;
+    private static final long REPLAY_CONFIRMATION_WAIT_MS = 30000L;
 
     /**
-     * The FX node IP used for transactions
+     * The FX nodes used for queries and transactions
      */
-    @CommandLine.Option(names = { "-n", "--node-ip" }, defaultValue = "167.86.101.244", description = "The FX node IP address")
-    private String nodeIP;
+    @CommandLine.Option(names = { "-n", "--node-ip" }, defaultValue = "167.86.101.244", split = ",", description = "The FX node IP addresses, optionally with their port (e.g. '1.2.3.4:9090', or '[2001:db8::1]:9090' for IPv6) (separated with a ',').")
+    private List<String> nodeEndpoints;
 
     /**
-     * the FX node gRPC port (Cosmos gRPC) used for transactions
+     * the default FX node gRPC port (Cosmos gRPC), for nodes specified without port
      */
-    @CommandLine.Option(names = { "-p", "--node-port" }, defaultValue = "9090", description = "The FX node RPC (Cosmos gRPC)", type = Integer.class)
+    @CommandLine.Option(names = { "-p", "--node-port" }, defaultValue = "9090", description = "The default FX node RPC port (Cosmos gRPC)", type = Integer.class)
     private Integer nodeRpcPort;
 
     /**
@@ -66,96 +92,524 @@ public class AutoCompounder implements Callable<Boolean> {
     /**
      * The minimum balance (including rewards, commission or both) required to provoke autocompound
      */
-    @CommandLine.Option(names = { "-m" , "--minimum-withdraw" }, defaultValue = "100", description = "The minimum cumulated $FX rewards (and commission) to withdraw (min=10)")
-    private BigDecimal minimumWithdraw;
+    @CommandLine.Option(names = { "-m" , "--minimum-withdraw" }, defaultValue = "100", converter = FxAmountConverter.class, description = "The minimum cumulated $FX rewards (and commission) to withdraw (min=10)")
+    private FxAmount minimumWithdraw;
 
     /**
      * The minimum $FX to keep unstaked on each FX delegator address
      */
-    @CommandLine.Option(names = { "-k" , "--keep-unstaked" }, defaultValue = "5", description = "The minimum $FX to keep unstaked on each FX delegator address (min=2)")
-    private BigDecimal keepUnstaked;
+    @CommandLine.Option(names = { "-k" , "--keep-unstaked" }, defaultValue = "5", converter = FxAmountConverter.class, description = "The minimum $FX to keep unstaked on each FX delegator address (min=2)")
+    private FxAmount keepUnstaked;
 
     /**
-     * The period (in seconds) when balance will be rechecked for auto-compound
+     * The number of new blocks after which balance will be rechecked for auto-compound
      */
-    @CommandLine.Option(names = { "-t" , "--recheck-period" }, defaultValue = "300", description = "The period (in seconds) when balance will be rechecked for auto-compound (max=86400).")
+    @CommandLine.Option(names = { "-b" , "--recheck-blocks" }, defaultValue = "60", description = "The number of new blocks after which balance will be rechecked for auto-compound (min=1).")
+    private Integer recheckBlocks;
+
+    /**
+     * The maximum period (in seconds) between two checks, whatever the number of new blocks
+     */
+    @CommandLine.Option(names = { "-t" , "--recheck-period" }, defaultValue = "300", description = "The maximum period (in seconds) between two checks for auto-compound, even if the node does not report new blocks (max=86400).")
     private Integer recheckPeriodSeconds;
 
+    /**
+     * The period (in seconds) when the latest block height is polled
+     */
+    @CommandLine.Option(names = { "--height-poll" }, defaultValue = "5", description = "The period (in seconds) when the FX node latest block height is polled (min=1).")
+    private Integer heightPollSeconds;
+
+    /**
+     * The maximum duration (in seconds) of a cycle
+     */
+    @CommandLine.Option(names = { "--cycle-deadline" }, defaultValue = "300", description = "The maximum duration (in seconds) of a cycle : an overrunning cycle is abandoned and its pending node requests cancelled (min=10)")
+    private Integer cycleDeadlineSeconds;
+
+    /**
+     * The file where public addresses derived from the seedphrases are cached, to avoid deriving them again on restart
+     */
+    @CommandLine.Option(names = { "-c" , "--address-cache" }, defaultValue = "fx-addresses.idx", description = "The file caching the public FX addresses derived from your seedphrases (empty to disable)")
+    private String addressCacheFile;
+
+    /**
+     * The maximum number of queries concurrently sent to the FX node while refreshing accounts
+     */
+    @CommandLine.Option(names = { "-q" , "--max-inflight" }, defaultValue = "32", description = "The maximum number of queries concurrently sent to the FX node (min=1)")
+    private Integer maxInFlightRequests;
+
+    /**
+     * The number of FX addresses derived from each seedphrase when looking for the specified delegators
+     */
+    @CommandLine.Option(names = { "-g" , "--gap-limit" }, defaultValue = "512", description = "The number of FX addresses derived from each seedphrase to find the specified delegators (min=1)")
+    private Integer gapLimit;
+
+    /**
+     * The maximum number of messages in a single transaction
+     */
+    @CommandLine.Option(names = { "--max-tx-messages" }, defaultValue = "100", description = "The maximum number of messages in a single transaction (min=3)")
+    private Integer maxTxMessages;
+
+    /**
+     * The maximum estimated gas of a single transaction
+     */
+    @CommandLine.Option(names = { "--max-tx-gas" }, defaultValue = "10000000", description = "The maximum estimated gas of a single transaction (min=500000)")
+    private Long maxTxGas;
+
+    /**
+     * The maximum number of cycles between two queries of the same account, whatever its extrapolated rewards
+     */
+    @CommandLine.Option(names = { "--full-refresh-cycles" }, defaultValue = "10", description = "The maximum number of cycles between two queries of the same account : in-between, each account is only queried when its extrapolated rewards reach the minimum withdraw (1 to query all accounts at each cycle)")
+    private Integer fullRefreshCycles;
+
+    /**
+     * Whether each account uses its own optimal withdraw threshold instead of the static minimum withdraw
+     */
+    @CommandLine.Option(names = { "-o" , "--optimize-threshold" }, defaultValue = "false", description = "Compound each account at the threshold maximizing its yield net of fees, instead of the static minimum withdraw")
+    private boolean optimizeThreshold;
+
+    /**
+     * The file where the gas used by past transactions is kept
+     */
+    @CommandLine.Option(names = { "--gas-stats" }, defaultValue = "fx-gas.properties", description = "The file keeping the gas used by past transactions, used to estimate compounding fees (empty to disable)")
+    private String gasStatsFile;
+
+    /**
+     * The maximum relative uncertainty of the learnt gas model to skip transaction simulation
+     */
+    @CommandLine.Option(names = { "--gas-tolerance" }, defaultValue = "0.05", description = "The maximum relative uncertainty (95% confidence) of the learnt gas model to skip transaction simulation (0 to always simulate, max=0.15)")
+    private Double gasTolerance;
+
+    /**
+     * The gas price (in atto-FX), or 'node' to follow the minimum gas price reported by the FX node
+     */
+    @CommandLine.Option(names = { "--gas-price" }, defaultValue = "4000000000000", description = "The gas price in atto-FX, or 'node' to follow the minimum fee reported by the FX node")
+    private String gasPriceSource;
+
+    /**
+     * The port of the Prometheus metrics endpoint
+     */
+    @CommandLine.Option(names = { "--metrics-port" }, defaultValue = "0", description = "The port of the HTTP endpoint exposing Prometheus metrics on '/metrics' (0 to disable)")
+    private Integer metricsPort;
+
+    /**
+     * The address the metrics endpoint listens on
+     */
+    @CommandLine.Option(names = { "--metrics-host" }, defaultValue = "127.0.0.1", description = "The address the metrics endpoint listens on ('0.0.0.0' for all interfaces)")
+    private String metricsHost;
+
+    /**
+     * The JSON-lines file where cycle and transaction events are logged
+     */
+    @CommandLine.Option(names = { "--event-log" }, defaultValue = "fx-events.jsonl", description = "The JSON-lines file where cycle and transaction events are logged (empty to disable)")
+    private String eventLogFile;
+
+    /**
+     * The maximum size of the event log file before it is rotated
+     */
+    @CommandLine.Option(names = { "--event-log-size" }, defaultValue = "10", description = "The maximum size (in MB) of the event log file before it is rotated (min=1)")
+    private Integer eventLogSizeMb;
+
+    /**
+     * The number of rotated event log files kept
+     */
+    @CommandLine.Option(names = { "--event-log-files" }, defaultValue = "5", description = "The number of rotated event log files kept (0 to only keep the current one)")
+    private Integer eventLogFiles;
+
+    /**
+     * The file where the amounts of each account are recorded at each cycle
+     */
+    @CommandLine.Option(names = { "--snapshots" }, defaultValue = "fx-snapshots.db", description = "The file where the amounts of each account are recorded at each cycle, read by the 'report' command (empty to disable)")
+    private String snapshotsFile;
+
+    /**
+     * The file where all requests to the FX nodes and their responses are recorded
+     */
+    @CommandLine.Option(names = { "--record" }, defaultValue = "", description = "The file where all requests to the FX nodes and their responses are recorded, to replay the cycles offline with '--replay' (empty to disable)")
+    private String recordFile;
+
+    /**
+     * The capture file whose cycles are replayed, without any FX node
+     */
+    @CommandLine.Option(names = { "--replay" }, defaultValue = "", description = "Replays the cycles recorded with '--record' in this file, without any FX node, then exits (empty to disable)")
+    private String replayFile;
+
+    /**
+     * Whether the replay keeps the recorded timing
+     */
+    @CommandLine.Option(names = { "--replay-timing" }, defaultValue = "full", description = "'full' to replay the cycles back to back with immediate node answers, 'original' to keep the recorded cycle starts and node latencies")
+    private String replayTiming;
+
     /**
      * All the necessary Base64-encoded encrypted seedphrases
      * The fotware will automatically detect to which validators or delegators they are attached.
      */
-    @CommandLine.Option(names = { "-s" , "--seed" }, required = true, split = ":", description = "All your Base64-encoded encrypted seedphrases (separated with a ':').")
+    @CommandLine.Option(names = { "-s" , "--seed" }, split = ":", description = "All your Base64-encoded encrypted seedphrases (separated with a ':').")
     private List<String> encryptedSeedPhrases;
 
     /**
      * Internal variable to compute average gains per day
      */
-    private BigDecimal oneDayPeriods;
+    private long lastUpdateTime = 0L;
 
     /**
      * The seedphrase encryption password (previously used with '--encrypt' command)
      */
     private String password;
 
-    private CosmosGrpcApi client;
-    private BigDecimal totalBalance = BigDecimal.ZERO;
-    private BigDecimal commissionFee = BigDecimal.ZERO;
-    private BigDecimal allRewards = BigDecimal.ZERO;
-    private BigDecimal allDelegations = BigDecimal.ZERO;
-    private BigDecimal pendingRewardsAndCommission;
-    private BigDecimal avgEarningPerDay = null;
+    /**
+     * The tenant name when run by the daemon, null otherwise
+     */
+    private String tenant;
+
+    /**
+     * Shared by all the password prompts : a reader closed after the first prompt would close the standard input
+     */
+    private static BufferedReader stdin;
+
+    private NodePool<CosmosGrpcApi> nodes;
+    private NodeCapture.Recorder recorder;
+    private NodeCapture.Replayer replayer;
+    private LongSupplier clock = System::currentTimeMillis;
+    private InFlightLimiter limiter;
+    private AccountMetadataCache accountMetadata;
+    private QueryPlanner queryPlanner;
+    private ConfirmationTracker confirmations;
+    private final RewardsExtrapolator extrapolator = new RewardsExtrapolator();
+    private CompoundingOptimizer optimizer;
+    private GasModel gasModel;
+    private GasTuner gasTuner;
+    private Metrics metricsRegistry;
+    private CompounderMetrics metrics;
+    private EventLog events;
+    private SnapshotStore snapshots;
+    private final Set<FxAccount> refreshedAccounts = ConcurrentHashMap.newKeySet();
+    private HeightScheduler scheduler;
+    private AccountTimerWheel timerWheel;
+    private FxAmount totalBalance = FxAmount.ZERO;
+    private FxAmount commissionFee = FxAmount.ZERO;
+    private FxAmount allRewards = FxAmount.ZERO;
+    private FxAmount allDelegations = FxAmount.ZERO;
+    private FxAmount pendingRewardsAndCommission;
+    private FxAmount avgEarningPerDay = null;
     private final List<CryptoUnit> cryptoUnits = new ArrayList<>();
+    private AddressIndex addressIndex;
     private final Set<FxAccount> accounts = new LinkedHashSet<>();
 
     public static class Autocompound implements Runnable {
 
         private final AutoCompounder ac;
 
+        /**
+         * A cycle whose account queries were sent, but not processed yet
+         */
+        public static final class Started {
+
+            private final long start;
+            private final long now;
+            private final CompletableFuture<RefreshTotals> refresh;
+
+            private Started(long start, long now, CompletableFuture<RefreshTotals> refresh) {
+                this.start = start;
+                this.now = now;
+                this.refresh = refresh;
+            }
+
+            /**
+             * @return completed once all the accounts of the cycle are queried (or the cycle failed)
+             */
+            public CompletableFuture<?> getRefresh() {
+                return this.refresh != null ? this.refresh : CompletableFuture.completedFuture(null);
+            }
+
+        }
+
         public Autocompound(AutoCompounder ac) {
             this.ac = ac;
         }
 
         @Override
         public void run() {
+            this.complete(this.begin());
+        }
+
+        /**
+         * Reports the transactions confirmed since the previous cycle, then sends the queries of all the accounts due, without waiting for them
+         */
+        public Started begin() {
+            long _start = System.nanoTime();
+            if (this.ac.recorder != null) {
+                try {
+                    this.ac.recorder.cycle(this.ac.scheduler.getCyclePeriodMs(), this.ac.confirmations.getPendingCount());
+                } catch (Exception ex) {
+                    System.out.println("WARNING: Could not record the cycle start : " + ex.getMessage());
+                }
+            }
             try {
+                // Report transactions confirmed since the previous cycle
+                this.ac.processConfirmations();
                 // Update all pending commission fees and rewards for all accounts
-                if (this.ac.updateAccounts()) {
+                long _now = this.ac.clock.getAsLong();
+                return new Started(_start, _now, this.ac.refreshAccounts(_now));
+            } catch (Exception ex) {
+                ex.printStackTrace();
+                return new Started(_start, 0L, null);
+            }
+        }
+
+        /**
+         * Waits for the queries of the cycle, then compounds the accounts above their threshold
+         */
+        public void complete(Started cycle) {
+            boolean _failed = cycle.refresh == null;
+            try {
+                if (!_failed && this.ac.updateAccounts(cycle.refresh, cycle.now)) {
                     // Display overall pending commission fees and rewards cumulated for all accounts
-                    System.out.println(
-                            new Date() + " : " +
-                                    "UnstakedBalance=" + this.ac.totalBalance.setScale(4, RoundingMode.HALF_UP).stripTrailingZeros().toPlainString() + " $FX" +
-                                    " - Pending(R&C)=" + this.ac.pendingRewardsAndCommission.setScale(4, RoundingMode.HALF_UP).stripTrailingZeros().toPlainString() + " $FX " +
-                                    " - Delegations=" + this.ac.allDelegations.setScale(4, RoundingMode.HALF_UP).stripTrailingZeros().toPlainString() + " $FX " +
-                                    (this.ac.avgEarningPerDay != null ? "(" + this.ac.avgEarningPerDay.setScale(4, RoundingMode.HALF_UP).stripTrailingZeros().toPlainString() + " $FX/day)" : "")
-                    );
+                    EventLog.Event _cycle = this.ac.avgEarningPerDay != null ?
+                            this.ac.events.event("cycle.start", "{time} : UnstakedBalance={balance} $FX - Pending(R&C)={pending} $FX  - Delegations={delegations} $FX ({earning} $FX/day) - Refreshed={refreshed}/{accounts}")
+                                    .with("earning", this.ac.avgEarningPerDay) :
+                            this.ac.events.event("cycle.start", "{time} : UnstakedBalance={balance} $FX - Pending(R&C)={pending} $FX  - Delegations={delegations} $FX  - Refreshed={refreshed}/{accounts}");
+                    _cycle.with("balance", this.ac.totalBalance)
+                            .with("pending", this.ac.pendingRewardsAndCommission)
+                            .with("delegations", this.ac.allDelegations)
+                            .with("refreshed", this.ac.refreshedAccounts.size())
+                            .with("accounts", this.ac.accounts.size())
+                            .publish();
                     List<FxAccount> accountsToProcess = new ArrayList<>();
                     this.ac.accounts.forEach(_account -> {
-                        BigDecimal accountPendingBalance = this.ac.computePendingBalance(_account);
-                        if (accountPendingBalance.compareTo(this.ac.minimumWithdraw) > 0) {
+                        // Only freshly queried accounts are processed : the others only have extrapolated rewards
+                        if (!this.ac.refreshedAccounts.contains(_account)) {
+                            return;
+                        }
+                        FxAmount accountPendingBalance = this.ac.computePendingBalance(_account);
+                        // Accounts waiting for a previous transaction to be committed are not processed again
+                        if (accountPendingBalance.compareTo(this.ac.getWithdrawThreshold(_account)) > 0 && !this.ac.confirmations.isPending(_account)) {
                             accountsToProcess.add(_account);
                         }
                     });
-                    if (!accountsToProcess.isEmpty()) {
-                        this.ac.withdrawAndRestake(accountsToProcess);
+                    this.ac.metrics.onAccountsEvaluated(this.ac.refreshedAccounts.size(), accountsToProcess.size());
+                    try {
+                        if (!accountsToProcess.isEmpty()) {
+                            this.ac.withdrawAndRestake(accountsToProcess);
+                        }
+                    } finally {
+                        // Rewards of these accounts were (or may have been) withdrawn : they must be queried again next cycle
+                        accountsToProcess.forEach(this.ac.extrapolator::invalidate);
+                        if (this.ac.scheduler.isOverrun() && !accountsToProcess.isEmpty()) {
+                            // Cancelled broadcasts may still have reached the node : sequences are fetched again
+                            List<String> _signers = new ArrayList<>();
+                            accountsToProcess.forEach(_account -> _signers.add(_account.getFxDelegatorAddress()));
+                            this.ac.accountMetadata.resynchronize(_signers, null);
+                        }
                     }
                 }
             } catch (Exception ex) {
-                ex.printStackTrace();
+                _failed = true;
+                if (!this.ac.scheduler.isOverrun()) {
+                    ex.printStackTrace();
+                }
+            } finally {
+                // Accounts taken off the timer wheel by this cycle are put back whatever happened : otherwise they would never be checked again
+                this.ac.rescheduleRefreshedAccounts();
+                long _duration = System.nanoTime() - cycle.start;
+                boolean _overrun = this.ac.scheduler.isOverrun();
+                this.ac.metrics.onCycle(_duration, _failed || _overrun, _overrun);
+                this.ac.events.event("cycle.end", null).with("durationMs", _duration / 1000000L).with("failed", _failed || _overrun).with("overrun", _overrun).publish();
             }
         }
     }
 
     @Override
     public Boolean call() throws Exception {
+        this.setUp(null);
+        if (this.replayer != null) {
+            try {
+                this.replay();
+            } finally {
+                this.stop();
+            }
+            return true;
+        }
+        this.start();
+        this.waitForQuit();
+        this.stop();
+        return true;
+    }
+
+    protected void waitForQuit() {
+        System.out.println("Press 'Q'+[ENTER] to stop Fr3nchXC0re $FX Auto-Compounder...");
+        boolean quit = false;
+        String q;
+        do {
+            Scanner scanner = new Scanner(System.in);
+            if (scanner.hasNext() && !(q = scanner.nextLine()).isBlank()) {
+                quit = (q.toUpperCase().contains("Q"));
+            }
+        } while (!quit);
+    }
+
+    /**
+     * Connects to the FX nodes, decrypts the seedphrases and prepares all the accounts, without starting the cycles.
+     * @param password the seedphrases password, or null to prompt for it
+     */
+    public void setUp(String password) throws Exception {
+        this.setUpShared(this.getThread());
+        this.setUpTenant(null, password, this);
+        this.setDueCheck(this::isDue);
+    }
+
+    /**
+     * Sets up what may be shared by several tenants : node pool, in-flight slots, gas knowledge, metrics, event log, snapshots and the cycle scheduler.
+     * @param cycle what the scheduler runs on each cycle
+     */
+    protected void setUpShared(Runnable cycle) throws Exception {
+        if (!this.recordFile.isBlank() && !this.replayFile.isBlank()) {
+            throw new IllegalArgumentException("!!! ERROR  !!! A capture cannot be recorded (--record) while another one is replayed (--replay).");
+        }
+        if (!this.replayTiming.equalsIgnoreCase("full") && !this.replayTiming.equalsIgnoreCase("original")) {
+            throw new IllegalArgumentException("!!! ERROR  !!! The replay timing (--replay-timing) must be 'full' or 'original'.");
+        }
+        if (!this.replayFile.isBlank()) {
+            // The node clients are never called : all requests are answered from the capture
+            this.nodes = FxNodePool.connect(this.nodeEndpoints, this.nodeRpcPort);
+            try {
+                this.replayer = new NodeCapture.Replayer(Path.of(this.replayFile), this.replayTiming.equalsIgnoreCase("original"));
+            } catch (Exception ex) {
+                throw new IllegalArgumentException("!!! ERROR !!! Could not read the capture '" + this.replayFile + "' : " + ex.getMessage());
+            }
+            this.nodes.setInterceptor(this.replayer);
+            this.clock = this.replayer::currentTimeMillis;
+            System.out.printf("NOTICE: Replaying '%s' : the gas stats, event log and snapshot files are neither read nor written.%n", this.replayFile);
+        } else {
+            try {
+                this.nodes = FxNodePool.connect(this.nodeEndpoints, this.nodeRpcPort);
+                if (this.nodes.probeAll().get() == 0) {
+                    throw new IllegalStateException("No FX node answers.");
+                }
+            } catch (Exception ex) {
+                throw new IllegalArgumentException("!!! ERROR !!! There was an error while trying to connect to the FXCore mainnet node(s).");
+            }
+        }
+        if (!this.recordFile.isBlank()) {
+            try {
+                this.recorder = new NodeCapture.Recorder(Path.of(this.recordFile));
+            } catch (Exception ex) {
+                throw new IllegalArgumentException("!!! ERROR !!! Could not create the capture '" + this.recordFile + "' : " + ex.getMessage());
+            }
+            this.nodes.setInterceptor(this.recorder);
+            System.out.printf("NOTICE: All requests to the FX node(s) are recorded in '%s'.%n", this.recordFile);
+        }
+        if (this.recheckPeriodSeconds > 86400) {
+            throw new IllegalArgumentException("!!! ERROR  !!! The recheckPeriod (-t, --recheck-period) must be less than 86400 seconds.");
+        }
+        if (this.maxInFlightRequests < 1) {
+            throw new IllegalArgumentException("!!! ERROR  !!! The maximum in-flight queries (-q, --max-inflight) must be greater or equal to 1.");
+        }
+        this.limiter = new InFlightLimiter(this.maxInFlightRequests);
+        // Replayed confirmations are answered at once : polling them at the live pace would hold up the cycles
+        this.confirmations = this.replayer != null && this.replayTiming.equalsIgnoreCase("full") ?
+                new ConfirmationTracker(this.nodes, REPLAY_POLL_DELAY_MS) :
+                new ConfirmationTracker(this.nodes);
+        if (this.gasTolerance < 0 || this.gasTolerance > 0.15) {
+            throw new IllegalArgumentException("!!! ERROR  !!! The gas tolerance (--gas-tolerance) must be between 0 and 0.15.");
+        }
+        boolean _nodeGasPrice = this.gasPriceSource.equalsIgnoreCase("node");
+        long _gasPrice;
         try {
-            this.client = CosmosGrpcApi.getInstance(this.nodeIP, this.nodeRpcPort, LocalExecutor.getInstance().get());
-            this.client.tmGetNodeInfo().get();
-        } catch (Exception ex) {
-            throw new IllegalArgumentException("!!! ERROR !!! There was an error while trying to connect to the FXCore mainnet node.");
+            _gasPrice = _nodeGasPrice ? GAS_COST : Long.parseLong(this.gasPriceSource);
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("!!! ERROR  !!! The gas price (--gas-price) must be a number of atto-FX or 'node'.");
+        }
+        if (_gasPrice < 1) {
+            throw new IllegalArgumentException("!!! ERROR  !!! The gas price (--gas-price) must be greater or equal to 1.");
+        }
+        GasStatsStore _gasStats = GasStatsStore.load(this.gasStatsFile.isBlank() || this.replayer != null ? null : Path.of(this.gasStatsFile));
+        this.gasModel = new GasModel(this.gasTolerance, _gasStats);
+        this.gasTuner = new GasTuner(GAS_COEFF, _gasPrice, _nodeGasPrice, _gasStats);
+        this.optimizer = new CompoundingOptimizer(this.gasTuner::getGasPrice, this.gasTuner::getDefaultMargin, _gasStats);
+        if (this.recheckBlocks < 1) {
+            throw new IllegalArgumentException("!!! ERROR  !!! The recheck blocks (-b, --recheck-blocks) must be greater or equal to 1.");
+        }
+        if (this.heightPollSeconds < 1) {
+            throw new IllegalArgumentException("!!! ERROR  !!! The height poll period (--height-poll) must be greater or equal to 1 second.");
+        }
+        if (this.metricsPort < 0 || this.metricsPort > 65535) {
+            throw new IllegalArgumentException("!!! ERROR  !!! The metrics port (--metrics-port) must be between 0 and 65535.");
+        }
+        this.metricsRegistry = new Metrics();
+        // Metrics of the same name are shared : the metrics of all tenants add up
+        this.metrics = new CompounderMetrics(this.metricsRegistry, this.nodes, List.of());
+        this.nodes.setObserver(this.metrics::onRequest);
+        if (this.metricsPort > 0) {
+            try {
+                this.metricsRegistry.start(this.metricsHost, this.metricsPort);
+            } catch (Exception ex) {
+                throw new IllegalArgumentException("!!! ERROR !!! Could not start the metrics endpoint on '" + this.metricsHost + ":" + this.metricsPort + "' : " + ex.getMessage());
+            }
+            System.out.printf("NOTICE: Metrics are exposed on 'http://%s:%d/metrics'.%n", this.metricsHost, this.metricsPort);
+        }
+        if (this.eventLogSizeMb < 1) {
+            throw new IllegalArgumentException("!!! ERROR  !!! The event log size (--event-log-size) must be greater or equal to 1 MB.");
+        }
+        if (this.eventLogFiles < 0) {
+            throw new IllegalArgumentException("!!! ERROR  !!! The event log files (--event-log-files) must be greater or equal to 0.");
+        }
+        // Cycle and transaction messages are printed by the event log thread, so that a slow console never delays a cycle
+        List<EventLog.Sink> _sinks = new ArrayList<>();
+        _sinks.add(new EventLog.ConsoleSink(System.out));
+        if (!this.eventLogFile.isBlank() && this.replayer == null) {
+            try {
+                _sinks.add(new EventLog.JsonLinesSink(Path.of(this.eventLogFile), this.eventLogSizeMb * 1024L * 1024L, this.eventLogFiles));
+            } catch (Exception ex) {
+                throw new IllegalArgumentException("!!! ERROR !!! Could not open the event log '" + this.eventLogFile + "' : " + ex.getMessage());
+            }
+        }
+        this.events = new EventLog(EVENT_LOG_CAPACITY, _sinks);
+        if (!this.snapshotsFile.isBlank() && this.replayer == null) {
+            try {
+                this.snapshots = SnapshotStore.open(Path.of(this.snapshotsFile));
+            } catch (Exception ex) {
+                throw new IllegalArgumentException("!!! ERROR !!! Could not open the snapshot store '" + this.snapshotsFile + "' : " + ex.getMessage());
+            }
+        }
+        if (this.cycleDeadlineSeconds < 10) {
+            throw new IllegalArgumentException("!!! ERROR  !!! The cycle deadline (--cycle-deadline) must be greater or equal to 10 seconds.");
+        }
+        this.scheduler = new HeightScheduler(this.nodes, cycle, this.recheckBlocks, this.heightPollSeconds * 1000L, this.recheckPeriodSeconds * 1000L, this.cycleDeadlineSeconds * 1000L);
+    }
+
+    /**
+     * Decrypts the seedphrases and prepares the accounts of a tenant, using the shared resources of the host.
+     * @param tenant the name of the tenant, or null when the host only runs its own accounts
+     * @param password the seedphrases password, or null to prompt for it
+     * @param host the compounder whose shared resources are used (this one when it runs its own accounts)
+     */
+    protected void setUpTenant(String tenant, String password, AutoCompounder host) throws Exception {
+        if (host != this) {
+            this.nodes = host.nodes;
+            this.clock = host.clock;
+            // Each tenant queues its queries in its own lane : queued queries of all tenants are started in turn
+            this.limiter = host.limiter.newLane();
+            this.confirmations = host.confirmations.newTracker();
+            this.gasModel = host.gasModel;
+            this.gasTuner = host.gasTuner;
+            this.optimizer = host.optimizer;
+            this.metricsRegistry = host.metricsRegistry;
+            this.events = host.events.tagged("tenant", tenant);
+            this.snapshots = host.snapshots;
+            this.scheduler = host.scheduler;
+            this.heightPollSeconds = host.heightPollSeconds;
+            this.addressCacheFile = host.addressCacheFile;
+        }
+        this.tenant = tenant;
+        if (this.encryptedSeedPhrases == null || this.encryptedSeedPhrases.isEmpty()) {
+            throw new IllegalArgumentException("!!! ERROR !!! You forgot to specify the seedphrase(s).");
+        }
+        if (this.gapLimit < 1) {
+            throw new IllegalArgumentException("!!! ERROR  !!! The gap limit (-g, --gap-limit) must be greater or equal to 1.");
         }
         try {
-            this.decryptPrivateKeysWithPassword();
+            this.decryptPrivateKeysWithPassword(password);
+            this.addressIndex = AddressIndex.build(this.cryptoUnits, this.gapLimit, this.addressCacheFile.isBlank() ? null : AddressCache.load(Path.of(this.addressCacheFile)));
         } catch (Exception ex) {
             throw new IllegalArgumentException("!!! ERROR !!! There was an error processing your seedphrase.");
         }
@@ -163,11 +617,11 @@ public class AutoCompounder implements Callable<Boolean> {
             for (String fxValidatorAddress : this.fxValidatorAddresses) {
                 FxAccount account;
                 try {
-                    account = FxAccount.generateSelfBound(fxValidatorAddress, this.cryptoUnits);
+                    account = FxAccount.generateSelfBound(fxValidatorAddress, this.addressIndex);
                 } catch (Exception ex) {
                     throw new IllegalArgumentException("!!! ERROR !!! There was an error while adding your validator self-bound delegator address.");
                 }
-                if (!account.getFxValidatorAddress().equals(fxValidatorAddress)) {
+                if (account == null || !account.getFxValidatorAddress().equals(fxValidatorAddress)) {
                     throw new IllegalArgumentException("!!! ERROR !!! The FX Validator address you specified does not match your seedphrase.");
                 }
                 this.accounts.add(account);
@@ -184,58 +638,155 @@ public class AutoCompounder implements Callable<Boolean> {
         if (this.accounts.isEmpty()) {
             throw new IllegalArgumentException("!!! ERROR  !!! At least one delegator or validator must be specified.");
         }
-        if (this.minimumWithdraw.compareTo(BigDecimal.valueOf(10)) < 0) {
+        if (this.minimumWithdraw.compareTo(FxAmount.ONE.multiply(10)) < 0) {
             throw new IllegalArgumentException("!!! ERROR  !!! The minimum withdraw must be greater or equal to 10 $FX.");
         }
-        if (this.keepUnstaked.compareTo(BigDecimal.valueOf(2)) < 0) {
+        if (this.keepUnstaked.compareTo(FxAmount.ONE.multiply(2)) < 0) {
             throw new IllegalArgumentException("!!! ERROR  !!! The keep unstaked must be greater or equal to 2 $FX.");
         }
-        if (this.recheckPeriodSeconds > 86400) {
-            throw new IllegalArgumentException("!!! ERROR  !!! The recheckPeriod (-t, --recheck-period) must be less than 86400 seconds.");
+        if (this.maxTxMessages < 3) {
+            throw new IllegalArgumentException("!!! ERROR  !!! The maximum number of messages per transaction (--max-tx-messages) must be greater or equal to 3.");
+        }
+        if (this.maxTxGas < 500000) {
+            throw new IllegalArgumentException("!!! ERROR  !!! The maximum gas per transaction (--max-tx-gas) must be greater or equal to 500000.");
+        }
+        if (this.fullRefreshCycles < 1) {
+            throw new IllegalArgumentException("!!! ERROR  !!! The full refresh cycles (--full-refresh-cycles) must be greater or equal to 1.");
+        }
+        this.accountMetadata = new AccountMetadataCache(this.nodes, this.limiter);
+        this.queryPlanner = new QueryPlanner(this.nodes, this.limiter);
+        this.metrics = new CompounderMetrics(this.metricsRegistry, this.nodes, this.accounts);
+        // Each account is checked on its own schedule : all accounts are due on the first cycle
+        this.timerWheel = new AccountTimerWheel(this.heightPollSeconds * 1000L, TIMER_WHEEL_SIZE, this.clock.getAsLong());
+        this.accounts.forEach(_account -> this.timerWheel.schedule(_account, 0L));
+    }
+
+    /**
+     * @return true if at least one account is due for a check
+     */
+    protected boolean isDue() {
+        return this.timerWheel.hasDue(this.clock.getAsLong());
+    }
+
+    /**
+     * @param dueCheck tells whether a cycle is required, even without new blocks
+     */
+    protected void setDueCheck(BooleanSupplier dueCheck) {
+        this.scheduler.setDueCheck(dueCheck);
+    }
+
+    protected Set<FxAccount> getAccounts() {
+        return this.accounts;
+    }
+
+    /**
+     * Starts the cycles, triggered by new blocks
+     */
+    public void start() {
+        this.scheduler.start();
+    }
+
+    public void stop() throws IOException {
+        this.scheduler.stop();
+        if (this.snapshots != null) {
+            this.snapshots.close();
+        }
+        this.events.stop();
+        this.metricsRegistry.stop();
+        this.nodes.stop();
+        if (this.recorder != null) {
+            this.recorder.close();
+        }
+        if (this.replayer != null) {
+            this.replayer.stop();
         }
-        this.oneDayPeriods = new BigDecimal(86400, MathContext.UNLIMITED).divide(BigDecimal.valueOf(this.recheckPeriodSeconds), RoundingMode.HALF_UP);
-        ScheduledFuture<?> future = Executors.newScheduledThreadPool(1).scheduleAtFixedRate(this.getThread(), 0, this.recheckPeriodSeconds, TimeUnit.SECONDS);
-        System.out.println("Press 'Q'+[ENTER] to stop Fr3nchXC0re $FX Auto-Compounder...");
-        boolean quit = false;
-        String q;
-        do {
-            Scanner scanner = new Scanner(System.in);
-            if (scanner.hasNext() && !(q = scanner.nextLine()).isBlank()) {
-                quit = (q.toUpperCase().contains("Q"));
-            }
-        } while (!quit);
-        future.cancel(true);
-        return true;
     }
 
     public Runnable getThread() {
         return new Autocompound(this);
     }
 
-    private void decryptPrivateKeysWithPassword() {
+    /**
+     * Runs the recorded cycles one after the other, each one once the transactions confirmed before it when recorded are confirmed again, then reports their durations
+     */
+    private void replay() throws InterruptedException {
+        List<NodeCapture.Cycle> _cycles = this.replayer.getCycles();
+        if (_cycles.isEmpty()) {
+            System.out.printf("WARNING: The capture '%s' holds no cycle.%n", this.replayFile);
+            return;
+        }
+        boolean _originalTiming = this.replayTiming.equalsIgnoreCase("original");
+        System.out.printf("NOTICE: Replaying %d cycle(s) from '%s' (%s timing).%n", _cycles.size(), this.replayFile, _originalTiming ? "original" : "full");
+        Runnable _cycle = this.getThread();
+        List<Long> _durations = new ArrayList<>();
+        long _start = System.nanoTime();
+        for (NodeCapture.Cycle _c : _cycles) {
+            if (_originalTiming) {
+                long _waitMs = _c.getOffsetMs() - _cycles.get(0).getOffsetMs() - (System.nanoTime() - _start) / 1000000L;
+                if (_waitMs > 0) {
+                    Thread.sleep(_waitMs);
+                }
+            }
+            long _deadline = System.nanoTime() + REPLAY_CONFIRMATION_WAIT_MS * 1000000L;
+            while (this.confirmations.getPendingCount() > _c.getPendingTxs() && System.nanoTime() < _deadline) {
+                Thread.sleep(REPLAY_POLL_DELAY_MS);
+            }
+            this.replayer.startCycle(_c);
+            long _cycleStart = System.nanoTime();
+            _cycle.run();
+            _durations.add(System.nanoTime() - _cycleStart);
+        }
+        Collections.sort(_durations);
+        this.events.event("replay.summary", "{time} : Replayed {cycles} cycle(s) in {totalMs} ms : p50={p50Ms} ms - p90={p90Ms} ms - max={maxMs} ms - Requests : matched={matched} - reordered={reordered} - missing={missing}")
+                .with("cycles", _durations.size())
+                .with("totalMs", (System.nanoTime() - _start) / 1000000L)
+                .with("p50Ms", percentileMs(_durations, 50))
+                .with("p90Ms", percentileMs(_durations, 90))
+                .with("maxMs", _durations.get(_durations.size() - 1) / 1000000L)
+                .with("matched", this.replayer.getMatched())
+                .with("reordered", this.replayer.getReordered())
+                .with("missing", this.replayer.getMissing())
+                .publish();
+    }
+
+    /**
+     * Nearest-rank percentile of sorted durations (in ns), in ms
+     */
+    private static long percentileMs(List<Long> sorted, int percentile) {
+        int _rank = (int) Math.ceil(percentile / 100d * sorted.size());
+        return sorted.get(Math.max(0, _rank - 1)) / 1000000L;
+    }
+
+    private void decryptPrivateKeysWithPassword(String providedPassword) {
         if (this.encryptedSeedPhrases != null) {
             try {
-                String password = "";
-                if (System.console() == null) {
-                    try (BufferedReader _br = new BufferedReader(new InputStreamReader(System.in))) {
-                        System.out.println();
-                        while (password.isBlank()) {
-                            System.out.print("Please enter your root password [then press ENTER]: ");
-                            password = _br.readLine();
+                String password = providedPassword != null ? providedPassword : "";
+                String _prompt = this.tenant == null ? "Please enter your root password [then press ENTER]: " : "Please enter the root password of tenant '" + this.tenant + "' [then press ENTER]: ";
+                if (password.isBlank() && System.console() == null) {
+                    synchronized (AutoCompounder.class) {
+                        if (stdin == null) {
+                            stdin = new BufferedReader(new InputStreamReader(System.in));
                         }
                     }
-                } else {
                     System.out.println();
                     while (password.isBlank()) {
-                        System.out.print("Please enter your root password [then press ENTER]: ");
+                        System.out.print(_prompt);
+                        password = stdin.readLine();
+                        if (password == null) {
+                            throw new IOException("No password");
+                        }
+                    }
+                } else if (password.isBlank()) {
+                    System.out.println();
+                    while (password.isBlank()) {
+                        System.out.print(_prompt);
                         password = String.valueOf(System.console().readPassword());
                     }
                 }
+                // The password key is derived once for all the seedphrases of the tenant, and dropped afterwards
+                SecretKeySpec _key = CryptoUtils.generateKey(CryptoUtils.SALT + password);
                 for (String encryptedSeedPhrase : this.encryptedSeedPhrases) {
-                    CryptoUnit _cu = new CryptoUnit();
-                    _cu.dk = CryptoUtils.generateRootKey(CryptoUtils.generateSeed(CryptoUtils.DecodeAndDecrypt(CryptoUtils.SALT + password, encryptedSeedPhrase)));
-                    _cu.dh = CryptoUtils.generateHierarchy(_cu.dk);
-                    this.cryptoUnits.add(_cu);
+                    this.cryptoUnits.add(new CryptoUnit(encryptedSeedPhrase, CryptoUtils.DecodeAndDecrypt(_key, encryptedSeedPhrase)));
                 }
             } catch (Exception e) {
                 throw new IllegalArgumentException("!!! ERROR !!! Cannot decrypt private keys with the provided password");
@@ -245,373 +796,502 @@ public class AutoCompounder implements Callable<Boolean> {
         }
     }
 
-    private boolean updateAccounts() {
-        // Let's query the $FX balance for each FX delegator address
-        AtomicBoolean err = new AtomicBoolean(false);
+    /**
+     * Sends the queries of the accounts due on the timer wheel, and extrapolates the others
+     * @return the totals of all accounts, once all queries are answered
+     */
+    private CompletableFuture<RefreshTotals> refreshAccounts(long now) {
+        // Only accounts due on the timer wheel are queried (all together), the others are extrapolated
+        this.refreshedAccounts.clear();
+        this.refreshedAccounts.addAll(this.timerWheel.advance(now));
+        // Let's query balances, commission fees, rewards and delegations of all these accounts concurrently
+        List<CompletableFuture<RefreshTotals>> _refreshes = new ArrayList<>();
         this.accounts.forEach(fxAccount -> {
-            try {
-                cosmos.bank.v1beta1.QueryOuterClass.QueryBalanceResponse _balance = this.client.bankQueryBalance(fxAccount.getFxDelegatorAddress(), "FX").get();
-                fxAccount.setBalance(new BigDecimal(_balance.getBalance().getAmount()).movePointLeft(18));
-            } catch (Exception ex) {
-                err.set(true);
-                ex.printStackTrace();
+            if (this.refreshedAccounts.contains(fxAccount)) {
+                _refreshes.add(this.refreshAccount(fxAccount).thenApply(_totals -> {
+                    this.extrapolator.observe(fxAccount, now);
+                    this.metrics.onAccountRefreshed(fxAccount);
+                    return _totals;
+                }));
+            } else {
+                _refreshes.add(CompletableFuture.completedFuture(new RefreshTotals(
+                        fxAccount.getBalance(),
+                        this.extrapolator.predictCommission(fxAccount, now),
+                        this.extrapolator.predictRewards(fxAccount, now),
+                        fxAccount.getTotalDelegations()
+                )));
             }
         });
-        if (err.get()) {
-            return false;
-        }
-
-        // Compute the overall $FX balance for all FX delegator addresses
-        this.totalBalance = BigDecimal.ZERO;
-        this.accounts.stream().map(FxAccount::getBalance).reduce(BigDecimal::add).ifPresent(_b -> this.totalBalance = _b);
+        return CompletableFuture.allOf(_refreshes.toArray(new CompletableFuture[0]))
+                .thenApply(_v -> _refreshes.stream().map(CompletableFuture::join).reduce(RefreshTotals.ZERO, RefreshTotals::add));
+    }
 
-        // If commissions are to be withdrawn, let's query the validator pending commission fees
-        this.commissionFee = BigDecimal.ZERO;
-        this.accounts.stream().filter(FxAccount::isValidator).forEach(_validator -> {
-            try {
-                cosmos.distribution.v1beta1.QueryOuterClass.QueryValidatorCommissionResponse _commission = client.distributionQueryValidatorCommission(_validator.getFxValidatorAddress()).get();
-                Optional<BigDecimal> _commissionFee = _commission.getCommission().getCommissionList().stream()
-                        .filter(_d -> _d.getDenom().equals("FX"))
-                        .map(_d -> new BigInteger(_d.getAmount()))
-                        .reduce(BigInteger::add)
-                        .map(_d -> new BigDecimal(_d).movePointLeft(36));
-                _validator.setCommissionFee(_commissionFee);
-                _commissionFee.ifPresent(_c -> this.commissionFee = this.commissionFee.add(_c));
-            } catch (Exception ex) {
-                err.set(true);
+    /**
+     * Waits for the queries of the accounts, then updates the overall totals
+     * @return false if the accounts could not be queried
+     */
+    private boolean updateAccounts(CompletableFuture<RefreshTotals> refresh, long now) {
+        RefreshTotals _totals;
+        try {
+            _totals = refresh.get();
+        } catch (Exception ex) {
+            if (!CancellationScope.isCancellation(ex)) {
                 ex.printStackTrace();
             }
-        });
-        if (err.get()) {
             return false;
         }
-
-        // Let's query the $FX pending rewards for each FX delegator address
-        this.allRewards = BigDecimal.ZERO;
-        this.allDelegations = BigDecimal.ZERO;
-        this.accounts.forEach(fxAccount -> {
+        if (this.snapshots != null && !this.refreshedAccounts.isEmpty()) {
             try {
-                fxAccount.getRewards().clear();
-                Map<String/*fxvaloper*/, Optional<BigDecimal>> vRewards = new HashMap<>();
-                this.client.stakingQueryDelegatorValidators(fxAccount.getFxDelegatorAddress()).get().getValidatorsList().forEach(_v -> {
-                    try {
-                        cosmos.distribution.v1beta1.QueryOuterClass.QueryDelegationRewardsResponse _rewards = client.distributionQueryDelegationRewards(fxAccount.getFxDelegatorAddress(), _v.getOperatorAddress()).get();
-                        Optional<BigDecimal> _b = _rewards.getRewardsList().stream()
-                                .filter(_r -> _r.getDenom().equals("FX"))
-                                .map(_r -> new BigDecimal(_r.getAmount()).movePointLeft(36))
-                                .reduce(BigDecimal::add);
-                        vRewards.put(_v.getOperatorAddress(), _b);
-                        _b.ifPresent((rewards) -> this.allRewards = this.allRewards.add(rewards));
-                    } catch (Exception ex) {
-                        ex.printStackTrace();
-                        err.set(true);
-                    }
-                });
-                fxAccount.getRewards().putAll(vRewards);
-            } catch (Exception ex) {
-                err.set(true);
-                ex.printStackTrace();
-            }
-            try {
-                Map<String/*fxvaloper*/, Optional<BigDecimal>> vDelegations = new HashMap<>();
-                ByteString pageKey = ByteString.EMPTY;
-                do {
-                    Pagination.PageRequest pr = Pagination.PageRequest.newBuilder().setKey(pageKey).build();
-                    cosmos.staking.v1beta1.QueryOuterClass.QueryDelegatorDelegationsResponse _delegations = client.stakingQueryDelegatorDelegations(fxAccount.getFxDelegatorAddress(), pr).get();
-                    Optional<BigDecimal> _b = _delegations.getDelegationResponsesList().stream()
-                            .map(_r -> new BigDecimal(_r.getDelegation().getShares()).movePointLeft(36))
-                            .reduce(BigDecimal::add);
-                    vDelegations.put(fxAccount.getFxValidatorAddress(), _b);
-                    _b.ifPresent((delegations) -> this.allDelegations = this.allDelegations.add(delegations));
-                    pageKey = _delegations.getPagination().getNextKey();
-                } while (!pageKey.isEmpty());
+                this.snapshots.append(now, this.refreshedAccounts);
             } catch (Exception ex) {
-                ex.printStackTrace();
-                err.set(true);
+                System.out.println("WARNING: Could not record snapshots : " + ex.getMessage());
             }
-        });
-        if (err.get()) {
-            return false;
         }
+        this.totalBalance = _totals.getBalance();
+        this.commissionFee = _totals.getCommissionFee();
+        this.allRewards = _totals.getRewards();
+        this.allDelegations = _totals.getDelegations();
 
-        BigDecimal oldValue = this.pendingRewardsAndCommission;
+        FxAmount oldValue = this.pendingRewardsAndCommission;
         this.pendingRewardsAndCommission = this.totalBalance
                 .add(this.commissionFee)
                 .add(this.allRewards);
-        if (oldValue != null) {
-            this.avgEarningPerDay = this.pendingRewardsAndCommission.subtract(oldValue).multiply(oneDayPeriods);
+        if (oldValue != null && now > this.lastUpdateTime) {
+            // Cycles are driven by block height : the elapsed time between two cycles varies
+            this.avgEarningPerDay = FxAmount.ofFx(this.pendingRewardsAndCommission.subtract(oldValue).doubleValue() * 86400000d / (now - this.lastUpdateTime));
         }
+        this.lastUpdateTime = now;
         return true;
     }
 
-    private BigDecimal computePendingBalance(FxAccount account) {
-        BigDecimal pending = account.getBalance();
-        if (account.isValidator()) {
-            pending = pending.add(account.getCommissionFee().isPresent() ? account.getCommissionFee().get() : BigDecimal.ZERO);
-        }
-        Optional<BigDecimal> _rewards = account.getRewards().values().stream().filter(Optional::isPresent).map(Optional::get).reduce(BigDecimal::add);
-        pending = pending.add(_rewards.orElse(BigDecimal.ZERO)).subtract(this.keepUnstaked);
-        return pending;
+    private CompletableFuture<RefreshTotals> refreshAccount(FxAccount fxAccount) {
+        // Let's query the $FX balance of the FX delegator address
+        CompletableFuture<FxAmount> _balance = this.queryPlanner.queryBalance(fxAccount.getFxDelegatorAddress());
+
+        // If commissions are to be withdrawn, let's query the validator pending commission fees
+        CompletableFuture<FxAmount> _commissionFee = !fxAccount.isValidator() ?
+                CompletableFuture.completedFuture(FxAmount.ZERO) :
+                this.queryPlanner.queryCommission(fxAccount.getFxValidatorAddress());
+
+        // Let's query the $FX pending rewards of the FX delegator address on each of its validators
+        CompletableFuture<Map<String/*fxvaloper*/, FxAmount>> _rewards = this.queryPlanner.queryRewards(fxAccount.getFxDelegatorAddress());
+
+        // Let's query all the delegations of the FX delegator address
+        CompletableFuture<Map<String/*fxvaloper*/, FxAmount>> _delegations = this.queryPlanner.queryDelegations(fxAccount.getFxDelegatorAddress());
+
+        return CompletableFuture.allOf(_balance, _commissionFee, _rewards, _delegations).thenApply(_v -> {
+            fxAccount.setBalance(_balance.join());
+            if (fxAccount.isValidator()) {
+                fxAccount.setCommissionFee(_commissionFee.join());
+            }
+            fxAccount.getRewards().clear();
+            fxAccount.getRewards().putAll(_rewards.join());
+            fxAccount.getDelegations().clear();
+            fxAccount.getDelegations().putAll(_delegations.join());
+            return new RefreshTotals(
+                    _balance.join(),
+                    _commissionFee.join(),
+                    fxAccount.getTotalRewards(),
+                    fxAccount.getTotalDelegations()
+            );
+        });
     }
 
-    private void withdrawAndRestake(List<FxAccount> accounts) {
-        long expectedGas = this.simulateGas(accounts);
-        long consumedGas = 0;
-        if (expectedGas > 0) {
-            consumedGas = this.executeTransaction(accounts, expectedGas);
-        }
+    private FxAmount computePendingBalance(FxAccount account) {
+        return new FxAmount.Sum()
+                .add(account.getBalance())
+                .add(account.getCommissionFee())
+                .add(account.getTotalRewards())
+                .add(this.keepUnstaked.negate())
+                .get();
     }
 
-    private long simulateGas(List<FxAccount> accounts) {
-        System.out.println("   " + new Date() + " : Simulating gas for transaction");
-        AtomicLong totalGas = new AtomicLong(0L);
-        Map<FxAccount, cosmos.auth.v1beta1.Auth.BaseAccount> baseAccounts = new LinkedHashMap<>();
-        AtomicBoolean txToProcess = new AtomicBoolean(false);
-        TxOuterClass.TxBody.Builder bodyBuilder = TxOuterClass.TxBody.newBuilder()
-                .setMemo("FrenchXCore AutoCompounder")
-                .setTimeoutHeight(0);
-        accounts.forEach(_account -> {
-            cosmos.auth.v1beta1.QueryOuterClass.QueryAccountResponse _accountResponse = null;
-            try {
-                _accountResponse = client.authQueryAccount(_account.getFxDelegatorAddress()).get();
-                if (_accountResponse != null) {
-                    try {
-                        cosmos.auth.v1beta1.Auth.BaseAccount _baseAccount = null;
-                        if (_accountResponse.getAccount().is(cosmos.auth.v1beta1.Auth.BaseAccount.class)) {
-                            _baseAccount = _accountResponse.getAccount().unpack(cosmos.auth.v1beta1.Auth.BaseAccount.class);
-                            baseAccounts.put(_account, _baseAccount);
-                        } else {
-                            throw new Exception();
-                        }
-                    } catch (Exception ex) {
-                        ex.printStackTrace();
-                    }
+    /**
+     * Schedules the next check of the accounts refreshed by the cycle, or checks them again on the next cycle if that fails
+     */
+    private void rescheduleRefreshedAccounts() {
+        try {
+            this.scheduleNextChecks(this.refreshedAccounts);
+        } catch (Exception ex) {
+            System.out.println("WARNING: Could not schedule the next account checks : " + ex.getMessage() + " : they are checked again on the next cycle.");
+            this.refreshedAccounts.forEach(_account -> {
+                if (!this.timerWheel.isScheduled(_account)) {
+                    this.timerWheel.schedule(_account, 0L);
                 }
-            } catch (Exception ex) {
-                throw new IllegalArgumentException("!!! ERROR !!! Account query failed for FxAccount "
-                        + (_account.isValidator() ?
-                        "'" + _account.getFxValidatorAddress() + "'/'" + _account.getFxDelegatorAddress() + "'" :
-                        "'" + _account.getFxDelegatorAddress() + "'"));
-            }
-        });
-        Set<FxAccount> signaturesRequired = new LinkedHashSet<>();
-        baseAccounts.entrySet().forEach(_eBaseAccount -> {
-            FxAccount _account = _eBaseAccount.getKey();
-            cosmos.auth.v1beta1.Auth.BaseAccount _baseAccount = _eBaseAccount.getValue();
-            if (_account.isValidator() && _account.getCommissionFee().isPresent() && _account.getCommissionFee().get().compareTo(BigDecimal.ONE) > 0) {
-                cosmos.distribution.v1beta1.Tx.MsgWithdrawValidatorCommission msgWithdrawValidatorCommission = cosmos.distribution.v1beta1.Tx.MsgWithdrawValidatorCommission.newBuilder()
-                        .setValidatorAddress(_account.getFxValidatorAddress())
-                        .build();
-                bodyBuilder.addMessages(Any.pack(msgWithdrawValidatorCommission, ""));
-                System.out.println("   " + new Date() + " : TX : Adding Withdraw validator commission for validator '" + _account.getFxValidatorAddress() + "' : " + _account.getCommissionFee().get().setScale(4, RoundingMode.HALF_UP).toPlainString() + " $FX.");
-                signaturesRequired.add(_account);
-            }
-            _account.getRewards().entrySet().forEach(_eValidatorRewards -> {
-                _eValidatorRewards.getValue().filter(_rewards -> {
-                    return _rewards.compareTo(BigDecimal.ONE) > 0;
-                }).ifPresent(_rewards -> {
-                    cosmos.distribution.v1beta1.Tx.MsgWithdrawDelegatorReward msgWithdrawRewards = cosmos.distribution.v1beta1.Tx.MsgWithdrawDelegatorReward.newBuilder()
-                            .setDelegatorAddress(_account.getFxDelegatorAddress())
-                            .setValidatorAddress(_eValidatorRewards.getKey())
-                            .build();
-                    bodyBuilder.addMessages(Any.pack(msgWithdrawRewards, ""));
-                    System.out.println("   " + new Date() + " : TX : Adding Withdraw delegator rewards for delegator '" + _account.getFxDelegatorAddress() + "' on validator '" + _eValidatorRewards.getKey() + "' : " + _rewards.setScale(4, RoundingMode.HALF_UP).toPlainString() + " $FX.");
-                    signaturesRequired.add(_account);
-                });
             });
-            BigDecimal _amountToRestake = this.computePendingBalance(_account);
-            if (_amountToRestake.compareTo(this.minimumWithdraw) > 0) {
-                cosmos.staking.v1beta1.Tx.MsgDelegate msgDelegate = cosmos.staking.v1beta1.Tx.MsgDelegate.newBuilder()
-                    .setDelegatorAddress(_account.getFxDelegatorAddress())
-                    .setValidatorAddress(FRENCHXCORE_VAL)
-                    .setAmount(cosmos.base.v1beta1.CoinOuterClass.Coin.newBuilder()
-                            .setAmount(_amountToRestake.movePointRight(18).toBigInteger().toString())
-                            .setDenom("FX")
-                            .build())
-                    .build();
-                bodyBuilder.addMessages(Any.pack(msgDelegate, ""));
-                System.out.println("   " + new Date() + " : TX : Adding Delegate for delegator '" + _account.getFxDelegatorAddress() + "' on validator '" + FRENCHXCORE_VAL + "' : " + _amountToRestake.setScale(4, RoundingMode.HALF_UP).toPlainString() + " $FX.");
-                txToProcess.set(true);
+        }
+    }
+
+    /**
+     * Schedules the next check of each account at the time its extrapolated rewards should reach the minimum withdraw.
+     * Accounts whose accrual rate is still unknown (or waiting for a confirmation) are checked on the next cycle, and all accounts at least every '--full-refresh-cycles' cycles.
+     */
+    private void scheduleNextChecks(Collection<FxAccount> accounts) {
+        long _now = this.clock.getAsLong();
+        long _cyclePeriodMs = this.replayer != null ? this.replayer.getCyclePeriodMs() : this.scheduler.getCyclePeriodMs();
+        long _maxDelayMs = _cyclePeriodMs * this.fullRefreshCycles;
+        accounts.forEach(_account -> {
+            long _delayMs;
+            double _ratePerMs = this.extrapolator.getRatePerMs(_account);
+            if (!this.extrapolator.isPredictable(_account) || this.confirmations.isPending(_account)) {
+                _delayMs = _cyclePeriodMs;
+            } else if (_ratePerMs <= 0) {
+                _delayMs = _maxDelayMs;
+            } else {
+                FxAmount _missing = this.getWithdrawThreshold(_account).subtract(this.computePredictedPendingBalance(_account, _now));
+                _delayMs = (long) Math.max(0d, _missing.doubleValue() / _ratePerMs);
             }
+            this.timerWheel.schedule(_account, _now + Math.min(_delayMs, _maxDelayMs));
         });
+    }
 
-        if (txToProcess.get()) {
-            TxOuterClass.TxBody body = bodyBuilder.build();
-            TxOuterClass.AuthInfo.Builder _fakeAuthInfoBuilder = TxOuterClass.AuthInfo.newBuilder()
-                    .setFee(TxOuterClass.Fee.newBuilder().addAmount(cosmos.base.v1beta1.CoinOuterClass.Coin.newBuilder().setDenom("FX").setAmount("0").build()).setGasLimit(0).build());
-            TxOuterClass.Tx.Builder _simTxBuilder = TxOuterClass.Tx.newBuilder();
-            baseAccounts.entrySet().forEach(_eBaseAccount -> {
-                TxOuterClass.SignerInfo _fakeSignerInfo = TxOuterClass.SignerInfo.newBuilder()
-                        .setModeInfo(TxOuterClass.ModeInfo.newBuilder().setSingle(TxOuterClass.ModeInfo.Single.newBuilder().setMode(Signing.SignMode.SIGN_MODE_UNSPECIFIED).build()).build())
-                        .setPublicKey(Any.pack(cosmos.crypto.secp256k1.Keys.PubKey.newBuilder().setKey(ByteString.EMPTY).build(), ""))
-                        .setSequence(_eBaseAccount.getValue().getSequence())
-                        .build();
-                _fakeAuthInfoBuilder.addSignerInfos(_fakeSignerInfo);
-                _simTxBuilder.addSignatures(ByteString.EMPTY);
-            });
-            TxOuterClass.Tx _simTx = _simTxBuilder.setBody(body)
-                    .setAuthInfo(_fakeAuthInfoBuilder.build())
-                    .build();
+    /**
+     * @return the pending amount above which the account is compounded : the static minimum withdraw, or the optimal threshold of the account with '--optimize-threshold'
+     */
+    private FxAmount getWithdrawThreshold(FxAccount account) {
+        if (!this.optimizeThreshold) {
+            return this.minimumWithdraw;
+        }
+        FxAmount _fee = this.optimizer.estimateFee(account.getRewards().size(), account.isValidator());
+        FxAmount _threshold = CompoundingOptimizer.optimalThreshold(account.getTotalDelegations(), _fee);
+        return _threshold != null ? _threshold : this.minimumWithdraw;
+    }
+
+    private FxAmount computePredictedPendingBalance(FxAccount account, long time) {
+        return new FxAmount.Sum()
+                .add(account.getBalance())
+                .add(this.extrapolator.predictCommission(account, time))
+                .add(this.extrapolator.predictRewards(account, time))
+                .add(this.keepUnstaked.negate())
+                .get();
+    }
 
+    private void withdrawAndRestake(List<FxAccount> accounts) {
+        List<TxChunk> chunks = this.planTransactions(accounts);
+        removeUselessChunks(chunks);
+        if (chunks.isEmpty()) {
+            return;
+        }
+        // All transactions are simulated concurrently, against the current accounts sequences
+        List<CompletableFuture<Long>> expectedGas = new ArrayList<>();
+        chunks.forEach(_chunk -> expectedGas.add(this.estimateGas(_chunk)));
+        // The gas price is captured once, so that all transactions of this cycle pay the same price
+        long _gasPrice = this.gasTuner.getGasPrice();
+        Map<TxChunk, Long> gasLimits = new HashMap<>();
+        Map<TxChunk, Long> expectedGasByChunk = new HashMap<>();
+        Map<TxChunk, String> gasMixes = new HashMap<>();
+        for (int i = 0; i < chunks.size(); i++) {
+            long _expectedGas;
             try {
-                totalGas.addAndGet(this.client.txSimulate(_simTx).get().getGasInfo().getGasUsed());
-                System.out.println("Total gas required : " + totalGas.get() + " --> " + BigDecimal.valueOf(GAS_COST*totalGas.get()).movePointLeft(18).setScale(4, RoundingMode.HALF_UP).toPlainString() + " $FX");
+                _expectedGas = expectedGas.get(i).get();
             } catch (Exception ex) {
                 throw new IllegalArgumentException("!!! ERROR !!! Could not simulate Tx for gas : " + ex.getMessage());
             }
+            this.events.event("tx.gas", "Total gas required : {gas} --> {fee} $FX").with("gas", _expectedGas).with("fee", FxAmount.ofAtto(_gasPrice).multiply(_expectedGas)).publish();
+            if (_expectedGas > 0) {
+                TxChunk _chunk = chunks.get(i);
+                // The safety margin follows the gas actually used by past transactions of the same mix
+                String _mix = GasModel.mixOf(_chunk.getTx().getMessageTypes(), _chunk.getTx().getSigners().size());
+                gasMixes.put(_chunk, _mix);
+                expectedGasByChunk.put(_chunk, _expectedGas);
+                gasLimits.put(_chunk, BigDecimal.valueOf(_expectedGas).multiply(BigDecimal.valueOf(this.gasTuner.getMargin(_mix))).setScale(0, RoundingMode.UP).longValue());
+                this.payTransactionFee(_chunk, gasLimits.get(_chunk), _gasPrice);
+            }
+        }
+        chunks.removeIf(_chunk -> !gasLimits.containsKey(_chunk));
+        removeUselessChunks(chunks);
+        // All transactions are signed upfront with locally managed sequences, then broadcast as a pipeline
+        TxChunkPlanner.assignSequenceOffsets(chunks);
+        List<TxOuterClass.TxRaw> signedTxs = new ArrayList<>();
+        chunks.forEach(_chunk -> signedTxs.add(_chunk.getTx().sign(FxAmount.ofAtto(_gasPrice).multiply(gasLimits.get(_chunk)), gasLimits.get(_chunk))));
+        // All transactions of this sequence window are broadcast to the same node, so that they reach its mempool in order
+        NodePool.Pin<CosmosGrpcApi> _pin = this.nodes.pin();
+        Set<FxAccount> failedSigners = new HashSet<>();
+        int broadcastTxs = 0;
+        long paidGas = 0;
+        for (int i = 0; i < chunks.size(); i++) {
+            if (this.scheduler.isOverrun()) {
+                // The cycle is abandoned : the remaining transactions are not broadcast
+                break;
+            }
+            TxChunk _chunk = chunks.get(i);
+            if (_chunk.getTx().getSigners().stream().anyMatch(failedSigners::contains)) {
+                // Sequences of these signers are now out of sync : this transaction would be rejected
+                this.events.event("tx.skipped", "   {time} : Skipping transaction {index}/{count} : one of its signers failed a previous transaction.").with("index", i + 1).with("count", chunks.size()).publish();
+                continue;
+            }
+            this.events.event("tx.executing", "   {time} : executing transaction {index}/{count}").with("index", i + 1).with("count", chunks.size()).publish();
+            if (!this.broadcastTransaction(_pin, _chunk, signedTxs.get(i), gasMixes.get(_chunk), expectedGasByChunk.get(_chunk), gasLimits.get(_chunk), FxAmount.ofAtto(_gasPrice).multiply(gasLimits.get(_chunk)))) {
+                failedSigners.addAll(_chunk.getTx().getSigners());
+            } else {
+                broadcastTxs++;
+                paidGas += gasLimits.get(_chunk);
+            }
+        }
+        if (broadcastTxs > 0) {
+            this.events.event("tx.summary", "   {time} : {broadcast}/{count} transaction(s) broadcast for {fees} $FX of fees.").with("broadcast", broadcastTxs).with("count", chunks.size()).with("fees", FxAmount.ofAtto(_gasPrice).multiply(paidGas)).publish();
         }
-        return totalGas.get();
     }
 
-    private long executeTransaction(List<FxAccount> accounts, long expectedGas) {
-        System.out.println("   " + new Date() + " : executing transaction");
-        AtomicLong realGas = new AtomicLong(0L);
-        AtomicBoolean firstTransaction = new AtomicBoolean(true);
-        BigDecimal bGasPrice = BigDecimal.valueOf(expectedGas).multiply(BigDecimal.valueOf(GAS_COEFF)).setScale(0, RoundingMode.HALF_UP);
-        BigDecimal bGasFee = BigDecimal.valueOf(GAS_COST).multiply(bGasPrice).stripTrailingZeros();
-        Map<FxAccount, cosmos.auth.v1beta1.Auth.BaseAccount> baseAccounts = new LinkedHashMap<>();
-        AtomicBoolean txToProcess = new AtomicBoolean(false);
-        TxOuterClass.TxBody.Builder bodyBuilder = TxOuterClass.TxBody.newBuilder()
-                .setMemo("FrenchXCore AutoCompounder : " + new Date().toString())
-                .setTimeoutHeight(0);
-        accounts.forEach(_account -> {
-            cosmos.auth.v1beta1.QueryOuterClass.QueryAccountResponse _accountResponse = null;
-            try {
-                _accountResponse = client.authQueryAccount(_account.getFxDelegatorAddress()).get();
-                if (_accountResponse != null) {
-                    cosmos.auth.v1beta1.Auth.BaseAccount _baseAccount = null;
-                    if (_accountResponse.getAccount().is(cosmos.auth.v1beta1.Auth.BaseAccount.class)) {
-                        _baseAccount = _accountResponse.getAccount().unpack(cosmos.auth.v1beta1.Auth.BaseAccount.class);
-                        baseAccounts.put(_account, _baseAccount);
-                    } else {
-                        throw new Exception();
-                    }
+    /**
+     * Transactions without any delegation are only kept if they withdraw rewards restaked by another transaction (i.e. accounts split over several transactions)
+     */
+    private static void removeUselessChunks(List<TxChunk> chunks) {
+        Set<FxAccount> _delegators = new HashSet<>();
+        chunks.forEach(_chunk -> _chunk.getDelegations().forEach(_d -> _delegators.add(_d.getAccount())));
+        chunks.removeIf(_chunk -> _chunk.getTx().getSigners().stream().noneMatch(_delegators::contains));
+    }
+
+    /**
+     * Builds all withdraw and delegate messages once for this cycle, split into as many transactions as required : the same transactions are then simulated and broadcast.
+     * The transaction fee is deducted from the delegation of the first signer of each transaction once gas is known.
+     */
+    private List<TxChunk> planTransactions(List<FxAccount> accounts) {
+        Map<FxAccount, AccountMetadataCache.Metadata> baseAccounts = this.queryAccountsMetadata(accounts);
+        TxChunkPlanner planner = new TxChunkPlanner(CHAIN_ID, "FrenchXCore AutoCompounder : " + new Date(), this.maxTxMessages, this.maxTxGas);
+        baseAccounts.forEach((_account, _baseAccount) -> {
+            FxAmount.Sum _restake = new FxAmount.Sum();
+            boolean _withdrawCommission = _account.isValidator() && _account.getCommissionFee().compareTo(FxAmount.ONE) > 0;
+            Map<String/*fxvaloper*/, FxAmount> _rewardsToWithdraw = new LinkedHashMap<>();
+            _account.getRewards().forEach((_validator, _rewards) -> {
+                if (_rewards.compareTo(FxAmount.ONE) > 0) {
+                    _rewardsToWithdraw.put(_validator, _rewards);
                 }
-            } catch (Exception ex) {
-                throw new IllegalArgumentException("!!! ERROR !!! Account query failed for FxAccount "
-                        + (_account.isValidator() ?
-                        "'" + _account.getFxValidatorAddress() + "'/'" + _account.getFxDelegatorAddress() + "'" :
-                        "'" + _account.getFxDelegatorAddress() + "'"));
+            });
+            if (_withdrawCommission) {
+                _restake.add(_account.getCommissionFee());
             }
-        });
-        Set<FxAccount> signaturesRequired = new LinkedHashSet<>();
-        baseAccounts.entrySet().forEach(_eBaseAccount -> {
-            FxAccount _account = _eBaseAccount.getKey();
-            cosmos.auth.v1beta1.Auth.BaseAccount _baseAccount = _eBaseAccount.getValue();
-            AtomicReference<BigDecimal> _amountToRestake = new AtomicReference<>(BigDecimal.ZERO);
-            if (_account.isValidator() && _account.getCommissionFee().isPresent() && _account.getCommissionFee().get().compareTo(BigDecimal.ONE) > 0) {
+            for (FxAmount _rewards : _rewardsToWithdraw.values()) {
+                _restake.add(_rewards);
+            }
+            FxAmount _amountToRestake = _restake.add(this.keepUnstaked.negate()).get();
+            boolean _delegate = _amountToRestake.compareTo(this.getWithdrawThreshold(_account)) > 0;
+
+            List<TxMessageType> _types = new ArrayList<>();
+            if (_withdrawCommission) {
+                _types.add(TxMessageType.WITHDRAW_COMMISSION);
+            }
+            _rewardsToWithdraw.keySet().forEach(_validator -> _types.add(TxMessageType.WITHDRAW_REWARDS));
+            if (_delegate) {
+                _types.add(TxMessageType.DELEGATE);
+            }
+            if (_types.isEmpty()) {
+                return;
+            }
+            planner.startAccount(_account, _types);
+
+            if (_withdrawCommission) {
                 cosmos.distribution.v1beta1.Tx.MsgWithdrawValidatorCommission msgWithdrawValidatorCommission = cosmos.distribution.v1beta1.Tx.MsgWithdrawValidatorCommission.newBuilder()
                         .setValidatorAddress(_account.getFxValidatorAddress())
                         .build();
-                bodyBuilder.addMessages(Any.pack(msgWithdrawValidatorCommission, ""));
-                System.out.println("   " + new Date() + " : TX : Adding Withdraw validator commission for validator '" + _account.getFxValidatorAddress() + "' : " + _account.getCommissionFee().get().setScale(4, RoundingMode.HALF_UP).toPlainString() + " $FX.");
-                signaturesRequired.add(_account);
-                _amountToRestake.set(_amountToRestake.get().add(_account.getCommissionFee().get()));
-            }
-            _account.getRewards().entrySet().forEach(_eValidatorRewards -> {
-                _eValidatorRewards.getValue().filter(_rewards -> {
-                    return _rewards.compareTo(BigDecimal.ONE) > 0;
-                }).ifPresent(_rewards -> {
-                    cosmos.distribution.v1beta1.Tx.MsgWithdrawDelegatorReward msgWithdrawRewards = cosmos.distribution.v1beta1.Tx.MsgWithdrawDelegatorReward.newBuilder()
-                            .setDelegatorAddress(_account.getFxDelegatorAddress())
-                            .setValidatorAddress(_eValidatorRewards.getKey())
-                            .build();
-                    bodyBuilder.addMessages(Any.pack(msgWithdrawRewards, ""));
-                    System.out.println("   " + new Date() + " : TX : Adding Withdraw delegator rewards for delegator '" + _account.getFxDelegatorAddress() + "' on validator '" + _eValidatorRewards.getKey() + "' : " + _rewards.setScale(4, RoundingMode.HALF_UP).toPlainString() + " $FX.");
-                    signaturesRequired.add(_account);
-                    _amountToRestake.set(_amountToRestake.get().add(_rewards));
-                });
-            });
-            _amountToRestake.set(_amountToRestake.get().subtract(this.keepUnstaked));
-            if (firstTransaction.get()) {
-                firstTransaction.set(false);
-                _amountToRestake.set(_amountToRestake.get().subtract(bGasFee.movePointLeft(18)));
+                planner.add(_account, _baseAccount, TxMessageType.WITHDRAW_COMMISSION, msgWithdrawValidatorCommission);
+                this.events.event("tx.message", "   {time} : TX : Adding Withdraw validator commission for validator '{validator}' : {amount} $FX.")
+                        .with("type", TxMessageType.WITHDRAW_COMMISSION).with("validator", _account.getFxValidatorAddress()).with("amount", _account.getCommissionFee()).publish();
             }
-            if (_amountToRestake.get().compareTo(this.minimumWithdraw) > 0) {
-                cosmos.staking.v1beta1.Tx.MsgDelegate msgDelegate = cosmos.staking.v1beta1.Tx.MsgDelegate.newBuilder()
+            _rewardsToWithdraw.forEach((_validator, _rewards) -> {
+                cosmos.distribution.v1beta1.Tx.MsgWithdrawDelegatorReward msgWithdrawRewards = cosmos.distribution.v1beta1.Tx.MsgWithdrawDelegatorReward.newBuilder()
                         .setDelegatorAddress(_account.getFxDelegatorAddress())
-                        .setValidatorAddress(FRENCHXCORE_VAL)
-                        .setAmount(cosmos.base.v1beta1.CoinOuterClass.Coin.newBuilder()
-                                .setAmount(_amountToRestake.get().movePointRight(18).toBigInteger().toString())
-                                .setDenom("FX")
-                                .build())
+                        .setValidatorAddress(_validator)
                         .build();
-                bodyBuilder.addMessages(Any.pack(msgDelegate, ""));
-                System.out.println("   " + new Date() + " : TX : Adding Delegate for delegator '" + _account.getFxDelegatorAddress() + "' on validator '" + FRENCHXCORE_VAL + "' : " + _amountToRestake.get().setScale(4, RoundingMode.HALF_UP).toPlainString() + " $FX.");
-                txToProcess.set(true);
+                planner.add(_account, _baseAccount, TxMessageType.WITHDRAW_REWARDS, msgWithdrawRewards);
+                this.events.event("tx.message", "   {time} : TX : Adding Withdraw delegator rewards for delegator '{delegator}' on validator '{validator}' : {amount} $FX.")
+                        .with("type", TxMessageType.WITHDRAW_REWARDS).with("delegator", _account.getFxDelegatorAddress()).with("validator", _validator).with("amount", _rewards).publish();
+            });
+            if (_delegate) {
+                int _index = planner.add(_account, _baseAccount, TxMessageType.DELEGATE, this.buildDelegate(_account, _amountToRestake));
+                planner.current().getDelegations().add(new TxChunk.Delegation(_account, _index, _amountToRestake));
+                this.events.event("tx.message", "   {time} : TX : Adding Delegate for delegator '{delegator}' on validator '{validator}' : {amount} $FX.")
+                        .with("type", TxMessageType.DELEGATE).with("delegator", _account.getFxDelegatorAddress()).with("validator", FRENCHXCORE_VAL).with("amount", _amountToRestake).publish();
             }
         });
+        if (planner.getChunks().size() > 1) {
+            this.events.event("tx.split", "   {time} : TX : Messages split into {count} transactions.").with("count", planner.getChunks().size()).publish();
+        }
+        return planner.getChunks();
+    }
 
-        if (txToProcess.get()) {
-            TxOuterClass.Tx signedTx = null;
-            TxOuterClass.Tx.Builder _txBuilder = TxOuterClass.Tx.newBuilder();
-            TxOuterClass.AuthInfo.Builder _authInfoBuilder = TxOuterClass.AuthInfo.newBuilder()
-                    .setFee(TxOuterClass.Fee.newBuilder()
-                            .addAmount(cosmos.base.v1beta1.CoinOuterClass.Coin.newBuilder().setDenom("FX").setAmount(Long.toString(bGasFee.longValue())).build())
-                            .setGasLimit(bGasPrice.longValue())
-                            .build()
-                    );
-            for (FxAccount _account : signaturesRequired) {
-                cosmos.crypto.secp256k1.Keys.PubKey publicKeyFrom = cosmos.crypto.secp256k1.Keys.PubKey.newBuilder()
-                        .setKey(ByteString.copyFrom(_account.getPrivateKey().getPubKey()))
-                        .build();
-                TxOuterClass.SignerInfo _signerInfo = TxOuterClass.SignerInfo.newBuilder()
-                        .setModeInfo(TxOuterClass.ModeInfo.newBuilder().setSingle(TxOuterClass.ModeInfo.Single.newBuilder().setMode(Signing.SignMode.SIGN_MODE_DIRECT).build()).build())
-                        .setPublicKey(Any.pack(publicKeyFrom, ""))
-                        .setSequence(baseAccounts.get(_account).getSequence())
-                        .build();
-                _authInfoBuilder.addSignerInfos(_signerInfo);
-            }
-            cosmos.tx.v1beta1.TxOuterClass.TxBody body = bodyBuilder.build();
-            for (FxAccount _account : signaturesRequired) {
-                TxOuterClass.SignDoc signDoc = TxOuterClass.SignDoc.newBuilder()
-                        .setBodyBytes(body.toByteString())
-                        .setAuthInfoBytes(_authInfoBuilder.build().toByteString())
-                        .setChainId(CHAIN_ID)
-                        .setAccountNumber(baseAccounts.get(_account).getAccountNumber())
-                        .build();
-                // Sign transaction
-                byte[] signature = CryptoUtils.signTransaction(signDoc, _account.getPrivateKey());
-                _txBuilder.addSignatures(ByteString.copyFrom(signature));
-            }
-            signedTx = _txBuilder
-                    .setBody(body)
-                    .setAuthInfo(_authInfoBuilder.build())
-                    .build();
-            ServiceOuterClass.BroadcastTxResponse bTxResponse = null;
-            try {
-                bTxResponse = client.txBroadcastTx(
-                        ServiceOuterClass.BroadcastMode.BROADCAST_MODE_SYNC,
-                        signedTx.toByteArray()).get();
-                realGas.addAndGet(bTxResponse.getTxResponse().getGasUsed());
-            } catch (Exception ex) {
-                throw new IllegalArgumentException("!!! ERROR !!! Could not simulate Tx for gas : " + ex.getMessage());
+    private cosmos.staking.v1beta1.Tx.MsgDelegate buildDelegate(FxAccount account, FxAmount amount) {
+        return cosmos.staking.v1beta1.Tx.MsgDelegate.newBuilder()
+                .setDelegatorAddress(account.getFxDelegatorAddress())
+                .setValidatorAddress(FRENCHXCORE_VAL)
+                .setAmount(cosmos.base.v1beta1.CoinOuterClass.Coin.newBuilder()
+                        .setAmount(amount.toAttoString())
+                        .setDenom("FX")
+                        .build())
+                .build();
+    }
+
+    /**
+     * Routine transactions use the learnt gas model, the others are simulated
+     */
+    private CompletableFuture<Long> estimateGas(TxChunk chunk) {
+        OptionalLong _estimate = this.gasModel.estimate(chunk.getTx().getMessageTypes(), chunk.getTx().getSigners().size());
+        if (_estimate.isPresent()) {
+            this.events.event("tx.gas.estimate", "   {time} : Estimating gas for transaction from past transactions").with("gas", _estimate.getAsLong()).publish();
+            this.metrics.onGasExpected(_estimate.getAsLong(), false);
+            return CompletableFuture.completedFuture(_estimate.getAsLong());
+        }
+        return this.simulateGas(chunk);
+    }
+
+    private CompletableFuture<Long> simulateGas(TxChunk chunk) {
+        this.events.event("tx.gas.simulate", "   {time} : Simulating gas for transaction").publish();
+        TxOuterClass.Tx _simTx = chunk.getTx().buildSimulationTx();
+        return this.limiter.submit(() -> this.nodes.read("txSimulate", () -> ServiceOuterClass.SimulateRequest.newBuilder().setTx(_simTx).build(), _c -> _c.txSimulate(_simTx)))
+                .thenApply(_response -> {
+                    this.metrics.onGasExpected(_response.getGasInfo().getGasUsed(), true);
+                    return _response.getGasInfo().getGasUsed();
+                });
+    }
+
+    private void payTransactionFee(TxChunk chunk, long gasLimit, long gasPrice) {
+        FxAmount _gasFee = FxAmount.ofAtto(gasPrice).multiply(gasLimit);
+
+        // The transaction fee is taken from the delegation of the first signer
+        for (TxChunk.Delegation _delegation : chunk.getDelegations()) {
+            if (_delegation.getAccount() == chunk.getFeePayer()) {
+                FxAmount _amountToRestake = _delegation.getAmount().subtract(_gasFee);
+                if (_amountToRestake.compareTo(this.getWithdrawThreshold(_delegation.getAccount())) > 0) {
+                    chunk.getTx().setMessage(_delegation.getMessageIndex(), this.buildDelegate(_delegation.getAccount(), _amountToRestake));
+                    this.events.event("tx.message.updated", "   {time} : TX : Updating Delegate for delegator '{delegator}' to pay the transaction fee : {amount} $FX.")
+                            .with("delegator", _delegation.getAccount().getFxDelegatorAddress()).with("amount", _amountToRestake).with("fee", _gasFee).publish();
+                } else {
+                    chunk.removeDelegation(_delegation);
+                    this.events.event("tx.message.removed", "   {time} : TX : Removing Delegate for delegator '{delegator}' : not enough $FX left once the transaction fee is paid.")
+                            .with("delegator", _delegation.getAccount().getFxDelegatorAddress()).with("fee", _gasFee).publish();
+                }
+                break;
             }
-            try {
-                if (bTxResponse != null) {
-                    System.out.printf("   Transaction hash: %s%n", bTxResponse.getTxResponse().getTxhash());
-                    System.out.printf("   Block height    : %s%n", bTxResponse.getTxResponse().getHeight());
-                    System.out.printf("   Transaction log : %s%n", bTxResponse.getTxResponse().getRawLog());
-                    System.out.printf("   Transaction fee : %s $FX%n", BigDecimal.valueOf(bTxResponse.getTxResponse().getGasUsed()).multiply(BigDecimal.valueOf(GAS_COST)).movePointLeft(18).stripTrailingZeros().toPlainString());
+        }
+    }
+
+    /**
+     * @param gasMix the message mix of the transaction when its gas limit was set
+     * @param expectedGas the simulated or estimated gas, before safety margin
+     * @param fee the fee the transaction was signed with (the gas price may change in-between)
+     * @return false if the transaction was rejected
+     */
+    private boolean broadcastTransaction(NodePool.Pin<CosmosGrpcApi> pin, TxChunk chunk, TxOuterClass.TxRaw signedTx, String gasMix, long expectedGas, long gasLimit, FxAmount fee) {
+        ServiceOuterClass.BroadcastTxResponse bTxResponse = null;
+        try {
+            bTxResponse = pin.submit("txBroadcastTx",
+                    () -> ServiceOuterClass.BroadcastTxRequest.newBuilder().setMode(ServiceOuterClass.BroadcastMode.BROADCAST_MODE_SYNC).setTxBytes(signedTx.toByteString()).build(),
+                    _c -> _c.txBroadcastTx(ServiceOuterClass.BroadcastMode.BROADCAST_MODE_SYNC, signedTx.toByteArray())).get();
+        } catch (Exception ex) {
+            this.events.event("tx.broadcast.error", "   {time} : Could not broadcast Tx : {error}").with("error", ex.getMessage()).publish();
+            this.metrics.onBroadcast(false, FxAmount.ZERO);
+            return false;
+        }
+        List<String> _signers = new ArrayList<>();
+        chunk.getTx().getSigners().forEach(_account -> _signers.add(_account.getFxDelegatorAddress()));
+        this.metrics.onBroadcast(bTxResponse.getTxResponse().getCode() == 0, fee);
+        if (bTxResponse.getTxResponse().getCode() == 0) {
+            _signers.forEach(this.accountMetadata::incrementSequence);
+            List<TxMessageType> _messageTypes = new ArrayList<>(chunk.getTx().getMessageTypes());
+            int _signerCount = chunk.getTx().getSigners().size();
+            // The fee payer restakes its delegation minus the fee
+            Map<FxAccount, FxAmount> _restaked = new LinkedHashMap<>();
+            chunk.getDelegations().forEach(_d -> _restaked.merge(_d.getAccount(), _d.getAccount() == chunk.getFeePayer() ? _d.getAmount().subtract(fee) : _d.getAmount(), FxAmount::add));
+            FxAccount _feePayer = chunk.getFeePayer();
+            this.confirmations.track(bTxResponse.getTxResponse().getTxhash(), chunk.getTx().getSigners()).thenAccept(_confirmation -> {
+                if (_confirmation.isCommitted() && this.snapshots != null) {
+                    try {
+                        this.snapshots.appendCompounding(System.currentTimeMillis(), _feePayer, fee, _confirmation.isSuccess() ? _restaked : Map.of());
+                    } catch (Exception ex) {
+                        System.out.println("WARNING: Could not record snapshots : " + ex.getMessage());
+                    }
                 }
-            } catch (Exception ex) {
+                if (_confirmation.isSuccess()) {
+                    this.optimizer.observeGas(_confirmation.getGasUsed(), _messageTypes.size());
+                    this.gasModel.observe(_messageTypes, _signerCount, _confirmation.getGasUsed());
+                    this.gasTuner.observe(gasMix, expectedGas, _confirmation.getGasUsed());
+                } else if (_confirmation.getCode() == GasModel.ERR_OUT_OF_GAS) {
+                    this.gasModel.onOutOfGas();
+                    this.gasTuner.onOutOfGas(gasMix);
+                }
+            });
+        } else if (bTxResponse.getTxResponse().getCode() == GasModel.ERR_OUT_OF_GAS) {
+            this.events.event("tx.rejected", "   {time} : Out of gas : next transactions will be simulated.").with("code", GasModel.ERR_OUT_OF_GAS).publish();
+            this.gasModel.onOutOfGas();
+            this.gasTuner.onOutOfGas(gasMix);
+            this.accountMetadata.resynchronize(_signers, null);
+        } else if (bTxResponse.getTxResponse().getCode() == GasTuner.ERR_INSUFFICIENT_FEE) {
+            if (this.gasTuner.onInsufficientFee(bTxResponse.getTxResponse().getRawLog(), gasLimit)) {
+                this.events.event("tx.rejected", "   {time} : Insufficient fee : gas price raised to the node minimum ({gasPrice} atto-FX).").with("code", GasTuner.ERR_INSUFFICIENT_FEE).with("gasPrice", this.gasTuner.getGasPrice()).publish();
+            }
+            this.accountMetadata.resynchronize(_signers, null);
+        } else if (bTxResponse.getTxResponse().getCode() == AccountMetadataCache.ERR_WRONG_SEQUENCE) {
+            this.events.event("tx.rejected", "   {time} : Account sequence mismatch : resynchronizing signers sequences.").with("code", AccountMetadataCache.ERR_WRONG_SEQUENCE).publish();
+            this.accountMetadata.resynchronize(_signers, bTxResponse.getTxResponse().getRawLog());
+        } else {
+            // The node did not accept the transaction : sequences will be fetched again
+            this.accountMetadata.resynchronize(_signers, null);
+        }
+        this.events.event("tx.broadcast", "   Transaction hash: {hash}\n   Block height    : {height}\n   Transaction log : {log}\n   Transaction fee : {fee} $FX")
+                .with("hash", bTxResponse.getTxResponse().getTxhash())
+                .with("height", bTxResponse.getTxResponse().getHeight())
+                .with("code", bTxResponse.getTxResponse().getCode())
+                .with("log", bTxResponse.getTxResponse().getRawLog())
+                .with("fee", fee)
+                .with("gasLimit", gasLimit)
+                .publish();
+        return bTxResponse.getTxResponse().getCode() == 0;
+    }
+
+    private void processConfirmations() {
+        for (ConfirmationTracker.Confirmation _confirmation : this.confirmations.drainCompleted()) {
+            this.metrics.onConfirmation(_confirmation);
+            if (!_confirmation.isCommitted()) {
+                // The transaction never made it to a block : signers sequences were not consumed
+                this.events.event("tx.confirmation", "   {time} : Transaction {hash} was not committed before timeout : resynchronizing signers sequences.")
+                        .with("hash", _confirmation.getTxHash()).with("status", "timeout").publish();
+                List<String> _signers = new ArrayList<>();
+                _confirmation.getSigners().forEach(_account -> _signers.add(_account.getFxDelegatorAddress()));
+                this.accountMetadata.resynchronize(_signers, null);
+            } else if (!_confirmation.isSuccess()) {
+                this.events.event("tx.confirmation", "   {time} : Transaction {hash} FAILED at height {height} (gas used {gasUsed}/{gasWanted}) : {log}")
+                        .with("hash", _confirmation.getTxHash()).with("status", "failed").with("height", _confirmation.getHeight())
+                        .with("gasUsed", _confirmation.getGasUsed()).with("gasWanted", _confirmation.getGasWanted()).with("code", _confirmation.getCode()).with("log", _confirmation.getRawLog()).publish();
+            } else {
+                this.events.event("tx.confirmation", "   {time} : Transaction {hash} confirmed at height {height} (gas used {gasUsed}/{gasWanted}).")
+                        .with("hash", _confirmation.getTxHash()).with("status", "confirmed").with("height", _confirmation.getHeight())
+                        .with("gasUsed", _confirmation.getGasUsed()).with("gasWanted", _confirmation.getGasWanted()).publish();
             }
         }
-        return realGas.get();
+    }
+
+    private Map<FxAccount, AccountMetadataCache.Metadata> queryAccountsMetadata(List<FxAccount> accounts) {
+        Map<FxAccount, CompletableFuture<AccountMetadataCache.Metadata>> _metadata = new LinkedHashMap<>();
+        accounts.forEach(_account -> _metadata.put(_account, this.accountMetadata.get(_account.getFxDelegatorAddress())));
+        Map<FxAccount, AccountMetadataCache.Metadata> ret = new LinkedHashMap<>();
+        _metadata.forEach((_account, _m) -> {
+            try {
+                ret.put(_account, _m.get());
+            } catch (Exception ex) {
+                throw new IllegalArgumentException("!!! ERROR !!! Account query failed for FxAccount "
+                        + (_account.isValidator() ?
+                        "'" + _account.getFxValidatorAddress() + "'/'" + _account.getFxDelegatorAddress() + "'" :
+                        "'" + _account.getFxDelegatorAddress() + "'"));
+            }
+        });
+        return ret;
     }
 
     private boolean addDelegatorAddresses(List<String> _fxDelegatorAddresses) throws Exception {
         boolean ret = true;
         for (String fxDelegatorAddress : _fxDelegatorAddresses) {
-            FxAccount account = FxAccount.generateDelegator(fxDelegatorAddress, this.cryptoUnits);
+            FxAccount account = FxAccount.generateDelegator(fxDelegatorAddress, this.addressIndex);
+            if (account == null) {
+                throw new IllegalArgumentException("!!! ERROR !!! The FX delegator address '" + fxDelegatorAddress + "' was not found within the first " + this.gapLimit + " addresses of your seedphrases.");
+            }
             if (!account.getFxDelegatorAddress().equals(fxDelegatorAddress)) {
                 throw new IllegalArgumentException("!!! ERROR !!! The FX delegator address does not match the guessed index.");
             }
             if (!FxAccount.exists(this.accounts, account.getFxDelegatorAddress())) {
                 this.accounts.add(account);
-                System.out.printf("NOTICE: Address '%s' (index %d) was added to the list of accounts.%n", fxDelegatorAddress, account.getCryptoUnit().lastIndex);
+                System.out.printf("NOTICE: Address '%s' (index %d) was added to the list of accounts.%n", fxDelegatorAddress, account.getDerivationIndex());
             } else {
-                System.out.printf("WARNING: Address '%s' (index %d) already in the list of accounts.%n", fxDelegatorAddress, account.getCryptoUnit().lastIndex);
+                System.out.printf("WARNING: Address '%s' (index %d) already in the list of accounts.%n", fxDelegatorAddress, account.getDerivationIndex());
             }
         }
         return ret;
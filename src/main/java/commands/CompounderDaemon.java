@@ -0,0 +1,136 @@
+package commands;
+
+import picocli.CommandLine;
+import utils.FxAccount;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Runs the auto-compounder configurations of several tenants in a single process.
+ * Each tenant keeps its own seedphrases, accounts and thresholds, while all tenants share the FX node connections, the in-flight query slots,
+ * the cycle scheduler, the gas knowledge, the metrics, the event log and the snapshot store.
+ * Each cycle sends the queries of all tenants in a single round : queued queries of all tenants are started in turn,
+ * so that a tenant with many accounts never holds up the others.
+ * Compounding is not shared that way : tenants are then completed one after the other on the cycle thread, as soon as their queries are answered,
+ * so that a tenant with many transactions to send delays the compounding of the tenants completed after it in the same cycle.
+ */
+@CommandLine.Command(name = "daemon", description = "To run the FX auto-compounder configurations of several tenants in a single process")
+public class CompounderDaemon extends AutoCompounder {
+
+    /**
+     * The options specific to each tenant : all other options are shared by all tenants
+     */
+    private static final Set<String> TENANT_OPTIONS = Set.of("--seed", "--delegators", "--validators", "--minimum-withdraw", "--keep-unstaked",
+            "--gap-limit", "--max-tx-messages", "--max-tx-gas", "--full-refresh-cycles", "--optimize-threshold");
+
+    @CommandLine.Spec
+    private CommandLine.Model.CommandSpec spec;
+
+    @CommandLine.Option(names = { "--tenants" }, defaultValue = "fx-tenants.conf", description = "The file listing the tenants, one per line : the tenant name followed by its 'autocompound' options (-s, -d, -v, -m, -k, -g, -o, --max-tx-messages, --max-tx-gas, --full-refresh-cycles)")
+    private String tenantsFile;
+
+    private final Map<String, AutoCompounder> tenants = new LinkedHashMap<>();
+    private final List<Autocompound> cycles = new ArrayList<>();
+
+    @Override
+    public Boolean call() throws Exception {
+        this.setUp(null);
+        this.start();
+        this.waitForQuit();
+        this.stop();
+        return true;
+    }
+
+    @Override
+    public void setUp(String password) throws Exception {
+        for (CommandLine.Model.OptionSpec _option : this.spec.options()) {
+            if (TENANT_OPTIONS.contains(_option.longestName()) && this.spec.commandLine().getParseResult().hasMatchedOption(_option)) {
+                throw new IllegalArgumentException("!!! ERROR  !!! The option '" + _option.longestName() + "' must be specified for each tenant in the tenants file (--tenants).");
+            }
+        }
+        if (!this.spec.findOption("--record").getValue().toString().isBlank() || !this.spec.findOption("--replay").getValue().toString().isBlank()) {
+            throw new IllegalArgumentException("!!! ERROR  !!! Captures (--record, --replay) are not supported in daemon mode.");
+        }
+        this.loadTenants();
+        this.setUpShared(this::cycle);
+        Map<String, String> _owners = new HashMap<>();
+        for (Map.Entry<String, AutoCompounder> _entry : this.tenants.entrySet()) {
+            System.out.printf("NOTICE: Setting up tenant '%s'...%n", _entry.getKey());
+            _entry.getValue().setUpTenant(_entry.getKey(), password, this);
+            for (FxAccount _account : _entry.getValue().getAccounts()) {
+                String _owner = _owners.putIfAbsent(_account.getFxDelegatorAddress(), _entry.getKey());
+                if (_owner != null) {
+                    throw new IllegalArgumentException("!!! ERROR !!! The FX delegator address '" + _account.getFxDelegatorAddress() + "' is specified by both tenants '" + _owner + "' and '" + _entry.getKey() + "'.");
+                }
+            }
+            this.cycles.add(new Autocompound(_entry.getValue()));
+        }
+        this.setDueCheck(() -> this.tenants.values().stream().anyMatch(AutoCompounder::isDue));
+    }
+
+    /**
+     * Parses the tenants file : each line holds the tenant name then its options, blank lines and lines starting with '#' are ignored
+     */
+    private void loadTenants() throws IOException {
+        Path _path = Path.of(this.tenantsFile);
+        if (!Files.isRegularFile(_path)) {
+            throw new IllegalArgumentException("!!! ERROR !!! The tenants file '" + this.tenantsFile + "' does not exist.");
+        }
+        int _line = 0;
+        for (String _l : Files.readAllLines(_path)) {
+            _line++;
+            String _trimmed = _l.strip();
+            if (_trimmed.isEmpty() || _trimmed.startsWith("#")) {
+                continue;
+            }
+            String[] _tokens = _trimmed.split("\\s+");
+            String _name = _tokens[0];
+            if (this.tenants.containsKey(_name)) {
+                throw new IllegalArgumentException("!!! ERROR !!! The tenant '" + _name + "' is specified twice in '" + this.tenantsFile + "'.");
+            }
+            AutoCompounder _tenant = new AutoCompounder();
+            CommandLine.ParseResult _result;
+            try {
+                _result = new CommandLine(_tenant).parseArgs(Arrays.copyOfRange(_tokens, 1, _tokens.length));
+            } catch (CommandLine.ParameterException ex) {
+                throw new IllegalArgumentException("!!! ERROR !!! Invalid options for tenant '" + _name + "' (line " + _line + ") : " + ex.getMessage());
+            }
+            for (CommandLine.Model.OptionSpec _option : _result.matchedOptions()) {
+                if (!TENANT_OPTIONS.contains(_option.longestName())) {
+                    throw new IllegalArgumentException("!!! ERROR !!! The option '" + _option.longestName() + "' of tenant '" + _name + "' (line " + _line + ") is shared by all tenants : specify it on the daemon command line.");
+                }
+            }
+            this.tenants.put(_name, _tenant);
+        }
+        if (this.tenants.isEmpty()) {
+            throw new IllegalArgumentException("!!! ERROR !!! The tenants file '" + this.tenantsFile + "' holds no tenant.");
+        }
+    }
+
+    /**
+     * Sends the queries of all tenants at once, then completes the cycle of each tenant as soon as all its queries are answered
+     */
+    private void cycle() {
+        List<Autocompound.Started> _started = new ArrayList<>();
+        this.cycles.forEach(_cycle -> _started.add(_cycle.begin()));
+        BlockingQueue<Integer> _refreshed = new LinkedBlockingQueue<>();
+        for (int i = 0; i < _started.size(); i++) {
+            int _index = i;
+            _started.get(i).getRefresh().whenComplete((_value, _ex) -> _refreshed.add(_index));
+        }
+        try {
+            for (int i = 0; i < _started.size(); i++) {
+                int _index = _refreshed.take();
+                this.cycles.get(_index).complete(_started.get(_index));
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,116 @@
+package commands;
+
+import eu.frenchxcore.api.CosmosGrpcApi;
+import libs.InFlightLimiter;
+import libs.NodePool;
+import picocli.CommandLine;
+import utils.CompoundingOptimizer;
+import utils.FxAmount;
+import utils.FxNodePool;
+import utils.GasStatsStore;
+import utils.GasTuner;
+import utils.QueryPlanner;
+
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.Callable;
+
+@CommandLine.Command(
+        name = "plan",
+        description = "Samples the rewards of FX delegator addresses, and prints the expected yield of compounding at their optimal threshold compared to the static minimum withdraw."
+)
+public class CompoundingPlanner implements Callable<Integer> {
+
+    @CommandLine.Option(names = { "-n", "--node-ip" }, defaultValue = "167.86.101.244", split = ",", description = "The FX node IP addresses, optionally with their port (e.g. '1.2.3.4:9090', or '[2001:db8::1]:9090' for IPv6) (separated with a ',').")
+    private List<String> nodeEndpoints;
+
+    @CommandLine.Option(names = { "-p", "--node-port" }, defaultValue = "9090", description = "The default FX node RPC port (Cosmos gRPC)", type = Integer.class)
+    private Integer nodeRpcPort;
+
+    @CommandLine.Option(names = { "-d" , "--delegators" }, required = true, split = ":", description = "The FX delegator addresses to plan (separated with a ':').")
+    private List<String> fxDelegatorAddresses;
+
+    @CommandLine.Option(names = { "-m" , "--minimum-withdraw" }, defaultValue = "100", description = "The static minimum withdraw to compare with", converter = FxAmountConverter.class)
+    private FxAmount minimumWithdraw;
+
+    @CommandLine.Option(names = { "--sample-seconds" }, defaultValue = "60", description = "The period (in seconds) between the two rewards samples used to measure the accrual rate (min=10)")
+    private Integer sampleSeconds;
+
+    @CommandLine.Option(names = { "--gas-stats" }, defaultValue = "fx-gas.properties", description = "The file keeping the gas used by past transactions (empty to use default estimates)")
+    private String gasStatsFile;
+
+    @Override
+    public Integer call() throws Exception {
+        if (this.sampleSeconds < 10) {
+            throw new IllegalArgumentException("!!! ERROR  !!! The sample period (--sample-seconds) must be greater or equal to 10 seconds.");
+        }
+        NodePool<CosmosGrpcApi> nodes;
+        try {
+            nodes = FxNodePool.connect(this.nodeEndpoints, this.nodeRpcPort);
+            if (nodes.probeAll().get() == 0) {
+                throw new IllegalStateException("No FX node answers.");
+            }
+        } catch (Exception ex) {
+            throw new IllegalArgumentException("!!! ERROR !!! There was an error while trying to connect to the FXCore mainnet node(s).");
+        }
+        QueryPlanner queryPlanner = new QueryPlanner(nodes, new InFlightLimiter(8));
+        GasStatsStore gasStats = GasStatsStore.load(this.gasStatsFile.isBlank() ? null : Path.of(this.gasStatsFile));
+        // The gas price last reported by the node is used when known
+        GasTuner gasTuner = new GasTuner(AutoCompounder.GAS_COEFF, AutoCompounder.GAS_COST, true, gasStats);
+        CompoundingOptimizer optimizer = new CompoundingOptimizer(gasTuner::getGasPrice, gasTuner::getDefaultMargin, gasStats);
+        System.out.println("Gas estimates : " + (optimizer.getSamples() > 0 ? "observed on " + optimizer.getSamples() + " past transactions" : "default (no past transaction observed)"));
+
+        Map<String, FxAmount> _firstRewards = new LinkedHashMap<>();
+        for (String _delegator : this.fxDelegatorAddresses) {
+            _firstRewards.put(_delegator.toLowerCase(), sum(queryPlanner.queryRewards(_delegator.toLowerCase()).get().values()));
+        }
+        long _start = System.currentTimeMillis();
+        System.out.println("Sampling rewards during " + this.sampleSeconds + " seconds...");
+        Thread.sleep(this.sampleSeconds * 1000L);
+
+        FxAmount _totalGain = FxAmount.ZERO;
+        for (Map.Entry<String, FxAmount> _entry : _firstRewards.entrySet()) {
+            String _delegator = _entry.getKey();
+            Map<String, FxAmount> _rewards = queryPlanner.queryRewards(_delegator).get();
+            long _elapsedMs = System.currentTimeMillis() - _start;
+            FxAmount _stake = sum(queryPlanner.queryDelegations(_delegator).get().values());
+            double _ratePerMs = sum(_rewards.values()).subtract(_entry.getValue()).doubleValue() / _elapsedMs;
+            System.out.println();
+            System.out.println("Delegator '" + _delegator + "' : stake=" + _stake + " $FX - earning=" + FxAmount.ofFx(_ratePerMs * 86400000d) + " $FX/day");
+            if (_ratePerMs <= 0 || _stake.signum() <= 0) {
+                System.out.println("   No rewards accrued during the sample period : nothing to plan.");
+                continue;
+            }
+            FxAmount _fee = optimizer.estimateFee(_rewards.size(), false);
+            FxAmount _optimal = CompoundingOptimizer.optimalThreshold(_stake, _fee);
+            double _staticYield = CompoundingOptimizer.expectedYield(_stake, _ratePerMs, _fee, this.minimumWithdraw);
+            double _optimalYield = CompoundingOptimizer.expectedYield(_stake, _ratePerMs, _fee, _optimal);
+            FxAmount _gain = FxAmount.ofFx(_stake.doubleValue() * (_optimalYield - _staticYield));
+            _totalGain = _totalGain.add(_gain);
+            System.out.println("   Fee per compound : " + _fee + " $FX");
+            System.out.println("   Static  : compound at " + this.minimumWithdraw + " $FX every " + formatPeriod(this.minimumWithdraw, _ratePerMs) + " --> " + formatYield(_staticYield) + " per year");
+            System.out.println("   Optimal : compound at " + _optimal + " $FX every " + formatPeriod(_optimal, _ratePerMs) + " --> " + formatYield(_optimalYield) + " per year (" + (_gain.signum() >= 0 ? "+" : "") + _gain + " $FX/year)");
+        }
+        System.out.println();
+        System.out.println("Expected gain with '--optimize-threshold' : " + (_totalGain.signum() >= 0 ? "+" : "") + _totalGain + " $FX/year");
+        nodes.stop();
+        return 0;
+    }
+
+    private static FxAmount sum(Collection<FxAmount> amounts) {
+        FxAmount.Sum ret = new FxAmount.Sum();
+        for (FxAmount _amount : amounts) {
+            ret.add(_amount);
+        }
+        return ret.get();
+    }
+
+    private static String formatYield(double yield) {
+        return String.format("%.4f%%", yield * 100);
+    }
+
+    private static String formatPeriod(FxAmount threshold, double ratePerMs) {
+        return String.format("%.1f hours", threshold.doubleValue() / ratePerMs / 3600000d);
+    }
+
+}
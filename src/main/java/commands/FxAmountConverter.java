@@ -0,0 +1,16 @@
+package commands;
+
+import picocli.CommandLine;
+import utils.FxAmount;
+
+/**
+ * Converts $FX amount options (e.g. "123.45")
+ */
+public class FxAmountConverter implements CommandLine.ITypeConverter<FxAmount> {
+
+    @Override
+    public FxAmount convert(String value) {
+        return FxAmount.parse(value);
+    }
+
+}
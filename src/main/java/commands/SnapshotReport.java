@@ -0,0 +1,148 @@
+package commands;
+
+import picocli.CommandLine;
+import utils.FxAmount;
+import utils.SnapshotStore;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.Callable;
+
+@CommandLine.Command(
+        name = "report",
+        description = "Reads the snapshots recorded by the auto-compounder, and prints the APR, fees paid and compounding gains of each account over a time window."
+)
+public class SnapshotReport implements Callable<Integer> {
+
+    private static final double YEAR_MS = 365d * 86400000d;
+
+    @CommandLine.Option(names = { "--snapshots" }, defaultValue = "fx-snapshots.db", description = "The snapshot store written by the auto-compounder")
+    private String snapshotsFile;
+
+    @CommandLine.Option(names = { "-w" , "--window" }, defaultValue = "30", description = "The window (in days, up to the last snapshot) to report on (min=1)")
+    private Integer windowDays;
+
+    @CommandLine.Option(names = { "-d" , "--delegators" }, split = ":", description = "The FX delegator addresses to report on (separated with a ':', all by default).")
+    private List<String> fxDelegatorAddresses;
+
+    /**
+     * The amounts of an account accumulated over the window (in micro-FX)
+     */
+    private static final class AccountReport {
+
+        private long stake;
+        private double stakeTime;
+        private long rewards;
+        private long commission;
+        private long fees;
+        private long restaked;
+        private double restakedTime;
+
+    }
+
+    @Override
+    public Integer call() throws Exception {
+        if (this.windowDays < 1) {
+            throw new IllegalArgumentException("!!! ERROR  !!! The window (-w, --window) must be greater or equal to 1 day.");
+        }
+        Path _path = Path.of(this.snapshotsFile);
+        if (!Files.isRegularFile(_path)) {
+            throw new IllegalArgumentException("!!! ERROR !!! The snapshot store '" + this.snapshotsFile + "' does not exist.");
+        }
+        Set<String> _filter = new HashSet<>();
+        if (this.fxDelegatorAddresses != null) {
+            this.fxDelegatorAddresses.forEach(_a -> _filter.add(_a.toLowerCase()));
+        }
+        Map<String, AccountReport> _reports = new TreeMap<>();
+        long[] _window = new long[4]; // start, first frame in the window, previous frame, frames
+        // Single pass : frames before the window only build the stake held when the window starts
+        SnapshotStore.scan(_path, new SnapshotStore.Visitor() {
+
+            @Override
+            public void onStart(long lastTime) {
+                _window[0] = lastTime - SnapshotReport.this.windowDays * 86400000L;
+                _window[1] = -1L;
+                _window[2] = -1L;
+            }
+
+            @Override
+            public void onFrame(long time) {
+                if (time >= _window[0]) {
+                    if (_window[1] < 0) {
+                        _window[1] = _window[2] < 0 ? time : _window[0];
+                    }
+                    long _elapsed = time - Math.max(_window[2], _window[0]);
+                    if (_window[2] >= 0 && _elapsed > 0) {
+                        _reports.values().forEach(_r -> _r.stakeTime += (double) _r.stake * _elapsed);
+                    }
+                    _window[3]++;
+                }
+                _window[2] = time;
+            }
+
+            @Override
+            public void onSample(long time, SnapshotStore.Series series, long previous, long value) {
+                if (!_filter.isEmpty() && !_filter.contains(series.getAccount())) {
+                    return;
+                }
+                AccountReport _report = _reports.computeIfAbsent(series.getAccount(), _a -> new AccountReport());
+                boolean _inWindow = time >= _window[0];
+                long _accrued = value >= previous ? value - previous : value; // rewards and commission drop to zero when withdrawn
+                switch (series.getKind()) {
+                    case DELEGATION:
+                        _report.stake += value - previous;
+                        break;
+                    case REWARDS:
+                        _report.rewards += _inWindow ? _accrued : 0L;
+                        break;
+                    case COMMISSION:
+                        _report.commission += _inWindow ? _accrued : 0L;
+                        break;
+                    case FEES:
+                        _report.fees += _inWindow ? value - previous : 0L;
+                        break;
+                    case RESTAKED:
+                        if (_inWindow) {
+                            _report.restaked += value - previous;
+                            _report.restakedTime += (double) (value - previous) * time;
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+        });
+        if (_window[1] < 0 || _window[2] <= _window[1]) {
+            System.out.println("Not enough snapshots in '" + this.snapshotsFile + "' to report on.");
+            return 0;
+        }
+        long _from = _window[1];
+        long _to = _window[2];
+        double _duration = _to - _from;
+        System.out.println("Snapshots from " + new Date(_from) + " to " + new Date(_to) + " (" + _window[3] + " samples over " + String.format("%.1f", _duration / 86400000d) + " days)");
+        long _totalRewards = 0L;
+        long _totalCommission = 0L;
+        long _totalFees = 0L;
+        double _totalGain = 0d;
+        for (Map.Entry<String, AccountReport> _entry : _reports.entrySet()) {
+            AccountReport _report = _entry.getValue();
+            double _averageStake = _report.stakeTime / _duration;
+            double _apr = _averageStake > 0 ? _report.rewards / _averageStake * YEAR_MS / _duration : 0d;
+            // Each restaked amount earns the APR from the time it was restaked until the end of the window
+            double _gain = _apr * (_report.restaked * (double) _to - _report.restakedTime) / YEAR_MS;
+            System.out.println();
+            System.out.println("Delegator '" + _entry.getKey() + "' : stake=" + FxAmount.ofMicro((long) _averageStake) + " $FX - rewards=" + FxAmount.ofMicro(_report.rewards) + " $FX" +
+                    (_report.commission > 0 ? " - commission=" + FxAmount.ofMicro(_report.commission) + " $FX" : "") + " - APR=" + String.format("%.2f%%", _apr * 100));
+            System.out.println("   Fees paid : " + FxAmount.ofMicro(_report.fees) + " $FX - Restaked : " + FxAmount.ofMicro(_report.restaked) + " $FX - Compounding gain : " + FxAmount.ofMicro((long) _gain) + " $FX");
+            _totalRewards += _report.rewards;
+            _totalCommission += _report.commission;
+            _totalFees += _report.fees;
+            _totalGain += _gain;
+        }
+        System.out.println();
+        System.out.println("Total : rewards=" + FxAmount.ofMicro(_totalRewards) + " $FX - commission=" + FxAmount.ofMicro(_totalCommission) + " $FX - fees=" + FxAmount.ofMicro(_totalFees) + " $FX - compounding gain=" + FxAmount.ofMicro((long) _totalGain) + " $FX");
+        return 0;
+    }
+
+}
@@ -0,0 +1,121 @@
+package libs;
+
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Tracks the futures outstanding within a unit of work (e.g. a cycle), so that all of them can be cancelled at once.
+ * Once cancelled, the futures registered afterwards are cancelled straight away : work started by stages of the cancelled futures stops quickly.
+ * <p>
+ * The scope is bound to the unit of work, not to a pool : it is the current scope of the threads running that work (see {@link #run(Runnable)}),
+ * and asynchronous requests capture it when sent, then complete within it, so that their dependent stages belong to it as well.
+ * Work running on other threads at the same time (e.g. background polls) is never cancelled with it.
+ */
+public class CancellationScope {
+
+    private static final ThreadLocal<CancellationScope> CURRENT = new ThreadLocal<>();
+
+    private final Set<CompletableFuture<?>> outstanding = ConcurrentHashMap.newKeySet();
+    private volatile boolean cancelled = false;
+
+    /**
+     * @return the scope of the work running on the calling thread, or null
+     */
+    public static CancellationScope current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Runs the task with this scope as the current scope of the calling thread
+     */
+    public void run(Runnable task) {
+        this.call(() -> {
+            task.run();
+            return null;
+        });
+    }
+
+    /**
+     * Calls the task with this scope as the current scope of the calling thread
+     */
+    public <T> T call(Supplier<T> task) {
+        return call(this, task);
+    }
+
+    /**
+     * Calls the task with the given scope (or none, if null) as the current scope of the calling thread
+     */
+    public static <T> T call(CancellationScope scope, Supplier<T> task) {
+        CancellationScope _previous = CURRENT.get();
+        if (scope == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(scope);
+        }
+        try {
+            return task.get();
+        } finally {
+            if (_previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(_previous);
+            }
+        }
+    }
+
+    /**
+     * @return the future itself, cancelled if this scope already is
+     */
+    public <T> CompletableFuture<T> register(CompletableFuture<T> future) {
+        if (this.cancelled) {
+            this.run(() -> future.cancel(true));
+            return future;
+        }
+        this.outstanding.add(future);
+        future.whenComplete((_value, _ex) -> this.outstanding.remove(future));
+        // The scope may have been cancelled in-between
+        if (this.cancelled) {
+            this.run(() -> future.cancel(true));
+        }
+        return future;
+    }
+
+    /**
+     * Cancels all outstanding futures, and all the futures registered from now on.
+     * Dependent stages run by the cancellation run within this scope : the requests they send fail straight away.
+     * @return the number of futures actually cancelled
+     */
+    public int cancel() {
+        this.cancelled = true;
+        return this.call(() -> {
+            int ret = 0;
+            for (CompletableFuture<?> _future : this.outstanding) {
+                if (_future.cancel(true)) {
+                    ret++;
+                }
+            }
+            return ret;
+        });
+    }
+
+    public boolean isCancelled() {
+        return this.cancelled;
+    }
+
+    /**
+     * @return true if the error is (or wraps) a cancellation
+     */
+    public static boolean isCancellation(Throwable t) {
+        Throwable _t = t;
+        while ((_t instanceof CompletionException || _t instanceof ExecutionException) && _t.getCause() != null) {
+            _t = _t.getCause();
+        }
+        return _t instanceof CancellationException;
+    }
+
+}
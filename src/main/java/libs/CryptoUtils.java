@@ -9,6 +9,7 @@ import org.bitcoinj.crypto.DeterministicKey;
 import org.bitcoinj.crypto.HDKeyDerivation;
 import org.bitcoinj.crypto.HDPath;
 import org.bitcoinj.wallet.DeterministicSeed;
+import org.bouncycastle.util.BigIntegers;
 
 import javax.crypto.*;
 import javax.crypto.spec.IvParameterSpec;
@@ -18,7 +19,6 @@ import java.nio.charset.StandardCharsets;
 import java.security.*;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.KeySpec;
-import java.util.Arrays;
 import java.util.Base64;
 
 public class CryptoUtils {
@@ -30,26 +30,31 @@ public class CryptoUtils {
      */
     private static final String HD_PATH = "44H/118H/0H/0/0";
 
+    /**
+     * Hierarchical Deterministic path of the FunctionX account key, parent of all derived FX addresses
+     */
+    public static final String HD_ACCOUNT_PATH = "44H/118H/0H/0";
+
     private final static String ALGORITHM = "AES/CBC/PKCS5Padding";
-    private static Cipher CIPHER;
     private static IvParameterSpec IV_SPEC = new IvParameterSpec(new byte[] {0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0});
-    private static SecretKeySpec ROOT_KEY = null;
-    private static MessageDigest SHA256 = null;
 
-    static {
+    /**
+     * Cipher and digest instances are not thread-safe : each thread gets its own
+     */
+    private static final ThreadLocal<Cipher> CIPHER = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance("AES/CBC/PKCS5PADDING");
+        } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
         try {
-            CIPHER = Cipher.getInstance("AES/CBC/PKCS5PADDING");
-            SHA256 = MessageDigest.getInstance("SHA-256");
+            return MessageDigest.getInstance("SHA-256");
         } catch (NoSuchAlgorithmException e) {
-            CIPHER = null;
-            SHA256 = null;
-            e.printStackTrace();
-        } catch (NoSuchPaddingException e) {
-            CIPHER = null;
-            SHA256 = null;
-            e.printStackTrace();
+            throw new IllegalStateException(e);
         }
-    }
+    });
 
     public static String getSHA(String input) throws NoSuchAlgorithmException {
         MessageDigest md = MessageDigest.getInstance("SHA-256");
@@ -57,30 +62,40 @@ public class CryptoUtils {
     }
 
     public static String EncryptAndEncode(String password, String value) throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException, NoSuchPaddingException, NoSuchAlgorithmException, InvalidAlgorithmParameterException, InvalidKeySpecException {
-        CIPHER.init(Cipher.ENCRYPT_MODE, generateKey(password), IV_SPEC);
-        return Base64.getEncoder().encodeToString(CIPHER.doFinal(value.getBytes(StandardCharsets.UTF_8)));
+        Cipher _cipher = CIPHER.get();
+        _cipher.init(Cipher.ENCRYPT_MODE, generateKey(password), IV_SPEC);
+        return Base64.getEncoder().encodeToString(_cipher.doFinal(value.getBytes(StandardCharsets.UTF_8)));
     }
 
     public static String DecodeAndDecrypt(String password, String value) throws NoSuchPaddingException, NoSuchAlgorithmException, InvalidKeyException, IllegalBlockSizeException, BadPaddingException, InvalidKeySpecException, InvalidAlgorithmParameterException {
-        CIPHER.init(Cipher.DECRYPT_MODE, generateKey(password), IV_SPEC);
-        return new String(CIPHER.doFinal(Base64.getDecoder().decode(value)));
+        return DecodeAndDecrypt(generateKey(password), value);
+    }
+
+    /**
+     * @param key the key derived from the password (see {@link #generateKey(String)}), to decrypt several values without deriving it again
+     */
+    public static String DecodeAndDecrypt(SecretKeySpec key, String value) throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException, InvalidAlgorithmParameterException {
+        Cipher _cipher = CIPHER.get();
+        _cipher.init(Cipher.DECRYPT_MODE, key, IV_SPEC);
+        return new String(_cipher.doFinal(Base64.getDecoder().decode(value)));
     }
 
     public static String HashAndEncode(String value) {
-        SHA256.reset();
-        return Base64.getEncoder().encodeToString(SHA256.digest(value.getBytes(StandardCharsets.UTF_8)));
+        MessageDigest _sha256 = SHA256.get();
+        _sha256.reset();
+        return Base64.getEncoder().encodeToString(_sha256.digest(value.getBytes(StandardCharsets.UTF_8)));
     }
 
-    private static SecretKeySpec generateKey(String password) throws NoSuchAlgorithmException, InvalidKeySpecException {
-        if (ROOT_KEY == null) {
-            /* Create factory for secret keys. */
-            SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
-            /* PBEKeySpec class implements KeySpec interface. */
-            KeySpec spec = new PBEKeySpec(password.toCharArray(), SALT.getBytes(), 65536, 256);
-            SecretKey tmp = factory.generateSecret(spec);
-            ROOT_KEY = new SecretKeySpec(tmp.getEncoded(), "AES");
-        }
-        return ROOT_KEY;
+    /**
+     * Derives the key of the password : it is not kept, so that neither the password nor its key stay in memory once the seedphrases are decrypted
+     */
+    public static SecretKeySpec generateKey(String password) throws NoSuchAlgorithmException, InvalidKeySpecException {
+        /* Create factory for secret keys. */
+        SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
+        /* PBEKeySpec class implements KeySpec interface. */
+        KeySpec spec = new PBEKeySpec(password.toCharArray(), SALT.getBytes(), 65536, 256);
+        SecretKey tmp = factory.generateSecret(spec);
+        return new SecretKeySpec(tmp.getEncoded(), "AES");
     }
 
     public static DeterministicSeed generateSeed(String mnemonic) {
@@ -117,27 +132,35 @@ public class CryptoUtils {
     }
 
     public static String generateAddress(String prefix, DeterministicKey key) throws Exception {
-        return Bech32.ConvertAndEncode(prefix, key.getPubKeyHash());
+        return generateAddress(prefix, key.getPubKeyHash());
+    }
+
+    public static String generateAddress(String prefix, byte[] pubKeyHash) throws Exception {
+        return Bech32.ConvertAndEncode(prefix, pubKeyHash);
     }
 
     public static byte[] signTransaction(TxOuterClass.SignDoc signDoc, DeterministicKey key) {
-        ECKey eckey = ECKey.fromPrivate(key.getPrivKey().toByteArray());
-        Sha256Hash msgHash = Sha256Hash.of(signDoc.toByteArray());
-        ECKey.ECDSASignature _s = eckey.sign(msgHash);
+        return signTransaction(signDoc, toSigningKey(key));
+    }
+
+    /**
+     * Builds a standalone signing key, reusing the already computed public key point.
+     */
+    public static ECKey toSigningKey(DeterministicKey key) {
+        return ECKey.fromPrivateAndPrecalculatedPublic(key.getPrivKey(), key.getPubKeyPoint(), true);
+    }
+
+    /**
+     * Signs the SignDoc and returns the compact (r,s) 64-bytes signature. Thread-safe.
+     */
+    public static byte[] signTransaction(TxOuterClass.SignDoc signDoc, ECKey key) {
+        MessageDigest _sha256 = SHA256.get();
+        _sha256.reset();
+        Sha256Hash msgHash = Sha256Hash.wrap(_sha256.digest(signDoc.toByteArray()));
+        ECKey.ECDSASignature _s = key.sign(msgHash);
         byte[] signature = new byte[64];
-        Arrays.fill(signature, (byte) 0);
-        byte[] _sR = _s.r.toByteArray();
-        if (_sR.length > 32) {
-            System.arraycopy(_sR, _sR.length-32, signature, 0, 32);
-        } else {
-            System.arraycopy(_sR, 0, signature, 32-_sR.length, _sR.length);
-        }
-        byte[] _sS = _s.s.toByteArray();
-        if (_sS.length > 32) {
-            System.arraycopy(_sS, _sS.length-32, signature, 32, 32);
-        } else {
-            System.arraycopy(_sS, 0, signature, 64-_sS.length, _sS.length);
-        }
+        BigIntegers.asUnsignedByteArray(_s.r, signature, 0, 32);
+        BigIntegers.asUnsignedByteArray(_s.s, signature, 32, 32);
         return signature;
     }
 
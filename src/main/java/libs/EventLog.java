@@ -0,0 +1,492 @@
+package libs;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous structured event log.
+ * Events are written into preallocated slots of a ring buffer, then formatted and written to the sinks by a single daemon thread :
+ * logging an event never takes a lock, never formats a string and never waits for the console or a file.
+ * When the ring buffer is full, events are dropped (and counted) rather than blocking the caller.
+ * <p>
+ * An event is claimed with {@link #event(String, String)}, filled with fields, and must always be published :
+ * <pre>log.event("tx.broadcast", "   {time} : Transaction {hash} broadcast.").with("hash", hash).publish();</pre>
+ * The template is the human-readable form of the event, where '{time}' and '{field}' are replaced by their values (no console output if null).
+ * An event claimed but still not published after a second (e.g. a field value threw) is dropped, so that it never holds up the next ones.
+ * A tagged view of the log (see {@link #tagged(String, Object)}) adds the same field to all its events, and prefixes their template with its value.
+ */
+public class EventLog {
+
+    public static final int MAX_FIELDS = 8;
+    private static final long IDLE_NANOS = 50_000_000L;
+    private static final long ABANDONED_NANOS = 1_000_000_000L;
+
+    /**
+     * Writes events : only called from the event log thread
+     */
+    public interface Sink {
+
+        void write(Event event) throws IOException;
+
+        void flush() throws IOException;
+
+        void close() throws IOException;
+
+    }
+
+    /**
+     * A field value whose structured form (e.g. full precision) differs from its human-readable form
+     */
+    public interface StructuredValue {
+
+        String toStructuredString();
+
+    }
+
+    public static final class Event {
+
+        private volatile long published = -1L;
+        private final EventLog log;
+        private long sequence;
+        private long time;
+        private String type;
+        private String template;
+        private int size;
+        private final String[] keys = new String[MAX_FIELDS];
+        private final Object[] values = new Object[MAX_FIELDS];
+        private final long[] numbers = new long[MAX_FIELDS];
+
+        private Event(EventLog log) {
+            this.log = log;
+        }
+
+        public Event with(String key, Object value) {
+            if (this.log != null && this.size < MAX_FIELDS) {
+                this.keys[this.size] = key;
+                this.values[this.size++] = value == null ? "" : value;
+            }
+            return this;
+        }
+
+        public Event with(String key, long value) {
+            if (this.log != null && this.size < MAX_FIELDS) {
+                this.keys[this.size] = key;
+                this.values[this.size] = null;
+                this.numbers[this.size++] = value;
+            }
+            return this;
+        }
+
+        public void publish() {
+            if (this.log != null) {
+                this.published = this.sequence;
+                if (this.log.idle) {
+                    LockSupport.unpark(this.log.writer);
+                }
+            }
+        }
+
+        public long getTime() {
+            return this.time;
+        }
+
+        public String getType() {
+            return this.type;
+        }
+
+        public String getTemplate() {
+            return this.template;
+        }
+
+        public int size() {
+            return this.size;
+        }
+
+        public String getKey(int index) {
+            return this.keys[index];
+        }
+
+        /**
+         * @return true if the field is a number, false if it is an object (use its string value)
+         */
+        public boolean isNumber(int index) {
+            return this.values[index] == null;
+        }
+
+        public long getNumber(int index) {
+            return this.numbers[index];
+        }
+
+        public Object getValue(int index) {
+            return this.values[index];
+        }
+
+        public int indexOf(String key) {
+            for (int i = 0; i < this.size; i++) {
+                if (this.keys[i].equals(key)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        public StringBuilder appendValue(StringBuilder sb, int index) {
+            return this.isNumber(index) ? sb.append(this.numbers[index]) : sb.append(this.values[index]);
+        }
+
+        private void claim(long sequence, String type, String template) {
+            this.sequence = sequence;
+            this.time = System.currentTimeMillis();
+            this.type = type;
+            this.template = template;
+            this.size = 0;
+        }
+
+        private void clear() {
+            for (int i = 0; i < this.size; i++) {
+                this.values[i] = null;
+            }
+            this.size = 0;
+        }
+
+    }
+
+    /**
+     * Human-readable rendering of the event templates
+     */
+    public static class ConsoleSink implements Sink {
+
+        private final PrintStream out;
+        private final StringBuilder line = new StringBuilder(256);
+
+        public ConsoleSink(PrintStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(Event event) {
+            String _template = event.getTemplate();
+            if (_template == null) {
+                return;
+            }
+            this.line.setLength(0);
+            int _from = 0;
+            int _open;
+            while ((_open = _template.indexOf('{', _from)) >= 0) {
+                int _close = _template.indexOf('}', _open);
+                if (_close < 0) {
+                    break;
+                }
+                this.line.append(_template, _from, _open);
+                String _key = _template.substring(_open + 1, _close);
+                int _index = event.indexOf(_key);
+                if (_index >= 0) {
+                    event.appendValue(this.line, _index);
+                } else if (_key.equals("time")) {
+                    this.line.append(new Date(event.getTime()));
+                } else {
+                    this.line.append(_template, _open, _close + 1);
+                }
+                _from = _close + 1;
+            }
+            this.line.append(_template, _from, _template.length());
+            this.out.println(this.line);
+        }
+
+        @Override
+        public void flush() {
+            this.out.flush();
+        }
+
+        @Override
+        public void close() {
+            this.out.flush();
+        }
+
+    }
+
+    /**
+     * JSON-lines file, rotated when it exceeds its maximum size : 'file' is renamed 'file.1', 'file.1' is renamed 'file.2', and so on.
+     */
+    public static class JsonLinesSink implements Sink {
+
+        private final Path file;
+        private final long maxBytes;
+        private final int maxFiles;
+        private final StringBuilder line = new StringBuilder(512);
+        private OutputStream out;
+        private long bytes;
+
+        /**
+         * @param maxFiles the number of rotated files kept along with the current one
+         */
+        public JsonLinesSink(Path file, long maxBytes, int maxFiles) throws IOException {
+            this.file = file;
+            this.maxBytes = maxBytes;
+            this.maxFiles = maxFiles;
+            this.open();
+        }
+
+        @Override
+        public void write(Event event) throws IOException {
+            this.line.setLength(0);
+            this.line.append("{\"time\":\"").append(Instant.ofEpochMilli(event.getTime())).append("\",\"event\":");
+            appendString(this.line, event.getType());
+            for (int i = 0; i < event.size(); i++) {
+                this.line.append(',');
+                appendString(this.line, event.getKey(i));
+                this.line.append(':');
+                Object _value = event.getValue(i);
+                if (event.isNumber(i)) {
+                    this.line.append(event.getNumber(i));
+                } else if (_value instanceof Boolean || (_value instanceof Number && Double.isFinite(((Number) _value).doubleValue()))) {
+                    this.line.append(_value);
+                } else if (_value instanceof StructuredValue) {
+                    appendString(this.line, ((StructuredValue) _value).toStructuredString());
+                } else {
+                    appendString(this.line, _value.toString());
+                }
+            }
+            this.line.append("}\n");
+            byte[] _bytes = this.line.toString().getBytes(StandardCharsets.UTF_8);
+            if (this.bytes > 0 && this.bytes + _bytes.length > this.maxBytes) {
+                this.rotate();
+            }
+            this.out.write(_bytes);
+            this.bytes += _bytes.length;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            this.out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.out.close();
+        }
+
+        private void open() throws IOException {
+            Path _parent = this.file.toAbsolutePath().getParent();
+            if (_parent != null) {
+                Files.createDirectories(_parent);
+            }
+            this.out = new BufferedOutputStream(Files.newOutputStream(this.file, StandardOpenOption.CREATE, StandardOpenOption.APPEND), 65536);
+            this.bytes = Files.size(this.file);
+        }
+
+        private void rotate() throws IOException {
+            this.out.close();
+            if (this.maxFiles > 0) {
+                Files.deleteIfExists(this.rotated(this.maxFiles));
+                for (int i = this.maxFiles - 1; i >= 1; i--) {
+                    if (Files.exists(this.rotated(i))) {
+                        Files.move(this.rotated(i), this.rotated(i + 1), StandardCopyOption.REPLACE_EXISTING);
+                    }
+                }
+                Files.move(this.file, this.rotated(1), StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                Files.delete(this.file);
+            }
+            this.open();
+        }
+
+        private Path rotated(int index) {
+            return this.file.resolveSibling(this.file.getFileName() + "." + index);
+        }
+
+        private static void appendString(StringBuilder sb, String value) {
+            sb.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char _c = value.charAt(i);
+                switch (_c) {
+                    case '"': sb.append("\\\""); break;
+                    case '\\': sb.append("\\\\"); break;
+                    case '\n': sb.append("\\n"); break;
+                    case '\r': sb.append("\\r"); break;
+                    case '\t': sb.append("\\t"); break;
+                    default:
+                        if (_c < 0x20) {
+                            sb.append(String.format("\\u%04x", (int) _c));
+                        } else {
+                            sb.append(_c);
+                        }
+                }
+            }
+            sb.append('"');
+        }
+
+    }
+
+    private final Event[] slots;
+    private final int mask;
+    private final Event discarded = new Event(null);
+    private final AtomicLong claimed = new AtomicLong();
+    private volatile long consumed = 0L;
+    private final LongAdder dropped = new LongAdder();
+    private final List<Sink> sinks = new ArrayList<>();
+    private final Thread writer;
+    private volatile boolean running = true;
+    private volatile boolean idle = false;
+    private final EventLog root;
+    private final String tagKey;
+    private final Object tagValue;
+    private final String tagPrefix;
+
+    /**
+     * @param capacity the number of events the ring buffer can hold (rounded up to a power of two)
+     */
+    public EventLog(int capacity, List<Sink> sinks) {
+        int _capacity = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.slots = new Event[_capacity];
+        for (int i = 0; i < _capacity; i++) {
+            this.slots[i] = new Event(this);
+        }
+        this.mask = _capacity - 1;
+        this.sinks.addAll(sinks);
+        this.writer = new Thread(this::drain, "event-log");
+        this.writer.setDaemon(true);
+        this.root = this;
+        this.tagKey = null;
+        this.tagValue = null;
+        this.tagPrefix = null;
+        this.writer.start();
+    }
+
+    private EventLog(EventLog root, String key, Object value) {
+        this.slots = null;
+        this.mask = 0;
+        this.writer = null;
+        this.root = root;
+        this.tagKey = key;
+        this.tagValue = value;
+        this.tagPrefix = "[" + value + "] ";
+    }
+
+    /**
+     * @return a view of this log adding the field to all its events (the view does not need to be stopped)
+     */
+    public EventLog tagged(String key, Object value) {
+        return new EventLog(this.root, key, value);
+    }
+
+    /**
+     * Claims the next slot of the ring buffer : the returned event must be published once filled.
+     * @param template the human-readable form of the event, or null for structured sinks only
+     */
+    public Event event(String type, String template) {
+        if (this.root != this) {
+            return this.root.event(type, template == null ? null : this.tagPrefix + template).with(this.tagKey, this.tagValue);
+        }
+        long _sequence;
+        do {
+            _sequence = this.claimed.get();
+            if (!this.running || _sequence - this.consumed >= this.slots.length) {
+                this.dropped.increment();
+                return this.discarded;
+            }
+        } while (!this.claimed.compareAndSet(_sequence, _sequence + 1));
+        Event ret = this.slots[(int) (_sequence & this.mask)];
+        ret.claim(_sequence, type, template);
+        return ret;
+    }
+
+    public long getDropped() {
+        return this.root.dropped.sum();
+    }
+
+    /**
+     * Writes all the published events, then closes the sinks
+     */
+    public void stop() {
+        if (this.root != this) {
+            return;
+        }
+        this.running = false;
+        LockSupport.unpark(this.writer);
+        try {
+            this.writer.join(5000L);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drain() {
+        long _next = 0L;
+        long _reportedDrops = 0L;
+        long _waitingSince = -1L;
+        while (true) {
+            int _slot = (int) (_next & this.mask);
+            Event _event = this.slots[_slot];
+            if (_event.published == _next) {
+                for (Sink _sink : this.sinks) {
+                    try {
+                        _sink.write(_event);
+                    } catch (Exception ex) {
+                        System.out.println("WARNING: Event log sink failed : " + ex.getMessage());
+                    }
+                }
+                _event.clear();
+                _waitingSince = -1L;
+                this.consumed = ++_next;
+                continue;
+            }
+            if (_next < this.claimed.get()) {
+                // Claimed, but not published yet
+                long _now = System.nanoTime();
+                if (_waitingSince < 0) {
+                    _waitingSince = _now;
+                } else if (_now - _waitingSince > ABANDONED_NANOS) {
+                    // Never published : the slot gets a fresh event, so that a late publication cannot corrupt the next event claimed there
+                    this.slots[_slot] = new Event(this);
+                    this.dropped.increment();
+                    _waitingSince = -1L;
+                    this.consumed = ++_next;
+                    continue;
+                }
+            }
+            for (Sink _sink : this.sinks) {
+                try {
+                    _sink.flush();
+                } catch (Exception ex) {
+                    System.out.println("WARNING: Event log sink failed : " + ex.getMessage());
+                }
+            }
+            long _drops = this.dropped.sum();
+            if (_drops > _reportedDrops && this.running) {
+                System.out.println("WARNING: " + (_drops - _reportedDrops) + " event(s) dropped : the event log could not keep up (or they were never published).");
+                _reportedDrops = _drops;
+            }
+            if (!this.running && _next == this.claimed.get()) {
+                break;
+            }
+            this.idle = true;
+            if (this.slots[(int) (_next & this.mask)].published != _next) {
+                LockSupport.parkNanos(IDLE_NANOS);
+            }
+            this.idle = false;
+        }
+        for (Sink _sink : this.sinks) {
+            try {
+                _sink.close();
+            } catch (Exception ex) {
+                System.out.println("WARNING: Event log sink failed : " + ex.getMessage());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,172 @@
+package libs;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Bounds the number of asynchronous requests in flight at any time.
+ * Requests beyond the limit are queued and started as soon as a running one completes : no thread is ever blocked waiting for a slot.
+ * Several lanes may share the same slots (see {@link #newLane()}) : their queued requests are then started in turn, one lane after the other,
+ * so that a lane with thousands of queued requests never delays the few requests of another one.
+ * Queued requests are started by a single draining thread at a time, in a loop : a request completing synchronously (e.g. failing at once)
+ * does not start the next one from its own completion, so that the stack never grows with the number of queued requests.
+ * Queued requests of a cancelled scope (see {@link CancellationScope}) are failed without ever taking a slot.
+ */
+public class InFlightLimiter {
+
+    /**
+     * The slots shared by all the lanes of a limiter
+     */
+    private static final class Slots {
+
+        private final int maxInFlight;
+        private final AtomicInteger inFlight = new AtomicInteger(0);
+        private final List<InFlightLimiter> lanes = new CopyOnWriteArrayList<>();
+        private final AtomicInteger nextLane = new AtomicInteger(0);
+        private final AtomicInteger drainRequests = new AtomicInteger(0);
+
+        private Slots(int maxInFlight) {
+            this.maxInFlight = maxInFlight;
+        }
+
+    }
+
+    /**
+     * A queued request, and how to fail it if its scope is cancelled before it starts
+     */
+    private static final class Queued {
+
+        private final CancellationScope scope;
+        private final Runnable start;
+        private final Runnable cancel;
+
+        private Queued(CancellationScope scope, Runnable start, Runnable cancel) {
+            this.scope = scope;
+            this.start = start;
+            this.cancel = cancel;
+        }
+
+        private boolean isCancelled() {
+            return this.scope != null && this.scope.isCancelled();
+        }
+
+    }
+
+    private final Slots slots;
+    private final Queue<Queued> pending = new ConcurrentLinkedQueue<>();
+
+    public InFlightLimiter(int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("!!! ERROR !!! The maximum number of in-flight requests must be greater or equal to 1.");
+        }
+        this.slots = new Slots(maxInFlight);
+        this.slots.lanes.add(this);
+    }
+
+    private InFlightLimiter(Slots slots) {
+        this.slots = slots;
+        this.slots.lanes.add(this);
+    }
+
+    /**
+     * @return a new lane sharing the slots of this limiter
+     */
+    public InFlightLimiter newLane() {
+        return new InFlightLimiter(this.slots);
+    }
+
+    public <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> request) {
+        CompletableFuture<T> ret = new CompletableFuture<>();
+        // Queued requests may be started by any thread : they are sent within the cancellation scope they were submitted from
+        CancellationScope _scope = CancellationScope.current();
+        this.pending.add(new Queued(_scope, () -> {
+            CompletableFuture<T> _future;
+            try {
+                _future = CancellationScope.call(_scope, request);
+            } catch (Throwable t) {
+                _future = CompletableFuture.failedFuture(t);
+            }
+            _future.whenComplete((_value, _ex) -> {
+                // Release the slot first so that dependent stages can immediately reuse it
+                this.slots.inFlight.decrementAndGet();
+                if (_ex != null) {
+                    ret.completeExceptionally(_ex);
+                } else {
+                    ret.complete(_value);
+                }
+                this.drain();
+            });
+        }, () -> _scope.run(() -> ret.completeExceptionally(new CancellationException("Queued request cancelled")))));
+        this.drain();
+        return ret;
+    }
+
+    /**
+     * @return the number of requests in flight, over all lanes
+     */
+    public int getInFlight() {
+        return this.slots.inFlight.get();
+    }
+
+    private void drain() {
+        // Only the first caller drains : the others (including re-entrant calls) just ask it for another pass
+        if (this.slots.drainRequests.getAndIncrement() != 0) {
+            return;
+        }
+        int _requests = 1;
+        do {
+            this.startPending();
+            _requests = this.slots.drainRequests.addAndGet(-_requests);
+        } while (_requests != 0);
+    }
+
+    /**
+     * Starts queued requests while there are free slots, and fails the cancelled ones on the way.
+     * Only called by the draining thread, the only one taking slots and removing queued requests.
+     */
+    private void startPending() {
+        while (true) {
+            InFlightLimiter _lane = this.nextLane();
+            if (_lane == null) {
+                return;
+            }
+            Queued _next = _lane.pending.peek();
+            if (_next.isCancelled()) {
+                _lane.pending.poll();
+                _next.cancel.run();
+            } else if (this.slots.inFlight.get() < this.slots.maxInFlight) {
+                _lane.pending.poll();
+                this.slots.inFlight.incrementAndGet();
+                _next.start.run();
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the next lane with queued requests, the lanes being taken in turn, or null
+     */
+    private InFlightLimiter nextLane() {
+        List<InFlightLimiter> _lanes = this.slots.lanes;
+        int _size = _lanes.size();
+        if (_size == 1) {
+            return _lanes.get(0).pending.isEmpty() ? null : _lanes.get(0);
+        }
+        int _first = Math.floorMod(this.slots.nextLane.getAndIncrement(), _size);
+        for (int i = 0; i < _size; i++) {
+            InFlightLimiter ret = _lanes.get((_first + i) % _size);
+            if (!ret.pending.isEmpty()) {
+                return ret;
+            }
+        }
+        return null;
+    }
+
+}
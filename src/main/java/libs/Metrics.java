@@ -0,0 +1,227 @@
+package libs;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Lightweight metrics registry, exposed in the Prometheus text format by an embedded HTTP server.
+ * Counters and histograms are lock-free adders : once registered, updating them does not allocate.
+ * Gauges are either set by the application, or computed only when the endpoint is scraped.
+ * Metrics should be registered once and their handles kept : looking them up again does not allocate either, but costs two map lookups.
+ */
+public class Metrics {
+
+    /**
+     * Latency buckets (in seconds), from 5ms to 60s
+     */
+    public static final double[] LATENCY_BUCKETS = { 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60 };
+
+    public static final class Counter {
+
+        private final DoubleAdder value = new DoubleAdder();
+
+        public void inc() {
+            this.value.add(1d);
+        }
+
+        public void add(double amount) {
+            this.value.add(amount);
+        }
+
+    }
+
+    public static final class Gauge {
+
+        private final AtomicLong bits = new AtomicLong(Double.doubleToRawLongBits(0d));
+
+        public void set(double value) {
+            this.bits.set(Double.doubleToRawLongBits(value));
+        }
+
+        public double get() {
+            return Double.longBitsToDouble(this.bits.get());
+        }
+
+    }
+
+    public static final class Histogram {
+
+        private final double[] bounds;
+        private final LongAdder[] buckets;
+        private final DoubleAdder sum = new DoubleAdder();
+        private final LongAdder count = new LongAdder();
+
+        private Histogram(double[] bounds) {
+            this.bounds = bounds;
+            this.buckets = new LongAdder[bounds.length];
+            for (int i = 0; i < bounds.length; i++) {
+                this.buckets[i] = new LongAdder();
+            }
+        }
+
+        public void observe(double value) {
+            for (int i = 0; i < this.bounds.length; i++) {
+                if (value <= this.bounds[i]) {
+                    this.buckets[i].increment();
+                    break;
+                }
+            }
+            this.sum.add(value);
+            this.count.increment();
+        }
+
+        public void observeNanos(long nanos) {
+            this.observe(nanos / 1e9);
+        }
+
+    }
+
+    private enum Type {
+        COUNTER, GAUGE, HISTOGRAM
+    }
+
+    private static final class Family {
+
+        private final String name;
+        private final String help;
+        private final Type type;
+        private final String labelName;
+        private final ConcurrentMap<String, Object> metrics = new ConcurrentHashMap<>();
+
+        private Family(String name, String help, Type type, String labelName) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.labelName = labelName;
+        }
+
+    }
+
+    private final ConcurrentMap<String, Family> families = new ConcurrentHashMap<>();
+    private HttpServer server;
+
+    public Counter counter(String name, String help) {
+        return this.counter(name, help, null, "");
+    }
+
+    public Counter counter(String name, String help, String labelName, String labelValue) {
+        Family _family = this.family(name, help, Type.COUNTER, labelName);
+        Object ret = _family.metrics.get(labelValue);
+        return (Counter) (ret != null ? ret : _family.metrics.computeIfAbsent(labelValue, _v -> new Counter()));
+    }
+
+    public Histogram histogram(String name, String help, double[] bounds) {
+        return this.histogram(name, help, bounds, null, "");
+    }
+
+    public Histogram histogram(String name, String help, double[] bounds, String labelName, String labelValue) {
+        Family _family = this.family(name, help, Type.HISTOGRAM, labelName);
+        Object ret = _family.metrics.get(labelValue);
+        return (Histogram) (ret != null ? ret : _family.metrics.computeIfAbsent(labelValue, _v -> new Histogram(bounds)));
+    }
+
+    public Gauge gauge(String name, String help, String labelName, String labelValue) {
+        Family _family = this.family(name, help, Type.GAUGE, labelName);
+        Object ret = _family.metrics.get(labelValue);
+        return (Gauge) (ret != null ? ret : _family.metrics.computeIfAbsent(labelValue, _v -> new Gauge()));
+    }
+
+    /**
+     * Registers a gauge computed when the endpoint is scraped
+     */
+    public void gauge(String name, String help, String labelName, String labelValue, DoubleSupplier value) {
+        this.family(name, help, Type.GAUGE, labelName).metrics.put(labelValue, value);
+    }
+
+    public void start(String host, int port) throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress(host, port), 0);
+        this.server.setExecutor(Executors.newSingleThreadExecutor(_r -> {
+            Thread _t = new Thread(_r, "metrics-http");
+            _t.setDaemon(true);
+            return _t;
+        }));
+        this.server.createContext("/metrics", _exchange -> {
+            byte[] _body = this.scrape().getBytes(StandardCharsets.UTF_8);
+            _exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            _exchange.sendResponseHeaders(200, _body.length);
+            try (OutputStream _out = _exchange.getResponseBody()) {
+                _out.write(_body);
+            }
+        });
+        this.server.start();
+    }
+
+    public void stop() {
+        if (this.server != null) {
+            this.server.stop(0);
+        }
+    }
+
+    public String scrape() {
+        StringBuilder ret = new StringBuilder();
+        this.families.values().stream().sorted((_a, _b) -> _a.name.compareTo(_b.name)).forEach(_family -> {
+            ret.append("# HELP ").append(_family.name).append(' ').append(_family.help).append('\n');
+            ret.append("# TYPE ").append(_family.name).append(' ').append(_family.type.name().toLowerCase()).append('\n');
+            _family.metrics.forEach((_labelValue, _metric) -> {
+                if (_metric instanceof Counter) {
+                    sample(ret, _family.name, label(_family.labelName, _labelValue), ((Counter) _metric).value.sum());
+                } else if (_metric instanceof Histogram) {
+                    Histogram _h = (Histogram) _metric;
+                    String _label = label(_family.labelName, _labelValue);
+                    String _prefix = _label.isEmpty() ? "" : _label + ",";
+                    long _cumulated = 0L;
+                    for (int i = 0; i < _h.bounds.length; i++) {
+                        _cumulated += _h.buckets[i].sum();
+                        sample(ret, _family.name + "_bucket", _prefix + "le=\"" + _h.bounds[i] + "\"", _cumulated);
+                    }
+                    sample(ret, _family.name + "_bucket", _prefix + "le=\"+Inf\"", _h.count.sum());
+                    sample(ret, _family.name + "_sum", _label, _h.sum.sum());
+                    sample(ret, _family.name + "_count", _label, _h.count.sum());
+                } else if (_metric instanceof Gauge) {
+                    sample(ret, _family.name, label(_family.labelName, _labelValue), ((Gauge) _metric).get());
+                } else if (_metric instanceof DoubleSupplier) {
+                    sample(ret, _family.name, label(_family.labelName, _labelValue), ((DoubleSupplier) _metric).getAsDouble());
+                }
+            });
+        });
+        return ret.toString();
+    }
+
+    private Family family(String name, String help, Type type, String labelName) {
+        Family ret = this.families.get(name);
+        if (ret == null) {
+            ret = this.families.computeIfAbsent(name, _n -> new Family(name, help, type, labelName));
+        }
+        if (ret.type != type) {
+            throw new IllegalArgumentException("!!! ERROR !!! Metric '" + name + "' is already registered as a " + ret.type.name().toLowerCase() + ".");
+        }
+        return ret;
+    }
+
+    private static String label(String labelName, String labelValue) {
+        if (labelName == null) {
+            return "";
+        }
+        return labelName + "=\"" + labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"";
+    }
+
+    private static void sample(StringBuilder sb, String name, String labels, double value) {
+        sb.append(name);
+        if (!labels.isEmpty()) {
+            sb.append('{').append(labels).append('}');
+        }
+        sb.append(' ').append(value).append('\n');
+    }
+
+}
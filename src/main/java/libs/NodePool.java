@@ -0,0 +1,407 @@
+package libs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Routes requests over several node endpoints.
+ * Reads go to the healthy endpoint with the lowest latency (EWMA), and are hedged on the next best endpoint when they take longer than
+ * the 95th percentile latency of the first one : the first answer wins, and the other attempt is cancelled. A read failing because of the node itself is immediately retried on the next endpoint.
+ * Endpoints failing several times in a row are ejected, then probed periodically (with exponential backoff) until they answer again.
+ * Broadcasts go through a pin : all the transactions of a sequence window are sent to the same endpoint.
+ * The pool is generic on the client type, so that it does not depend on how endpoints are actually reached.
+ * Every request is named after the client method it calls, and reported to the request observer once completed (unless cancelled).
+ * An interceptor may stand in front of all reads and broadcasts, to record them or to answer them without any node.
+ * Requests sent from within a cancellation scope (by the thread running it, or by dependent stages of its requests) belong to it :
+ * cancelling the scope cancels them, and the requests it sends afterwards fail straight away. Requests sent from anywhere else are left alone.
+ */
+public class NodePool<C> {
+
+    private static final double SMOOTHING = 0.2;
+    private static final int LATENCY_WINDOW = 100;
+    private static final int MIN_HEDGE_SAMPLES = 20;
+    private static final long MIN_HEDGE_DELAY_MS = 20L;
+    private static final long DEFAULT_HEDGE_DELAY_MS = 2000L;
+    private static final int MAX_CONSECUTIVE_FAILURES = 3;
+    private static final long MIN_EJECTION_MS = 5000L;
+    private static final long MAX_EJECTION_MS = 120000L;
+    private static final long PROBE_PERIOD_MS = 1000L;
+    private static final String PROBE = "probe";
+
+    /**
+     * Notified of every completed request (including hedged ones and probes), from the completing thread
+     */
+    @FunctionalInterface
+    public interface RequestObserver {
+
+        void onRequest(String endpoint, String method, long latencyNanos, Throwable error);
+
+    }
+
+    /**
+     * Sees every read and broadcast (not the probes) before it is routed : it may answer it itself, or proceed with the call and observe its outcome
+     */
+    public interface Interceptor {
+
+        /**
+         * @param request supplies the request message, only built when needed
+         * @param call routes the request to the nodes
+         */
+        <T> CompletableFuture<T> intercept(String method, Supplier<?> request, Supplier<CompletableFuture<T>> call);
+
+    }
+
+    public static final class Endpoint<C> {
+
+        private final String name;
+        private final C client;
+        private final long[] latencies = new long[LATENCY_WINDOW];
+        private int latencyCount = 0;
+        private double ewmaMs = Double.NaN;
+        private int consecutiveFailures = 0;
+        private int ejections = 0;
+        private long ejectedUntil = 0L;
+        private boolean probing = false;
+
+        private Endpoint(String name, C client) {
+            this.name = name;
+            this.client = client;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public C getClient() {
+            return client;
+        }
+
+        public synchronized double getLatencyMs() {
+            return Double.isNaN(this.ewmaMs) ? 0d : this.ewmaMs;
+        }
+
+        public synchronized boolean isHealthy() {
+            return this.ejectedUntil == 0L;
+        }
+
+        private synchronized void recordSuccess(long latencyMs) {
+            this.ewmaMs = Double.isNaN(this.ewmaMs) ? latencyMs : SMOOTHING * latencyMs + (1 - SMOOTHING) * this.ewmaMs;
+            this.latencies[this.latencyCount++ % LATENCY_WINDOW] = latencyMs;
+            this.consecutiveFailures = 0;
+        }
+
+        /**
+         * @return true if the endpoint was just ejected
+         */
+        private synchronized boolean recordFailure() {
+            if (++this.consecutiveFailures < MAX_CONSECUTIVE_FAILURES || this.ejectedUntil > 0) {
+                return false;
+            }
+            this.eject();
+            return true;
+        }
+
+        private synchronized void eject() {
+            this.ejectedUntil = System.currentTimeMillis() + Math.min(MIN_EJECTION_MS << Math.min(this.ejections, 10), MAX_EJECTION_MS);
+            this.ejections++;
+        }
+
+        private synchronized void reinstate() {
+            this.ejectedUntil = 0L;
+            this.ejections = 0;
+            this.consecutiveFailures = 0;
+        }
+
+        private synchronized long getHedgeDelayMs() {
+            int _count = Math.min(this.latencyCount, LATENCY_WINDOW);
+            if (_count < MIN_HEDGE_SAMPLES) {
+                return DEFAULT_HEDGE_DELAY_MS;
+            }
+            long[] _sorted = Arrays.copyOf(this.latencies, _count);
+            Arrays.sort(_sorted);
+            return Math.max(MIN_HEDGE_DELAY_MS, _sorted[(int) Math.ceil(0.95 * _count) - 1]);
+        }
+
+    }
+
+    /**
+     * All requests of a pin are sent to the same endpoint, without hedging nor failover
+     */
+    public static final class Pin<C> {
+
+        private final NodePool<C> pool;
+        private final Endpoint<C> endpoint;
+
+        private Pin(NodePool<C> pool, Endpoint<C> endpoint) {
+            this.pool = pool;
+            this.endpoint = endpoint;
+        }
+
+        public String getName() {
+            return this.endpoint.getName();
+        }
+
+        /**
+         * @param request supplies the request message (for the interceptor)
+         */
+        public <T> CompletableFuture<T> submit(String method, Supplier<?> request, Function<C, CompletableFuture<T>> call) {
+            Interceptor _interceptor = this.pool.interceptor;
+            CancellationScope _scope = CancellationScope.current();
+            return this.pool.track(_scope, _interceptor == null ?
+                    this.pool.submit(_scope, this.endpoint, method, call) :
+                    _interceptor.intercept(method, request, () -> this.pool.submit(_scope, this.endpoint, method, call)));
+        }
+
+    }
+
+    private final List<Endpoint<C>> endpoints = new ArrayList<>();
+    private final Predicate<Throwable> nodeFailure;
+    private final Function<C, CompletableFuture<?>> probe;
+    private volatile RequestObserver observer = (_endpoint, _method, _latencyNanos, _error) -> { };
+    private volatile Interceptor interceptor = null;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(_r -> {
+        Thread _t = new Thread(_r, "node-pool");
+        _t.setDaemon(true);
+        return _t;
+    });
+
+    /**
+     * @param nodeFailure tells whether an error is caused by the node itself (unreachable, overloaded...) rather than by the request
+     * @param probe a cheap request used to check whether an ejected endpoint answers again
+     */
+    public NodePool(List<String> names, List<C> clients, Predicate<Throwable> nodeFailure, Function<C, CompletableFuture<?>> probe) {
+        if (names.isEmpty() || names.size() != clients.size()) {
+            throw new IllegalArgumentException("!!! ERROR !!! At least one node endpoint is required.");
+        }
+        for (int i = 0; i < names.size(); i++) {
+            this.endpoints.add(new Endpoint<>(names.get(i), clients.get(i)));
+        }
+        this.nodeFailure = nodeFailure;
+        this.probe = probe;
+        this.scheduler.scheduleWithFixedDelay(this::probeEjected, PROBE_PERIOD_MS, PROBE_PERIOD_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public void setObserver(RequestObserver observer) {
+        this.observer = observer;
+    }
+
+    public void setInterceptor(Interceptor interceptor) {
+        this.interceptor = interceptor;
+    }
+
+    public List<Endpoint<C>> getEndpoints() {
+        return this.endpoints;
+    }
+
+    public void stop() {
+        this.scheduler.shutdownNow();
+    }
+
+    /**
+     * Probes all endpoints once, and ejects the ones that do not answer
+     * @return the number of healthy endpoints
+     */
+    public CompletableFuture<Integer> probeAll() {
+        List<CompletableFuture<Boolean>> _probes = new ArrayList<>();
+        this.endpoints.forEach(_endpoint -> _probes.add(this.submit(null, _endpoint, PROBE, _c -> this.probe.apply(_c).thenApply(_v -> true)).handle((_v, _ex) -> {
+            if (_ex != null) {
+                _endpoint.eject();
+                System.out.println("WARNING: Node '" + _endpoint.getName() + "' does not answer : " + _ex.getMessage());
+            }
+            return _ex == null;
+        })));
+        return CompletableFuture.allOf(_probes.toArray(new CompletableFuture[0]))
+                .thenApply(_v -> (int) _probes.stream().filter(CompletableFuture::join).count());
+    }
+
+    /**
+     * Sends a read request to the best endpoint, hedged on the next best one if it is slow
+     * @param request supplies the request message (for the interceptor)
+     */
+    public <T> CompletableFuture<T> read(String method, Supplier<?> request, Function<C, CompletableFuture<T>> call) {
+        Interceptor _interceptor = this.interceptor;
+        CancellationScope _scope = CancellationScope.current();
+        return this.track(_scope, _interceptor == null ? this.route(_scope, method, call) : _interceptor.intercept(method, request, () -> this.route(_scope, method, call)));
+    }
+
+    /**
+     * @return a future completed within the scope (so that its dependent stages belong to the scope as well), or the future itself without scope
+     */
+    private <T> CompletableFuture<T> track(CancellationScope scope, CompletableFuture<T> future) {
+        if (scope == null) {
+            return future;
+        }
+        // Only the client futures are registered (see submit) : cancelling them completes this one
+        CompletableFuture<T> ret = new CompletableFuture<>();
+        future.whenComplete((_value, _ex) -> scope.run(() -> {
+            if (_ex == null) {
+                ret.complete(_value);
+            } else {
+                ret.completeExceptionally(_ex);
+            }
+        }));
+        ret.whenComplete((_value, _ex) -> {
+            if (ret.isCancelled()) {
+                future.cancel(true);
+            }
+        });
+        return ret;
+    }
+
+    private <T> CompletableFuture<T> route(CancellationScope scope, String method, Function<C, CompletableFuture<T>> request) {
+        List<Endpoint<C>> _ranked = this.rank();
+        CompletableFuture<T> ret = new CompletableFuture<>();
+        int[] _next = { 0 };
+        int[] _outstanding = { 0 };
+        List<CompletableFuture<T>> _attempts = new ArrayList<>();
+        Runnable[] _start = new Runnable[1];
+        _start[0] = () -> {
+            Endpoint<C> _endpoint = _ranked.get(_next[0]++);
+            _outstanding[0]++;
+            CompletableFuture<T> _attempt = this.submit(scope, _endpoint, method, request);
+            _attempts.add(_attempt);
+            _attempt.whenComplete((_value, _ex) -> {
+                synchronized (ret) {
+                    _outstanding[0]--;
+                    if (_ex == null) {
+                        ret.complete(_value);
+                    } else if (!ret.isDone()) {
+                        if (CancellationScope.isCancellation(_ex)) {
+                            ret.completeExceptionally(_ex);
+                        } else if (this.nodeFailure.test(_ex) && _next[0] < _ranked.size()) {
+                            // Failover : the next endpoint is tried straight away
+                            _start[0].run();
+                        } else if (!this.nodeFailure.test(_ex) || _outstanding[0] == 0) {
+                            ret.completeExceptionally(_ex);
+                        }
+                    }
+                }
+            });
+        };
+        synchronized (ret) {
+            _start[0].run();
+        }
+        // The first answer wins : the other attempts still running are cancelled, so that they stop loading slow nodes
+        ret.whenComplete((_value, _ex) -> {
+            List<CompletableFuture<T>> _others;
+            synchronized (ret) {
+                _others = new ArrayList<>(_attempts);
+            }
+            _others.forEach(_attempt -> _attempt.cancel(true));
+        });
+        if (_ranked.size() > 1 && !ret.isDone()) {
+            this.scheduler.schedule(() -> {
+                synchronized (ret) {
+                    if (!ret.isDone() && _next[0] < _ranked.size()) {
+                        _start[0].run();
+                    }
+                }
+            }, _ranked.get(0).getHedgeDelayMs(), TimeUnit.MILLISECONDS);
+        }
+        return ret;
+    }
+
+    /**
+     * @return a pin on the best endpoint, for all the broadcasts of a sequence window
+     */
+    public Pin<C> pin() {
+        return new Pin<>(this, this.rank().get(0));
+    }
+
+    /**
+     * @return healthy endpoints by increasing latency, or all endpoints (soonest probed first) when none is healthy
+     */
+    private List<Endpoint<C>> rank() {
+        List<Endpoint<C>> ret = new ArrayList<>();
+        this.endpoints.stream().filter(Endpoint::isHealthy).sorted(Comparator.comparingDouble(Endpoint::getLatencyMs)).forEach(ret::add);
+        if (ret.isEmpty()) {
+            this.endpoints.stream().sorted(Comparator.comparingLong(_e -> {
+                synchronized (_e) {
+                    return _e.ejectedUntil;
+                }
+            })).forEach(ret::add);
+        }
+        return ret;
+    }
+
+    private <T> CompletableFuture<T> submit(CancellationScope scope, Endpoint<C> endpoint, String method, Function<C, CompletableFuture<T>> request) {
+        if (scope != null && scope.isCancelled()) {
+            // Neither sent nor failed over : the scope was cancelled
+            return CompletableFuture.failedFuture(new CancellationException("Request '" + method + "' cancelled"));
+        }
+        long _start = System.nanoTime();
+        CompletableFuture<T> _future;
+        try {
+            _future = request.apply(endpoint.getClient());
+        } catch (Throwable t) {
+            _future = CompletableFuture.failedFuture(t);
+        }
+        // Cancelling the client future also cancels the call, when the client supports it
+        if (scope != null) {
+            _future = scope.register(_future);
+        }
+        CompletableFuture<T> _call = _future;
+        CompletableFuture<T> ret = _future.whenComplete((_value, _ex) -> {
+            if (_ex != null && CancellationScope.isCancellation(_ex)) {
+                // Cancelled requests (e.g. losing hedges) say nothing about the latency or the health of the node
+                return;
+            }
+            long _latency = System.nanoTime() - _start;
+            this.observer.onRequest(endpoint.getName(), method, _latency, _ex);
+            if (_ex == null || !this.nodeFailure.test(_ex)) {
+                endpoint.recordSuccess(_latency / 1000000L);
+            } else if (endpoint.recordFailure()) {
+                System.out.println("WARNING: Node '" + endpoint.getName() + "' ejected after " + MAX_CONSECUTIVE_FAILURES + " consecutive failures : " + _ex.getMessage());
+            }
+        });
+        // Cancelling the returned future cancels the call as well
+        ret.whenComplete((_value, _ex) -> {
+            if (ret.isCancelled()) {
+                _call.cancel(true);
+            }
+        });
+        return ret;
+    }
+
+    private void probeEjected() {
+        long _now = System.currentTimeMillis();
+        for (Endpoint<C> _endpoint : this.endpoints) {
+            synchronized (_endpoint) {
+                if (_endpoint.ejectedUntil == 0L || _endpoint.ejectedUntil > _now || _endpoint.probing) {
+                    continue;
+                }
+                _endpoint.probing = true;
+            }
+            long _start = System.nanoTime();
+            CompletableFuture<?> _probe;
+            try {
+                _probe = this.probe.apply(_endpoint.getClient());
+            } catch (Throwable t) {
+                _probe = CompletableFuture.failedFuture(t);
+            }
+            _probe.whenComplete((_v, _ex) -> this.observer.onRequest(_endpoint.getName(), PROBE, System.nanoTime() - _start, _ex));
+            _probe.whenComplete((_v, _ex) -> {
+                synchronized (_endpoint) {
+                    _endpoint.probing = false;
+                    if (_ex == null) {
+                        _endpoint.reinstate();
+                        System.out.println("NOTICE: Node '" + _endpoint.getName() + "' answers again : back in the pool.");
+                    } else {
+                        _endpoint.eject();
+                    }
+                }
+            });
+        }
+    }
+
+}
@@ -0,0 +1,59 @@
+package libs;
+
+import cosmos.tx.v1beta1.TxOuterClass;
+import org.bitcoinj.core.ECKey;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Signs all the SignDocs of a multi-signer transaction in parallel, on a dedicated pool of daemon threads.
+ */
+public class SigningService {
+
+    private static SigningService instance = null;
+
+    private final ExecutorService executor;
+
+    private SigningService(int threads) {
+        AtomicInteger _count = new AtomicInteger(0);
+        this.executor = Executors.newFixedThreadPool(threads, _r -> {
+            Thread _t = new Thread(_r, "signer-" + _count.incrementAndGet());
+            _t.setDaemon(true);
+            return _t;
+        });
+    }
+
+    public static synchronized SigningService getInstance() {
+        if (instance == null) {
+            instance = new SigningService(Runtime.getRuntime().availableProcessors());
+        }
+        return instance;
+    }
+
+    /**
+     * @return the compact signatures, in the same order as the provided SignDocs and keys
+     */
+    public List<byte[]> signAll(List<TxOuterClass.SignDoc> signDocs, List<ECKey> keys) {
+        if (signDocs.size() != keys.size()) {
+            throw new IllegalArgumentException("!!! ERROR !!! Each SignDoc requires exactly one signing key.");
+        }
+        if (signDocs.size() == 1) {
+            return List.of(CryptoUtils.signTransaction(signDocs.get(0), keys.get(0)));
+        }
+        List<CompletableFuture<byte[]>> _signatures = new ArrayList<>(signDocs.size());
+        for (int i = 0; i < signDocs.size(); i++) {
+            TxOuterClass.SignDoc _signDoc = signDocs.get(i);
+            ECKey _key = keys.get(i);
+            _signatures.add(CompletableFuture.supplyAsync(() -> CryptoUtils.signTransaction(_signDoc, _key), this.executor));
+        }
+        List<byte[]> ret = new ArrayList<>(_signatures.size());
+        _signatures.forEach(_s -> ret.add(_s.join()));
+        return ret;
+    }
+
+}
@@ -0,0 +1,113 @@
+package utils;
+
+import eu.frenchxcore.api.CosmosGrpcApi;
+import libs.InFlightLimiter;
+import libs.NodePool;
+
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Caches the account number and sequence of each FX delegator address.
+ * Account numbers never change, and sequences are tracked locally : they are incremented after each successful broadcast,
+ * and only fetched again from the node when a sequence mismatch is reported.
+ */
+public class AccountMetadataCache {
+
+    /**
+     * Cosmos SDK 'ErrWrongSequence' error code
+     */
+    public static final int ERR_WRONG_SEQUENCE = 32;
+
+    private static final Pattern SEQUENCE_MISMATCH = Pattern.compile("account sequence mismatch, expected (\\d+), got (\\d+)");
+
+    private final NodePool<CosmosGrpcApi> nodes;
+    private final InFlightLimiter limiter;
+    private final ConcurrentMap<String/*fx*/, CompletableFuture<Metadata>> metadata = new ConcurrentHashMap<>();
+
+    public static final class Metadata {
+
+        private final long accountNumber;
+        private final AtomicLong sequence;
+
+        public Metadata(long accountNumber, long sequence) {
+            this.accountNumber = accountNumber;
+            this.sequence = new AtomicLong(sequence);
+        }
+
+        public long getAccountNumber() {
+            return accountNumber;
+        }
+
+        public long getSequence() {
+            return sequence.get();
+        }
+
+    }
+
+    public AccountMetadataCache(NodePool<CosmosGrpcApi> nodes, InFlightLimiter limiter) {
+        this.nodes = nodes;
+        this.limiter = limiter;
+    }
+
+    public CompletableFuture<Metadata> get(String fxDelegatorAddress) {
+        CompletableFuture<Metadata> ret = this.metadata.computeIfAbsent(fxDelegatorAddress, this::fetch);
+        // Failed queries must not stay in cache
+        ret.whenComplete((_m, _ex) -> {
+            if (_ex != null) {
+                this.metadata.remove(fxDelegatorAddress, ret);
+            }
+        });
+        return ret;
+    }
+
+    /**
+     * To be called once a transaction signed by this account has been accepted by the node
+     */
+    public void incrementSequence(String fxDelegatorAddress) {
+        CompletableFuture<Metadata> _m = this.metadata.get(fxDelegatorAddress);
+        if (_m != null && _m.isDone() && !_m.isCompletedExceptionally()) {
+            _m.join().sequence.incrementAndGet();
+        }
+    }
+
+    /**
+     * To be called when the node rejected a transaction because of a sequence mismatch.
+     * With a single signer, the expected sequence reported by the node is used straight away; otherwise sequences will be fetched again.
+     */
+    public void resynchronize(Collection<String> fxDelegatorAddresses, String rawLog) {
+        Matcher _matcher = SEQUENCE_MISMATCH.matcher(rawLog == null ? "" : rawLog);
+        if (fxDelegatorAddresses.size() == 1 && _matcher.find()) {
+            String _address = fxDelegatorAddresses.iterator().next();
+            CompletableFuture<Metadata> _m = this.metadata.get(_address);
+            if (_m != null && _m.isDone() && !_m.isCompletedExceptionally()) {
+                _m.join().sequence.set(Long.parseLong(_matcher.group(1)));
+                return;
+            }
+        }
+        fxDelegatorAddresses.forEach(this.metadata::remove);
+    }
+
+    private CompletableFuture<Metadata> fetch(String fxDelegatorAddress) {
+        return this.limiter.submit(() -> this.nodes.read("authQueryAccount",
+                () -> cosmos.auth.v1beta1.QueryOuterClass.QueryAccountRequest.newBuilder().setAddress(fxDelegatorAddress).build(),
+                _c -> _c.authQueryAccount(fxDelegatorAddress)))
+                .thenApply(_accountResponse -> {
+                    if (!_accountResponse.getAccount().is(cosmos.auth.v1beta1.Auth.BaseAccount.class)) {
+                        throw new IllegalArgumentException("!!! ERROR !!! Account '" + fxDelegatorAddress + "' is not a base account.");
+                    }
+                    try {
+                        cosmos.auth.v1beta1.Auth.BaseAccount _baseAccount = _accountResponse.getAccount().unpack(cosmos.auth.v1beta1.Auth.BaseAccount.class);
+                        return new Metadata(_baseAccount.getAccountNumber(), _baseAccount.getSequence());
+                    } catch (Exception ex) {
+                        throw new IllegalArgumentException("!!! ERROR !!! Account '" + fxDelegatorAddress + "' could not be decoded.", ex);
+                    }
+                });
+    }
+
+}
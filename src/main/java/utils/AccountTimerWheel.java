@@ -0,0 +1,118 @@
+package utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Hashed timer wheel holding the next check time of each account.
+ * Scheduling and cancelling an account are O(1), and advancing the wheel only visits the slots of the elapsed ticks :
+ * accounts falling due within the same tick are returned together, so they share the same refresh and transaction round.
+ */
+public class AccountTimerWheel {
+
+    private static final class Entry {
+
+        private final FxAccount account;
+        private final long deadlineTick;
+
+        private Entry(FxAccount account, long deadlineTick) {
+            this.account = account;
+            this.deadlineTick = deadlineTick;
+        }
+
+    }
+
+    private final long tickMs;
+    private final List<Set<Entry>> slots;
+    private final int mask;
+    private final Map<FxAccount, Entry> entries = new HashMap<>();
+    private long currentTick;
+
+    /**
+     * @param tickMs the duration of a tick
+     * @param wheelSize the number of slots (rounded up to a power of 2)
+     */
+    public AccountTimerWheel(long tickMs, int wheelSize, long nowMs) {
+        if (tickMs < 1 || wheelSize < 1) {
+            throw new IllegalArgumentException("!!! ERROR !!! The timer wheel tick and size must be greater or equal to 1.");
+        }
+        int _size = Integer.highestOneBit(wheelSize - 1 > 0 ? (wheelSize - 1) << 1 : 1);
+        this.tickMs = tickMs;
+        this.mask = _size - 1;
+        this.slots = new ArrayList<>(_size);
+        for (int i = 0; i < _size; i++) {
+            this.slots.add(new LinkedHashSet<>());
+        }
+        this.currentTick = nowMs / tickMs;
+    }
+
+    /**
+     * (Re)schedules the account : a deadline in the past makes it due on the next advance
+     */
+    public synchronized void schedule(FxAccount account, long deadlineMs) {
+        this.cancel(account);
+        Entry _entry = new Entry(account, Math.max(deadlineMs / this.tickMs, this.currentTick));
+        this.entries.put(account, _entry);
+        this.slots.get((int) (_entry.deadlineTick & this.mask)).add(_entry);
+    }
+
+    public synchronized void cancel(FxAccount account) {
+        Entry _entry = this.entries.remove(account);
+        if (_entry != null) {
+            this.slots.get((int) (_entry.deadlineTick & this.mask)).remove(_entry);
+        }
+    }
+
+    public synchronized boolean isScheduled(FxAccount account) {
+        return this.entries.containsKey(account);
+    }
+
+    /**
+     * @return true if at least one account is due at the given time, without advancing the wheel
+     */
+    public synchronized boolean hasDue(long nowMs) {
+        long _targetTick = nowMs / this.tickMs;
+        long _ticks = Math.min(_targetTick - this.currentTick + 1, this.slots.size());
+        for (long _tick = this.currentTick; _tick < this.currentTick + _ticks; _tick++) {
+            for (Entry _entry : this.slots.get((int) (_tick & this.mask))) {
+                if (_entry.deadlineTick <= _targetTick) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Advances the wheel up to the given time
+     * @return all accounts due by then, which are removed from the wheel
+     */
+    public synchronized List<FxAccount> advance(long nowMs) {
+        List<FxAccount> ret = new ArrayList<>();
+        long _targetTick = nowMs / this.tickMs;
+        if (_targetTick < this.currentTick) {
+            return ret;
+        }
+        // When more ticks than slots have elapsed, each slot is only visited once
+        long _ticks = Math.min(_targetTick - this.currentTick + 1, this.slots.size());
+        for (long _tick = this.currentTick; _tick < this.currentTick + _ticks; _tick++) {
+            Iterator<Entry> _it = this.slots.get((int) (_tick & this.mask)).iterator();
+            while (_it.hasNext()) {
+                Entry _entry = _it.next();
+                if (_entry.deadlineTick <= _targetTick) {
+                    _it.remove();
+                    this.entries.remove(_entry.account);
+                    ret.add(_entry.account);
+                }
+            }
+        }
+        this.currentTick = _targetTick + 1;
+        return ret;
+    }
+
+}
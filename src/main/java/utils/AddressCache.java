@@ -0,0 +1,114 @@
+package utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary file caching the public key hashes derived from each seedphrase, so that FX addresses can be resolved
+ * to derivation indexes without deriving any key on restart.
+ * Only public data is stored : the encrypted seedphrase fingerprint, the derivation index and the public key hash.
+ * The file is read and written in one go through heap buffers, never memory-mapped : a mapping is only released at GC,
+ * and a mapped file can neither be replaced nor renamed on Windows.
+ */
+public class AddressCache {
+
+    private static final int MAGIC = 0x46584143; // "FXAC"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12; // magic(4) + version(4) + records count(4)
+    private static final int PUBKEY_HASH_SIZE = 20;
+    private static final int RECORD_SIZE = 8 + 4 + PUBKEY_HASH_SIZE; // fingerprint(8) + index(4) + pubKeyHash(20)
+
+    private final Path path;
+    private final Map<Long/*fingerprint*/, byte[][]/*pubKeyHash by index*/> entries = new HashMap<>();
+
+    private AddressCache(Path path) {
+        this.path = path;
+    }
+
+    public static AddressCache load(Path path) {
+        AddressCache ret = new AddressCache(path);
+        if (Files.isRegularFile(path)) {
+            try {
+                ByteBuffer _buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+                if (_buffer.remaining() < HEADER_SIZE || _buffer.getInt() != MAGIC || _buffer.getInt() != VERSION) {
+                    throw new IOException("invalid header");
+                }
+                int _count = _buffer.getInt();
+                if (_buffer.remaining() != (long) _count * RECORD_SIZE) {
+                    throw new IOException("truncated file");
+                }
+                Map<Long, Map<Integer, byte[]>> _records = new HashMap<>();
+                for (int i = 0; i < _count; i++) {
+                    long _fingerprint = _buffer.getLong();
+                    int _index = _buffer.getInt();
+                    byte[] _pubKeyHash = new byte[PUBKEY_HASH_SIZE];
+                    _buffer.get(_pubKeyHash);
+                    _records.computeIfAbsent(_fingerprint, _f -> new HashMap<>()).put(_index, _pubKeyHash);
+                }
+                _records.forEach((_fingerprint, _hashes) -> {
+                    // Only keep contiguous derivation indexes, starting from 0
+                    int _size = 0;
+                    while (_hashes.containsKey(_size)) {
+                        _size++;
+                    }
+                    byte[][] _array = new byte[_size][];
+                    for (int i = 0; i < _size; i++) {
+                        _array[i] = _hashes.get(i);
+                    }
+                    ret.entries.put(_fingerprint, _array);
+                });
+            } catch (IOException ex) {
+                System.out.printf("WARNING: Address cache '%s' could not be read and will be rebuilt (%s).%n", path, ex.getMessage());
+                ret.entries.clear();
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return the public key hashes of the first 'gapLimit' derivation indexes, or null if they are not all cached
+     */
+    public byte[][] get(long fingerprint, int gapLimit) {
+        byte[][] _hashes = this.entries.get(fingerprint);
+        if (_hashes == null || _hashes.length < gapLimit) {
+            return null;
+        }
+        return _hashes;
+    }
+
+    public void put(long fingerprint, List<DerivedAddress> derivedAddresses) {
+        byte[][] _hashes = new byte[derivedAddresses.size()][];
+        derivedAddresses.forEach(_da -> _hashes[_da.getIndex()] = _da.getPubKeyHash());
+        this.entries.put(fingerprint, _hashes);
+    }
+
+    public void save() throws IOException {
+        int _count = this.entries.values().stream().mapToInt(_h -> _h.length).sum();
+        Path _tmp = this.path.resolveSibling(this.path.getFileName() + ".tmp");
+        Files.deleteIfExists(_tmp);
+        ByteBuffer _buffer = ByteBuffer.allocate(Math.toIntExact(HEADER_SIZE + (long) _count * RECORD_SIZE));
+        _buffer.putInt(MAGIC).putInt(VERSION).putInt(_count);
+        this.entries.forEach((_fingerprint, _hashes) -> {
+            for (int i = 0; i < _hashes.length; i++) {
+                _buffer.putLong(_fingerprint).putInt(i).put(_hashes[i]);
+            }
+        });
+        _buffer.flip();
+        try (FileChannel _fc = FileChannel.open(_tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            while (_buffer.hasRemaining()) {
+                _fc.write(_buffer);
+            }
+            _fc.force(true);
+        }
+        Files.move(_tmp, this.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+}
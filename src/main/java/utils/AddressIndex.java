@@ -0,0 +1,109 @@
+package utils;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Index of all FX delegator and validator addresses derived from the provided seedphrases.
+ * Derivation happens only once (in parallel), then each address is resolved in constant time.
+ * When an address cache is provided, seedphrases already cached are indexed without deriving any key :
+ * only the private keys of the accounts actually used will then be derived, and checked against the cache.
+ * A cached address whose key does not match (stale or corrupted cache) gets the addresses of its seedphrase derived again, and cached anew.
+ */
+public class AddressIndex {
+
+    private final Map<String/*fx*/, DerivedAddress> delegators = new HashMap<>();
+    private final Map<String/*fxvaloper*/, DerivedAddress> validators = new HashMap<>();
+    private final int gapLimit;
+    private final AddressCache cache;
+
+    private AddressIndex(int gapLimit, AddressCache cache) {
+        this.gapLimit = gapLimit;
+        this.cache = cache;
+    }
+
+    public static AddressIndex build(List<CryptoUnit> cryptoUnits, int gapLimit, AddressCache cache) {
+        AddressIndex ret = new AddressIndex(gapLimit, cache);
+        boolean _cacheUpdated = false;
+        for (CryptoUnit _cu : cryptoUnits) {
+            List<DerivedAddress> _derivedAddresses;
+            byte[][] _cached = cache == null ? null : cache.get(_cu.getFingerprint(), gapLimit);
+            if (_cached != null) {
+                _derivedAddresses = IntStream.range(0, gapLimit)
+                        .mapToObj(index -> DerivedAddress.fromPubKeyHash(_cu, index, _cached[index]))
+                        .collect(Collectors.toList());
+            } else {
+                _derivedAddresses = _cu.deriveAddresses(gapLimit);
+                if (cache != null) {
+                    cache.put(_cu.getFingerprint(), _derivedAddresses);
+                    _cacheUpdated = true;
+                }
+            }
+            ret.index(_derivedAddresses);
+        }
+        if (_cacheUpdated) {
+            ret.saveCache();
+        }
+        return ret;
+    }
+
+    public DerivedAddress findDelegator(String fxDelegatorAddress) {
+        String _address = fxDelegatorAddress.toLowerCase();
+        return this.verify(this.delegators.get(_address)) ? this.delegators.get(_address) : null;
+    }
+
+    public DerivedAddress findValidator(String fxValidatorAddress) {
+        String _address = fxValidatorAddress.toLowerCase();
+        return this.verify(this.validators.get(_address)) ? this.validators.get(_address) : null;
+    }
+
+    private void index(List<DerivedAddress> derivedAddresses) {
+        for (DerivedAddress _da : derivedAddresses) {
+            this.delegators.putIfAbsent(_da.getFxDelegatorAddress(), _da);
+            if (_da.getFxValidatorAddress() != null) {
+                this.validators.putIfAbsent(_da.getFxValidatorAddress(), _da);
+            }
+        }
+    }
+
+    /**
+     * Checks the key of a cached address : on mismatch, the addresses of its seedphrase are derived again and the index is rebuilt
+     * @return false if the address was not found
+     */
+    private boolean verify(DerivedAddress derivedAddress) {
+        if (derivedAddress == null) {
+            return false;
+        }
+        if (derivedAddress.hasMatchingKey()) {
+            return true;
+        }
+        CryptoUnit _cu = derivedAddress.getCryptoUnit();
+        System.out.printf("WARNING: Address cache does not match address '%s' : the addresses of its seedphrase are derived again.%n", derivedAddress.getFxDelegatorAddress());
+        List<DerivedAddress> _derivedAddresses = _cu.deriveAddresses(this.gapLimit);
+        this.delegators.values().removeIf(_da -> _da.getCryptoUnit() == _cu);
+        this.validators.values().removeIf(_da -> _da.getCryptoUnit() == _cu);
+        this.index(_derivedAddresses);
+        if (this.cache != null) {
+            this.cache.put(_cu.getFingerprint(), _derivedAddresses);
+            this.saveCache();
+        }
+        return true;
+    }
+
+    private void saveCache() {
+        try {
+            this.cache.save();
+        } catch (IOException ex) {
+            System.out.printf("WARNING: Address cache could not be saved (%s).%n", ex.getMessage());
+        }
+    }
+
+    public int size() {
+        return this.delegators.size();
+    }
+
+}
@@ -0,0 +1,140 @@
+package utils;
+
+import libs.Metrics;
+import libs.NodePool;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The metrics of the auto-compounder : cycles, node requests, transactions, and the amounts of each account.
+ * All handles are registered upfront, so that recording them during a cycle only updates adders.
+ */
+public class CompounderMetrics {
+
+    private static final double[] GAS_BUCKETS = { 100000, 200000, 500000, 1000000, 2000000, 5000000, 10000000 };
+
+    private static final class AccountGauges {
+
+        private final Metrics.Gauge balance;
+        private final Metrics.Gauge pending;
+        private final Metrics.Gauge delegations;
+
+        private AccountGauges(Metrics.Gauge balance, Metrics.Gauge pending, Metrics.Gauge delegations) {
+            this.balance = balance;
+            this.pending = pending;
+            this.delegations = delegations;
+        }
+
+    }
+
+    private final Metrics metrics;
+    private final Metrics.Histogram cycleDuration;
+    private final Metrics.Counter cycleFailures;
+    private final Metrics.Counter cycleOverruns;
+    private final Metrics.Counter accountsEvaluated;
+    private final Metrics.Counter accountsProcessed;
+    private final Metrics.Counter gasSimulated;
+    private final Metrics.Counter gasEstimated;
+    private final Metrics.Counter gasUsed;
+    private final Metrics.Histogram txGasUsed;
+    private final Metrics.Counter feesPaid;
+    private final Metrics.Counter txBroadcast;
+    private final Metrics.Counter txConfirmed;
+    private final Metrics.Counter txFailed;
+    private final Map<FxAccount, AccountGauges> accounts = new HashMap<>();
+
+    public CompounderMetrics(Metrics metrics, NodePool<?> nodes, Collection<FxAccount> accounts) {
+        this.metrics = metrics;
+        this.cycleDuration = metrics.histogram("fx_cycle_duration_seconds", "Duration of auto-compounding cycles", Metrics.LATENCY_BUCKETS);
+        this.cycleFailures = metrics.counter("fx_cycle_failures_total", "Cycles aborted by an error");
+        this.cycleOverruns = metrics.counter("fx_cycle_overruns_total", "Cycles abandoned after overrunning their deadline");
+        this.accountsEvaluated = metrics.counter("fx_accounts_evaluated_total", "Accounts queried from the node (the others are extrapolated)");
+        this.accountsProcessed = metrics.counter("fx_accounts_processed_total", "Accounts selected for compounding");
+        this.gasSimulated = metrics.counter("fx_gas_simulated_total", "Gas expected by transaction simulations");
+        this.gasEstimated = metrics.counter("fx_gas_estimated_total", "Gas expected by the learnt gas model (simulation skipped)");
+        this.gasUsed = metrics.counter("fx_gas_used_total", "Gas used by committed transactions");
+        this.txGasUsed = metrics.histogram("fx_tx_gas_used", "Gas used per committed transaction", GAS_BUCKETS);
+        this.feesPaid = metrics.counter("fx_fees_paid_fx_total", "Transaction fees paid (in $FX)");
+        this.txBroadcast = metrics.counter("fx_tx_broadcast_total", "Transactions accepted by the node");
+        this.txConfirmed = metrics.counter("fx_tx_confirmed_total", "Transactions successfully committed");
+        this.txFailed = metrics.counter("fx_tx_failed_total", "Transactions rejected, failed or never committed");
+        nodes.getEndpoints().forEach(_endpoint -> {
+            metrics.gauge("fx_node_healthy", "Whether the node endpoint is in the pool (1) or ejected (0)", "node", _endpoint.getName(), () -> _endpoint.isHealthy() ? 1d : 0d);
+            metrics.gauge("fx_node_latency_seconds", "Smoothed latency of the node endpoint", "node", _endpoint.getName(), () -> _endpoint.getLatencyMs() / 1000d);
+        });
+        accounts.forEach(_account -> this.accounts.put(_account, new AccountGauges(
+                metrics.gauge("fx_account_balance_fx", "Unstaked balance of the account (in $FX)", "address", _account.getFxDelegatorAddress()),
+                metrics.gauge("fx_account_pending_fx", "Pending rewards and commission of the account (in $FX)", "address", _account.getFxDelegatorAddress()),
+                metrics.gauge("fx_account_delegations_fx", "Delegations of the account (in $FX)", "address", _account.getFxDelegatorAddress())
+        )));
+    }
+
+    /**
+     * Node pool observer : latency and errors of each RPC method
+     */
+    public void onRequest(String endpoint, String method, long latencyNanos, Throwable error) {
+        this.metrics.histogram("fx_rpc_latency_seconds", "Latency of node requests", Metrics.LATENCY_BUCKETS, "method", method).observeNanos(latencyNanos);
+        if (error != null) {
+            this.metrics.counter("fx_rpc_errors_total", "Failed node requests", "method", method).inc();
+        }
+    }
+
+    public void onCycle(long durationNanos, boolean failed, boolean overrun) {
+        this.cycleDuration.observeNanos(durationNanos);
+        if (failed) {
+            this.cycleFailures.inc();
+        }
+        if (overrun) {
+            this.cycleOverruns.inc();
+        }
+    }
+
+    public void onAccountsEvaluated(int evaluated, int processed) {
+        this.accountsEvaluated.add(evaluated);
+        this.accountsProcessed.add(processed);
+    }
+
+    /**
+     * Updates the gauges of a freshly queried account
+     */
+    public void onAccountRefreshed(FxAccount account) {
+        AccountGauges _gauges = this.accounts.get(account);
+        if (_gauges == null) {
+            return;
+        }
+        _gauges.balance.set(account.getBalance().doubleValue());
+        _gauges.pending.set(account.getTotalRewards().add(account.getCommissionFee()).doubleValue());
+        _gauges.delegations.set(account.getTotalDelegations().doubleValue());
+    }
+
+    public void onGasExpected(long gas, boolean simulated) {
+        (simulated ? this.gasSimulated : this.gasEstimated).add(gas);
+    }
+
+    /**
+     * @param fee the fee of the transaction (in $FX)
+     */
+    public void onBroadcast(boolean accepted, FxAmount fee) {
+        if (accepted) {
+            this.txBroadcast.inc();
+            this.feesPaid.add(fee.doubleValue());
+        } else {
+            this.txFailed.inc();
+        }
+    }
+
+    public void onConfirmation(ConfirmationTracker.Confirmation confirmation) {
+        if (confirmation.isSuccess()) {
+            this.txConfirmed.inc();
+        } else {
+            this.txFailed.inc();
+        }
+        if (confirmation.isCommitted()) {
+            this.gasUsed.add(confirmation.getGasUsed());
+            this.txGasUsed.observe(confirmation.getGasUsed());
+        }
+    }
+
+}
@@ -0,0 +1,122 @@
+package utils;
+
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Computes the withdraw threshold maximizing the compounded yield of an account, net of transaction fees.
+ * Compounding a pending amount R costs a fee F and grows a stake S by (R - F) : the long-run growth rate ln(1 + (R - F) / S) / T,
+ * with T = R / accrualRate, is maximal when (1 + x - f).ln(1 + x - f) = x, where x = R / S and f = F / S (i.e. R close to F + sqrt(2.F.S)).
+ * The fee of a compound is estimated from the gas used per message by past broadcasts, which is kept across restarts.
+ */
+public class CompoundingOptimizer {
+
+    public static final long YEAR_MS = 365L * 86400000L;
+    private static final double SMOOTHING = 0.2;
+    private static final String GAS_PER_MESSAGE = "gasPerMessage";
+    private static final String SAMPLES = "samples";
+
+    private final LongSupplier gasPrice;
+    private final DoubleSupplier gasCoeff;
+    private final GasStatsStore store;
+    private double gasPerMessage = Double.NaN;
+    private long samples = 0L;
+
+    /**
+     * @param gasPrice the current gas price in atto-FX
+     * @param gasCoeff the current safety margin applied to the expected gas
+     */
+    public CompoundingOptimizer(LongSupplier gasPrice, DoubleSupplier gasCoeff, GasStatsStore store) {
+        this.gasPrice = gasPrice;
+        this.gasCoeff = gasCoeff;
+        this.store = store;
+        try {
+            this.gasPerMessage = Double.parseDouble(store.get(GAS_PER_MESSAGE, "NaN"));
+            this.samples = Long.parseLong(store.get(SAMPLES, "0"));
+        } catch (NumberFormatException ex) {
+            System.out.println("WARNING: Could not read observed gas per message : " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Records the gas used by a committed transaction
+     */
+    public synchronized void observeGas(long gasUsed, int messageCount) {
+        if (gasUsed <= 0 || messageCount <= 0) {
+            return;
+        }
+        double _gasPerMessage = (double) gasUsed / messageCount;
+        this.gasPerMessage = Double.isNaN(this.gasPerMessage) ? _gasPerMessage : SMOOTHING * _gasPerMessage + (1 - SMOOTHING) * this.gasPerMessage;
+        this.samples++;
+        this.store.set(GAS_PER_MESSAGE, Double.toString(this.gasPerMessage));
+        this.store.set(SAMPLES, Long.toString(this.samples));
+        this.store.save();
+    }
+
+    public synchronized long getSamples() {
+        return this.samples;
+    }
+
+    /**
+     * @return the expected fee (in $FX) of compounding an account : one withdraw per validator, the commission withdraw and the delegation
+     */
+    public synchronized FxAmount estimateFee(int validatorCount, boolean withCommission) {
+        double _gas;
+        if (Double.isNaN(this.gasPerMessage)) {
+            _gas = validatorCount * TxMessageType.WITHDRAW_REWARDS.getEstimatedGas()
+                    + (withCommission ? TxMessageType.WITHDRAW_COMMISSION.getEstimatedGas() : 0)
+                    + TxMessageType.DELEGATE.getEstimatedGas();
+        } else {
+            _gas = (validatorCount + (withCommission ? 1 : 0) + 1) * this.gasPerMessage;
+        }
+        return FxAmount.ofFx(_gas * this.gasCoeff.getAsDouble() * this.gasPrice.getAsLong() / 1e18);
+    }
+
+    /**
+     * @param stake the staked amount (in $FX)
+     * @param fee the fee of a single compound (in $FX)
+     * @return the pending amount at which compounding maximizes the net yield, or null if it cannot be computed
+     */
+    public static FxAmount optimalThreshold(FxAmount stake, FxAmount fee) {
+        double _s = stake.doubleValue();
+        if (_s <= 0) {
+            return null;
+        }
+        double _f = fee.doubleValue() / _s;
+        // h(x) = (1 + x - f).ln(1 + x - f) - x is negative at x = f and increasing beyond : let's bisect
+        double _low = _f;
+        double _high = _f + Math.max(2 * Math.sqrt(2 * _f), 1e-9);
+        while (h(_high, _f) < 0) {
+            _high *= 2;
+        }
+        for (int i = 0; i < 100; i++) {
+            double _mid = (_low + _high) / 2;
+            if (h(_mid, _f) < 0) {
+                _low = _mid;
+            } else {
+                _high = _mid;
+            }
+        }
+        return FxAmount.ofFx(_high * _s);
+    }
+
+    private static double h(double x, double f) {
+        return (1 + x - f) * Math.log1p(x - f) - x;
+    }
+
+    /**
+     * @param ratePerMs the accrual rate of rewards and commission (in $FX per millisecond)
+     * @return the expected yearly yield (e.g. 0.12 for 12%) when compounding at the given threshold, net of fees
+     */
+    public static double expectedYield(FxAmount stake, double ratePerMs, FxAmount fee, FxAmount threshold) {
+        double _s = stake.doubleValue();
+        double _r = threshold.doubleValue();
+        if (_s <= 0 || ratePerMs <= 0 || _r <= 0) {
+            return 0d;
+        }
+        double _periodMs = _r / ratePerMs;
+        double _growth = Math.log1p((_r - fee.doubleValue()) / _s) / _periodMs;
+        return Math.expm1(_growth * YEAR_MS);
+    }
+
+}
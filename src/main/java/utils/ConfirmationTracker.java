@@ -0,0 +1,190 @@
+package utils;
+
+import cosmos.tx.v1beta1.ServiceOuterClass;
+import eu.frenchxcore.api.CosmosGrpcApi;
+import libs.NodePool;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tracks broadcast transactions until they are committed (or given up), by polling the tx service with an exponential backoff.
+ * Polling runs on its own scheduler, so the broadcasting thread is never held up.
+ */
+public class ConfirmationTracker {
+
+    private static final long INITIAL_DELAY_MS = 1000L;
+    private static final long MAX_DELAY_MS = 16000L;
+    private static final long TIMEOUT_MS = 180000L;
+
+    public static final class Confirmation {
+
+        private final String txHash;
+        private final Set<FxAccount> signers;
+        private final boolean committed;
+        private final boolean success;
+        private final int code;
+        private final long height;
+        private final long gasWanted;
+        private final long gasUsed;
+        private final String rawLog;
+
+        private Confirmation(String txHash, Set<FxAccount> signers, boolean committed, int code, long height, long gasWanted, long gasUsed, String rawLog) {
+            this.txHash = txHash;
+            this.signers = signers;
+            this.committed = committed;
+            this.success = committed && code == 0;
+            this.code = code;
+            this.height = height;
+            this.gasWanted = gasWanted;
+            this.gasUsed = gasUsed;
+            this.rawLog = rawLog;
+        }
+
+        public String getTxHash() {
+            return txHash;
+        }
+
+        public Set<FxAccount> getSigners() {
+            return signers;
+        }
+
+        /**
+         * @return false if the transaction could not be found before timeout (i.e. it was dropped from the mempool)
+         */
+        public boolean isCommitted() {
+            return committed;
+        }
+
+        public boolean isSuccess() {
+            return success;
+        }
+
+        public int getCode() {
+            return code;
+        }
+
+        public long getHeight() {
+            return height;
+        }
+
+        public long getGasWanted() {
+            return gasWanted;
+        }
+
+        public long getGasUsed() {
+            return gasUsed;
+        }
+
+        public String getRawLog() {
+            return rawLog;
+        }
+
+    }
+
+    private final NodePool<CosmosGrpcApi> nodes;
+    private final long initialDelayMs;
+    private final ScheduledExecutorService scheduler;
+    private final ConcurrentMap<FxAccount, Integer> pendingSigners = new ConcurrentHashMap<>();
+    private final Queue<Confirmation> completed = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingTxs = new AtomicInteger();
+
+    public ConfirmationTracker(NodePool<CosmosGrpcApi> nodes) {
+        this(nodes, INITIAL_DELAY_MS);
+    }
+
+    /**
+     * @param initialDelayMs the delay before the first poll, doubled after each unsuccessful poll
+     */
+    public ConfirmationTracker(NodePool<CosmosGrpcApi> nodes, long initialDelayMs) {
+        this(nodes, initialDelayMs, Executors.newSingleThreadScheduledExecutor(_r -> {
+            Thread _t = new Thread(_r, "tx-confirmation");
+            _t.setDaemon(true);
+            return _t;
+        }));
+    }
+
+    private ConfirmationTracker(NodePool<CosmosGrpcApi> nodes, long initialDelayMs, ScheduledExecutorService scheduler) {
+        this.nodes = nodes;
+        this.initialDelayMs = initialDelayMs;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * @return a tracker of its own transactions, polling on the same scheduler as this one
+     */
+    public ConfirmationTracker newTracker() {
+        return new ConfirmationTracker(this.nodes, this.initialDelayMs, this.scheduler);
+    }
+
+    public CompletableFuture<Confirmation> track(String txHash, Collection<FxAccount> signers) {
+        Set<FxAccount> _signers = new LinkedHashSet<>(signers);
+        _signers.forEach(_s -> this.pendingSigners.merge(_s, 1, Integer::sum));
+        CompletableFuture<Confirmation> ret = new CompletableFuture<>();
+        this.pendingTxs.incrementAndGet();
+        ret.thenAccept(_confirmation -> {
+            this.pendingTxs.decrementAndGet();
+            _signers.forEach(_s -> this.pendingSigners.computeIfPresent(_s, (_k, _count) -> _count > 1 ? _count - 1 : null));
+            this.completed.add(_confirmation);
+        });
+        this.poll(txHash, _signers, ret, System.currentTimeMillis() + TIMEOUT_MS, this.initialDelayMs);
+        return ret;
+    }
+
+    /**
+     * @return true while a transaction signed by this account is still waiting for confirmation
+     */
+    public boolean isPending(FxAccount account) {
+        return this.pendingSigners.containsKey(account);
+    }
+
+    /**
+     * @return the number of transactions still waiting for confirmation
+     */
+    public int getPendingCount() {
+        return this.pendingTxs.get();
+    }
+
+    /**
+     * @return all the confirmations received since the previous call
+     */
+    public List<Confirmation> drainCompleted() {
+        List<Confirmation> ret = new ArrayList<>();
+        Confirmation _c;
+        while ((_c = this.completed.poll()) != null) {
+            ret.add(_c);
+        }
+        return ret;
+    }
+
+    private void poll(String txHash, Set<FxAccount> signers, CompletableFuture<Confirmation> result, long deadline, long delay) {
+        this.scheduler.schedule(() -> this.nodes.read("txGetTx", () -> ServiceOuterClass.GetTxRequest.newBuilder().setHash(txHash).build(), _c -> _c.txGetTx(txHash)).whenComplete((_response, _ex) -> {
+            if (_ex == null && _response.hasTxResponse() && _response.getTxResponse().getHeight() > 0) {
+                result.complete(new Confirmation(txHash, signers, true,
+                        _response.getTxResponse().getCode(),
+                        _response.getTxResponse().getHeight(),
+                        _response.getTxResponse().getGasWanted(),
+                        _response.getTxResponse().getGasUsed(),
+                        _response.getTxResponse().getRawLog()));
+            } else if (System.currentTimeMillis() + delay > deadline) {
+                result.complete(new Confirmation(txHash, signers, false, -1, 0L, 0L, 0L, _ex != null ? _ex.getMessage() : ""));
+            } else {
+                // Not committed yet (or not found) : let's retry later
+                this.poll(txHash, signers, result, deadline, Math.min(delay * 2, MAX_DELAY_MS));
+            }
+        }), delay, TimeUnit.MILLISECONDS);
+    }
+
+}
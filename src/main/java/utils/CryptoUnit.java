@@ -3,43 +3,69 @@ package utils;
 import libs.CryptoUtils;
 import org.bitcoinj.crypto.DeterministicHierarchy;
 import org.bitcoinj.crypto.DeterministicKey;
+import org.bitcoinj.crypto.HDKeyDerivation;
 import org.bitcoinj.crypto.HDPath;
 
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 public class CryptoUnit {
 
-    public DeterministicHierarchy dh;
-    public DeterministicKey dk;
-    public int lastIndex = -1;
-
-    public static CryptoUnit findValidator(List<CryptoUnit> cryptoUnits, String fxValidatorAddress) throws Exception {
-        CryptoUnit ret = null;
-        for (CryptoUnit _cu : cryptoUnits) {
-            DeterministicKey _dk = CryptoUtils.generateKey(_cu.dh, 0);
-            if (CryptoUtils.generateAddress("fxvaloper", _dk).toLowerCase().equals(fxValidatorAddress)) {
-                ret = _cu;
-                break;
-            }
-        }
-        return ret;
+    /**
+     * Public fingerprint of the encrypted seedphrase, used to look up its derived addresses in the address cache
+     */
+    private final long fingerprint;
+    private String mnemonic;
+    private DeterministicKey dk;
+    private DeterministicHierarchy dh;
+    private DeterministicKey accountKey;
+
+    public CryptoUnit(String encryptedSeedPhrase, String mnemonic) throws NoSuchAlgorithmException {
+        this.fingerprint = ByteBuffer.wrap(MessageDigest.getInstance("SHA-256").digest(encryptedSeedPhrase.getBytes(StandardCharsets.UTF_8))).getLong();
+        this.mnemonic = mnemonic;
     }
 
-    public static CryptoUnit findDelegator(List<CryptoUnit> cryptoUnits, String fxDelegatorAddress) throws Exception {
-        CryptoUnit ret = null;
-        for (CryptoUnit _cu : cryptoUnits) {
-            _cu.lastIndex = -1;
-            List<String> potentialDelegatorAddresses = new ArrayList<>();
-            for (int index = 0 ; index < 512 ; index++) {
-                if (CryptoUtils.generateAddress("fx", _cu.dh.get(HDPath.parsePath("44H/118H/0H/0/"+index), true, true)).toLowerCase().equals(fxDelegatorAddress)) {
-                    ret = _cu;
-                    _cu.lastIndex = index;
-                    break;
-                }
-            }
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * The BIP39 seed stretching and the root key generation are only run the first time a private key is actually required.
+     */
+    public synchronized DeterministicHierarchy getHierarchy() {
+        if (this.dh == null) {
+            this.dk = CryptoUtils.generateRootKey(CryptoUtils.generateSeed(this.mnemonic));
+            this.dh = CryptoUtils.generateHierarchy(this.dk);
+            this.accountKey = this.dh.get(HDPath.parsePath(CryptoUtils.HD_ACCOUNT_PATH), true, true);
+            this.mnemonic = null;
         }
-        return ret;
+        return this.dh;
+    }
+
+    private synchronized DeterministicKey getAccountKey() {
+        this.getHierarchy();
+        return this.accountKey;
+    }
+
+    public DeterministicKey deriveKey(int index) {
+        return HDKeyDerivation.deriveChildKey(this.getAccountKey(), index);
+    }
+
+    /**
+     * Derives the first 'gapLimit' FX addresses of this seedphrase.
+     * Child keys are derived straight from the account key (44H/118H/0H/0), which is thread-safe, so that all cores can be used.
+     */
+    public List<DerivedAddress> deriveAddresses(int gapLimit) {
+        DeterministicKey _accountKey = this.getAccountKey();
+        return IntStream.range(0, gapLimit)
+                .parallel()
+                .mapToObj(index -> DerivedAddress.fromKey(this, index, HDKeyDerivation.deriveChildKey(_accountKey, index)))
+                .collect(Collectors.toList());
     }
 
 }
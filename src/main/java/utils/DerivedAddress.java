@@ -0,0 +1,91 @@
+package utils;
+
+import libs.CryptoUtils;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.crypto.DeterministicKey;
+
+import java.util.Arrays;
+
+/**
+ * An FX address derived from one of the seedphrases, along with the derivation index and the private key it was derived from.
+ * When loaded from the address cache, the private key is only derived when first requested, then checked against the cached public key hash.
+ */
+public final class DerivedAddress {
+
+    private final CryptoUnit cryptoUnit;
+    private final int index;
+    private final byte[] pubKeyHash;
+    private final String fxDelegatorAddress;
+    private final String fxValidatorAddress;
+    private DeterministicKey key;
+
+    private DerivedAddress(CryptoUnit cryptoUnit, int index, byte[] pubKeyHash, DeterministicKey key) {
+        this.cryptoUnit = cryptoUnit;
+        this.index = index;
+        this.pubKeyHash = pubKeyHash;
+        this.key = key;
+        try {
+            this.fxDelegatorAddress = CryptoUtils.generateAddress("fx", pubKeyHash).toLowerCase();
+            this.fxValidatorAddress = index == 0 ? CryptoUtils.generateAddress("fxvaloper", pubKeyHash).toLowerCase() : null;
+        } catch (Exception ex) {
+            throw new IllegalStateException("!!! ERROR !!! Could not generate the FX address at index " + index, ex);
+        }
+    }
+
+    public static DerivedAddress fromKey(CryptoUnit cryptoUnit, int index, DeterministicKey key) {
+        return new DerivedAddress(cryptoUnit, index, key.getPubKeyHash(), key);
+    }
+
+    public static DerivedAddress fromPubKeyHash(CryptoUnit cryptoUnit, int index, byte[] pubKeyHash) {
+        return new DerivedAddress(cryptoUnit, index, pubKeyHash, null);
+    }
+
+    public CryptoUnit getCryptoUnit() {
+        return cryptoUnit;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public byte[] getPubKeyHash() {
+        return pubKeyHash;
+    }
+
+    /**
+     * @throws IllegalStateException if the derived key does not match the cached public key hash (i.e. a stale or corrupted address cache)
+     */
+    public synchronized DeterministicKey getKey() {
+        if (!this.hasMatchingKey()) {
+            throw new IllegalStateException("!!! ERROR !!! The key derived at index " + this.index + " does not control the cached address '" + this.fxDelegatorAddress + "'.");
+        }
+        return this.key;
+    }
+
+    /**
+     * Derives the private key if not done yet
+     * @return true if it matches the public key hash of this address
+     */
+    public synchronized boolean hasMatchingKey() {
+        if (this.key == null) {
+            DeterministicKey _key = this.cryptoUnit.deriveKey(this.index);
+            if (!Arrays.equals(Utils.sha256hash160(_key.getPubKey()), this.pubKeyHash)) {
+                return false;
+            }
+            this.key = _key;
+        }
+        return true;
+    }
+
+    public String getFxDelegatorAddress() {
+        return fxDelegatorAddress;
+    }
+
+    /**
+     * @return the FX validator operator address, only set for the first derivation index (i.e. the validator self-bound key)
+     */
+    public String getFxValidatorAddress() {
+        return fxValidatorAddress;
+    }
+
+}
@@ -1,9 +1,8 @@
 package utils;
 
 import libs.CryptoUtils;
+import org.bitcoinj.core.ECKey;
 import org.bitcoinj.crypto.DeterministicKey;
-import org.bitcoinj.crypto.HDPath;
-import java.math.BigDecimal;
 import java.util.*;
 
 public class FxAccount {
@@ -11,26 +10,35 @@ public class FxAccount {
     private String fxValidatorAddress = null;
     private String fxDelegatorAddress;
     private CryptoUnit cryptoUnit;
+    private int derivationIndex;
     private DeterministicKey privateKey;
-    private BigDecimal balance = BigDecimal.ZERO;
-    private Map<String/*fxvaloper*/, Optional<BigDecimal>> rewards = new HashMap<>();
-    private Map<String/*fxvaloper*/, Optional<BigDecimal>> delegations = new HashMap<>();
-    private Optional<BigDecimal> commissionFee = Optional.of(BigDecimal.ZERO);
-
-    public static FxAccount generateSelfBound(String fxValidatorAddress, List<CryptoUnit> cryptoUnits) throws Exception {
-        FxAccount ret = new FxAccount();
-        ret.cryptoUnit = CryptoUnit.findValidator(cryptoUnits, fxValidatorAddress);
-        ret.privateKey = CryptoUtils.generateKey(ret.cryptoUnit.dh, 0);
-        ret.fxDelegatorAddress = CryptoUtils.generateAddress("fx", ret.privateKey).toLowerCase();
-        ret.fxValidatorAddress = CryptoUtils.generateAddress("fxvaloper", ret.privateKey).toLowerCase();
+    private ECKey signingKey;
+    private FxAmount balance = FxAmount.ZERO;
+    private Map<String/*fxvaloper*/, FxAmount> rewards = new HashMap<>();
+    private Map<String/*fxvaloper*/, FxAmount> delegations = new HashMap<>();
+    private FxAmount commissionFee = FxAmount.ZERO;
+
+    public static FxAccount generateSelfBound(String fxValidatorAddress, AddressIndex addressIndex) {
+        DerivedAddress _da = addressIndex.findValidator(fxValidatorAddress);
+        if (_da == null) {
+            return null;
+        }
+        FxAccount ret = from(_da);
+        ret.fxValidatorAddress = _da.getFxValidatorAddress();
         return ret;
     }
 
-    public static FxAccount generateDelegator(String fxDelegatorAddress, List<CryptoUnit> cryptoUnits) throws Exception {
+    public static FxAccount generateDelegator(String fxDelegatorAddress, AddressIndex addressIndex) {
+        DerivedAddress _da = addressIndex.findDelegator(fxDelegatorAddress);
+        return _da == null ? null : from(_da);
+    }
+
+    private static FxAccount from(DerivedAddress derivedAddress) {
         FxAccount ret = new FxAccount();
-        ret.cryptoUnit = CryptoUnit.findDelegator(cryptoUnits, fxDelegatorAddress);
-        ret.privateKey = ret.cryptoUnit.dh.get(HDPath.parsePath("44H/118H/0H/0/"+ret.cryptoUnit.lastIndex), true, true);
-        ret.fxDelegatorAddress = CryptoUtils.generateAddress("fx", ret.privateKey).toLowerCase();
+        ret.cryptoUnit = derivedAddress.getCryptoUnit();
+        ret.derivationIndex = derivedAddress.getIndex();
+        ret.privateKey = derivedAddress.getKey();
+        ret.fxDelegatorAddress = derivedAddress.getFxDelegatorAddress();
         return ret;
     }
 
@@ -67,31 +75,62 @@ public class FxAccount {
         return privateKey;
     }
 
-    public BigDecimal getBalance() {
+    public synchronized ECKey getSigningKey() {
+        if (this.signingKey == null) {
+            this.signingKey = CryptoUtils.toSigningKey(this.privateKey);
+        }
+        return signingKey;
+    }
+
+    public FxAmount getBalance() {
         return balance;
     }
 
-    public Map<String, Optional<BigDecimal>> getRewards() {
+    public Map<String, FxAmount> getRewards() {
         return rewards;
     }
 
-    public Map<String, Optional<BigDecimal>> getDelegations() {
+    public FxAmount getTotalRewards() {
+        return sum(this.rewards);
+    }
+
+    public Map<String, FxAmount> getDelegations() {
         return delegations;
     }
 
-    public void setBalance(BigDecimal balance) {
+    public FxAmount getTotalDelegations() {
+        return sum(this.delegations);
+    }
+
+    public void setBalance(FxAmount balance) {
         this.balance = balance;
     }
 
-    public Optional<BigDecimal> getCommissionFee() {
+    /**
+     * @return the pending commission of the validator (zero for a delegator)
+     */
+    public FxAmount getCommissionFee() {
         return commissionFee;
     }
 
-    public void setCommissionFee(Optional<BigDecimal> commissionFee) {
+    public void setCommissionFee(FxAmount commissionFee) {
         this.commissionFee = commissionFee;
     }
 
     public CryptoUnit getCryptoUnit() {
         return cryptoUnit;
     }
-}
\ No newline at end of file
+
+    public int getDerivationIndex() {
+        return derivationIndex;
+    }
+
+    private static FxAmount sum(Map<String, FxAmount> amounts) {
+        FxAmount.Sum ret = new FxAmount.Sum();
+        for (FxAmount _amount : amounts.values()) {
+            ret.add(_amount);
+        }
+        return ret.get();
+    }
+
+}
@@ -0,0 +1,360 @@
+package utils;
+
+import com.google.protobuf.ByteString;
+import libs.EventLog;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/**
+ * Immutable $FX amount, kept as a fixed-point number of atto-FX (18 decimals).
+ * The value is a signed 128-bit integer made of two longs, so that any supply-sized amount fits,
+ * and amounts are parsed straight from the digits of the Cosmos 'Coin' and 'DecCoin' protobuf fields.
+ * Use a Sum to add many amounts without creating intermediate objects.
+ */
+public final class FxAmount implements Comparable<FxAmount>, EventLog.StructuredValue {
+
+    public static final int DECIMALS = 18;
+    private static final long ATTO_PER_FX = 1_000_000_000_000_000_000L;
+    private static final long NANO = 1_000_000_000L;
+    private static final long ATTO_PER_MICRO = 1_000_000_000_000L;
+    private static final double TWO_POW_64 = 18446744073709551616d;
+
+    public static final FxAmount ZERO = new FxAmount(0L, 0L);
+    public static final FxAmount ONE = new FxAmount(0L, ATTO_PER_FX);
+
+    /**
+     * Mutable accumulator of amounts
+     */
+    public static final class Sum {
+
+        private long hi;
+        private long lo;
+
+        public Sum add(FxAmount amount) {
+            this.add(amount.hi, amount.lo);
+            return this;
+        }
+
+        /**
+         * Adds a 'Coin' amount (an integer number of atto-FX)
+         */
+        public Sum addCoin(ByteString amount) {
+            parse(amount, 0, this);
+            return this;
+        }
+
+        /**
+         * Adds a 'DecCoin' amount or delegation shares (atto-FX with 18 more decimals of precision, truncated)
+         */
+        public Sum addDecCoin(ByteString amount) {
+            parse(amount, -DECIMALS, this);
+            return this;
+        }
+
+        public FxAmount get() {
+            return of(this.hi, this.lo);
+        }
+
+        private void add(long hi, long lo) {
+            long _lo = this.lo + lo;
+            this.hi += hi + (Long.compareUnsigned(_lo, this.lo) < 0 ? 1 : 0);
+            this.lo = _lo;
+        }
+
+    }
+
+    private final long hi;
+    private final long lo;
+
+    private FxAmount(long hi, long lo) {
+        this.hi = hi;
+        this.lo = lo;
+    }
+
+    private static FxAmount of(long hi, long lo) {
+        return hi == 0L && lo == 0L ? ZERO : new FxAmount(hi, lo);
+    }
+
+    public static FxAmount ofAtto(long atto) {
+        return of(atto >> 63, atto);
+    }
+
+    public static FxAmount ofMicro(long micro) {
+        return ofAtto(micro).multiply(ATTO_PER_MICRO);
+    }
+
+    /**
+     * @return the amount closest to the given $FX value, within the precision of a double
+     */
+    public static FxAmount ofFx(double fx) {
+        double _atto = fx * ATTO_PER_FX;
+        if (!Double.isFinite(_atto) || Math.abs(_atto) >= 0x1p126) {
+            throw new IllegalArgumentException("!!! ERROR !!! Invalid $FX amount : " + fx);
+        }
+        if (Math.abs(_atto) < 0x1p63) {
+            return ofAtto((long) _atto);
+        }
+        double _hi = Math.floor(_atto / TWO_POW_64);
+        double _lo = _atto - _hi * TWO_POW_64;
+        return of((long) _hi, _lo >= 0x1p63 ? (long) (_lo - TWO_POW_64) : (long) _lo);
+    }
+
+    public static FxAmount of(BigDecimal fx) {
+        BigInteger _atto = fx.movePointRight(DECIMALS).toBigInteger();
+        return of(_atto.shiftRight(64).longValue(), _atto.longValue());
+    }
+
+    /**
+     * @param fx a decimal amount of $FX (e.g. "123.45")
+     */
+    public static FxAmount parse(String fx) {
+        return parse(ByteString.copyFromUtf8(fx.trim()), DECIMALS, new Sum()).get();
+    }
+
+    public static FxAmount fromCoin(ByteString amount) {
+        return new Sum().addCoin(amount).get();
+    }
+
+    public static FxAmount fromDecCoin(ByteString amount) {
+        return new Sum().addDecCoin(amount).get();
+    }
+
+    public FxAmount add(FxAmount other) {
+        if (other.signum() == 0) {
+            return this;
+        }
+        long _lo = this.lo + other.lo;
+        return of(this.hi + other.hi + (Long.compareUnsigned(_lo, this.lo) < 0 ? 1 : 0), _lo);
+    }
+
+    public FxAmount subtract(FxAmount other) {
+        if (other.signum() == 0) {
+            return this;
+        }
+        return of(this.hi - other.hi - (Long.compareUnsigned(this.lo, other.lo) < 0 ? 1 : 0), this.lo - other.lo);
+    }
+
+    public FxAmount negate() {
+        return of(~this.hi + (this.lo == 0L ? 1 : 0), -this.lo);
+    }
+
+    public FxAmount abs() {
+        return this.hi < 0 ? this.negate() : this;
+    }
+
+    public FxAmount multiply(long factor) {
+        boolean _negative = (this.hi < 0) != (factor < 0);
+        FxAmount _abs = this.abs();
+        long _factor = Math.abs(factor);
+        long _hi = _abs.hi * _factor + unsignedMultiplyHigh(_abs.lo, _factor);
+        FxAmount ret = of(_hi, _abs.lo * _factor);
+        return _negative ? ret.negate() : ret;
+    }
+
+    public FxAmount max(FxAmount other) {
+        return this.compareTo(other) >= 0 ? this : other;
+    }
+
+    public int signum() {
+        return this.hi < 0 ? -1 : (this.hi == 0L && this.lo == 0L ? 0 : 1);
+    }
+
+    @Override
+    public int compareTo(FxAmount other) {
+        int ret = Long.compare(this.hi, other.hi);
+        return ret != 0 ? ret : Long.compareUnsigned(this.lo, other.lo);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof FxAmount && ((FxAmount) o).hi == this.hi && ((FxAmount) o).lo == this.lo;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(this.hi) * 31 + Long.hashCode(this.lo);
+    }
+
+    /**
+     * @return the amount in $FX, within the precision of a double
+     */
+    public double doubleValue() {
+        if (this.hi == this.lo >> 63) {
+            return (double) this.lo / ATTO_PER_FX;
+        }
+        return (this.hi * TWO_POW_64 + unsignedToDouble(this.lo)) / ATTO_PER_FX;
+    }
+
+    /**
+     * @return the amount in micro-FX (6 decimals), truncated
+     */
+    public long toMicro() {
+        if (this.hi == this.lo >> 63) {
+            return this.lo / ATTO_PER_MICRO;
+        }
+        return this.toAttoBigInteger().divide(BigInteger.valueOf(ATTO_PER_MICRO)).longValueExact();
+    }
+
+    public BigDecimal toBigDecimal() {
+        return new BigDecimal(this.toAttoBigInteger(), DECIMALS);
+    }
+
+    /**
+     * @return the integer number of atto-FX, as used in 'Coin' amounts
+     */
+    public String toAttoString() {
+        return this.hi == this.lo >> 63 ? Long.toString(this.lo) : this.toAttoBigInteger().toString();
+    }
+
+    /**
+     * @return the amount in $FX with all its decimals (without trailing zeros)
+     */
+    public String toPlainString() {
+        return this.format(DECIMALS);
+    }
+
+    /**
+     * @return the amount in $FX with all its decimals, for structured event sinks
+     */
+    @Override
+    public String toStructuredString() {
+        return this.toPlainString();
+    }
+
+    /**
+     * @return the amount in $FX rounded (half-up) to 4 decimals, without trailing zeros
+     */
+    @Override
+    public String toString() {
+        return this.format(4);
+    }
+
+    private String format(int decimals) {
+        // |value| = integer.10^18 + fraction, computed with two divisions by 10^9 on 32-bit limbs
+        FxAmount _abs = this.abs();
+        long[] _limbs = { _abs.hi >>> 32, _abs.hi & 0xFFFFFFFFL, _abs.lo >>> 32, _abs.lo & 0xFFFFFFFFL };
+        long _fraction = divideByNano(_limbs);
+        _fraction += divideByNano(_limbs) * NANO;
+        long _unit = pow10(DECIMALS - decimals);
+        long _rounded = (_fraction + _unit / 2) / _unit;
+        if (_rounded == pow10(decimals)) {
+            // Rounded up to the next integer
+            _rounded = 0L;
+            for (int i = 3; i >= 0 && ++_limbs[i] > 0xFFFFFFFFL; i--) {
+                _limbs[i] = 0L;
+            }
+        }
+        StringBuilder ret = new StringBuilder();
+        if (this.hi < 0 && (_limbs[0] | _limbs[1] | _limbs[2] | _limbs[3] | _rounded) != 0L) {
+            ret.append('-');
+        }
+        if ((_limbs[0] | _limbs[1]) == 0L) {
+            ret.append(Long.toUnsignedString(_limbs[2] << 32 | _limbs[3]));
+        } else {
+            ret.append(BigInteger.valueOf(_limbs[0] << 32 | _limbs[1]).shiftLeft(64).add(new BigInteger(Long.toUnsignedString(_limbs[2] << 32 | _limbs[3]))));
+        }
+        if (_rounded != 0L) {
+            String _digits = Long.toString(_rounded);
+            int _length = _digits.length();
+            while (_digits.charAt(_length - 1) == '0') {
+                _length--;
+            }
+            ret.append('.');
+            for (int i = _digits.length(); i < decimals; i++) {
+                ret.append('0');
+            }
+            ret.append(_digits, 0, _length);
+        }
+        return ret.toString();
+    }
+
+    private BigInteger toAttoBigInteger() {
+        BigInteger _lo = BigInteger.valueOf(this.lo >>> 1).shiftLeft(1).or(BigInteger.valueOf(this.lo & 1L));
+        return BigInteger.valueOf(this.hi).shiftLeft(64).add(_lo);
+    }
+
+    /**
+     * Divides the unsigned 128-bit number (4 limbs of 32 bits, most significant first) by 10^9 in place
+     * @return the remainder
+     */
+    private static long divideByNano(long[] limbs) {
+        long _remainder = 0L;
+        for (int i = 0; i < limbs.length; i++) {
+            long _current = (_remainder << 32) | limbs[i];
+            limbs[i] = _current / NANO;
+            _remainder = _current % NANO;
+        }
+        return _remainder;
+    }
+
+    /**
+     * Parses a decimal number and adds it (in atto-FX) to the sum.
+     * @param shift the power of ten applied to the parsed number to get atto-FX : 18 for $FX, 0 for a 'Coin' amount, -18 for a 'DecCoin' amount (extra digits are truncated)
+     */
+    private static Sum parse(ByteString text, int shift, Sum sum) {
+        int _length = text.size();
+        int _start = _length > 0 && text.byteAt(0) == '-' ? 1 : 0;
+        int _dot = _start;
+        while (_dot < _length && text.byteAt(_dot) != '.') {
+            _dot++;
+        }
+        if (_dot == _start) {
+            throw new IllegalArgumentException("!!! ERROR !!! Invalid amount '" + text.toStringUtf8() + "'.");
+        }
+        int _end = shift < 0 ? Math.max(_start, _dot + shift) : _dot;
+        long _hi = 0L;
+        long _lo = 0L;
+        int _decimals = 0;
+        for (int i = _start; i < _length; i++) {
+            if (i == _dot) {
+                continue;
+            }
+            byte _c = text.byteAt(i);
+            if (_c < '0' || _c > '9') {
+                throw new IllegalArgumentException("!!! ERROR !!! Invalid amount '" + text.toStringUtf8() + "'.");
+            }
+            if (i > _dot) {
+                if (_decimals >= shift) {
+                    continue;
+                }
+                _decimals++;
+            } else if (i >= _end) {
+                continue;
+            }
+            // (hi, lo) = (hi, lo) * 10 + digit
+            long _mulLo = _lo * 10L;
+            _hi = _hi * 10L + unsignedMultiplyHigh(_lo, 10L);
+            _lo = _mulLo + (_c - '0');
+            _hi += Long.compareUnsigned(_lo, _mulLo) < 0 ? 1 : 0;
+        }
+        for (int i = _decimals; i < shift; i++) {
+            long _mulLo = _lo * 10L;
+            _hi = _hi * 10L + unsignedMultiplyHigh(_lo, 10L);
+            _lo = _mulLo;
+        }
+        if (_start == 1) {
+            sum.add(~_hi + (_lo == 0L ? 1 : 0), -_lo);
+        } else {
+            sum.add(_hi, _lo);
+        }
+        return sum;
+    }
+
+    private static long unsignedMultiplyHigh(long x, long y) {
+        return Math.multiplyHigh(x, y) + ((x >> 63) & y) + ((y >> 63) & x);
+    }
+
+    private static double unsignedToDouble(long value) {
+        return (double) (value >>> 1) * 2d + (value & 1L);
+    }
+
+    private static long pow10(int exponent) {
+        long ret = 1L;
+        for (int i = 0; i < exponent; i++) {
+            ret *= 10L;
+        }
+        return ret;
+    }
+
+}
@@ -0,0 +1,77 @@
+package utils;
+
+import eu.frenchxcore.api.CosmosGrpcApi;
+import eu.frenchxcore.tools.LocalExecutor;
+import io.grpc.Status;
+import libs.NodePool;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Builds the pool of FX nodes from the endpoints given on the command line ('host' or 'host:port', IPv6 addresses within brackets : '[addr]' or '[addr]:port').
+ */
+public final class FxNodePool {
+
+    /**
+     * gRPC status codes meaning that the node itself failed, rather than the request
+     */
+    private static final Set<Status.Code> NODE_FAILURES = EnumSet.of(
+            Status.Code.UNAVAILABLE,
+            Status.Code.DEADLINE_EXCEEDED,
+            Status.Code.RESOURCE_EXHAUSTED,
+            Status.Code.CANCELLED,
+            Status.Code.UNKNOWN
+    );
+
+    private FxNodePool() {
+    }
+
+    public static NodePool<CosmosGrpcApi> connect(List<String> endpoints, int defaultPort) {
+        List<String> _names = new ArrayList<>();
+        List<CosmosGrpcApi> _clients = new ArrayList<>();
+        for (String _endpoint : endpoints) {
+            String _host = _endpoint.trim();
+            String _port = null;
+            if (_host.startsWith("[")) {
+                // IPv6 address, within brackets
+                int _end = _host.indexOf(']');
+                if (_end < 0 || (_end + 1 < _host.length() && _host.charAt(_end + 1) != ':')) {
+                    throw invalidEndpoint(_endpoint);
+                }
+                _port = _end + 1 < _host.length() ? _host.substring(_end + 2) : null;
+                _host = _host.substring(1, _end);
+            } else if (_host.indexOf(':') != _host.lastIndexOf(':')) {
+                throw new IllegalArgumentException("!!! ERROR !!! Invalid FX node endpoint '" + _endpoint + "' : IPv6 addresses must be within brackets (e.g. '[2001:db8::1]:9090').");
+            } else if (_host.indexOf(':') >= 0) {
+                _port = _host.substring(_host.indexOf(':') + 1);
+                _host = _host.substring(0, _host.indexOf(':'));
+            }
+            if (_host.isEmpty()) {
+                throw invalidEndpoint(_endpoint);
+            }
+            int _portNumber = defaultPort;
+            if (_port != null) {
+                try {
+                    _portNumber = Integer.parseInt(_port);
+                } catch (NumberFormatException ex) {
+                    throw invalidEndpoint(_endpoint);
+                }
+            }
+            _names.add((_host.indexOf(':') >= 0 ? "[" + _host + "]" : _host) + ":" + _portNumber);
+            _clients.add(CosmosGrpcApi.getInstance(_host, _portNumber, LocalExecutor.getInstance().get()));
+        }
+        return new NodePool<>(_names, _clients, FxNodePool::isNodeFailure, CosmosGrpcApi::tmGetNodeInfo);
+    }
+
+    private static IllegalArgumentException invalidEndpoint(String endpoint) {
+        return new IllegalArgumentException("!!! ERROR !!! Invalid FX node endpoint '" + endpoint + "' (expected 'host', 'host:port', '[IPv6 address]' or '[IPv6 address]:port').");
+    }
+
+    public static boolean isNodeFailure(Throwable t) {
+        return NODE_FAILURES.contains(Status.fromThrowable(t).getCode());
+    }
+
+}
@@ -0,0 +1,204 @@
+package utils;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.StringJoiner;
+import java.util.TreeSet;
+
+/**
+ * Linear gas model learnt from the gas used by committed transactions : a base cost per transaction, a cost per message of each type, and a cost per signer.
+ * Coefficients are fitted by (ridge) least squares over all observations, and an estimate is only returned when its 95% confidence interval is tight enough
+ * and the same message mix was already observed several times : otherwise the transaction must be simulated.
+ * After an out-of-gas failure, the next transactions are simulated again whatever the model says.
+ * Observations are kept in the gas statistics store, so that the model survives restarts.
+ */
+public class GasModel {
+
+    public static final int ERR_OUT_OF_GAS = 11;
+    private static final int FEATURES = TxMessageType.values().length + 2;
+    private static final double RIDGE = 1e-6;
+    private static final int MIN_MIX_SAMPLES = 3;
+    private static final int SIMULATIONS_AFTER_OUT_OF_GAS = 5;
+    private static final String XTX = "model.xtx";
+    private static final String XTY = "model.xty";
+    private static final String YTY = "model.yty";
+    private static final String SAMPLES = "model.samples";
+    private static final String MIXES = "model.mixes";
+
+    private final double tolerance;
+    private final GasStatsStore store;
+    private final double[][] xtx = new double[FEATURES][FEATURES];
+    private final double[] xty = new double[FEATURES];
+    private double yty = 0d;
+    private long samples = 0L;
+    private final Map<String, Integer> mixes = new HashMap<>();
+    private int forcedSimulations = 0;
+
+    /**
+     * @param tolerance the maximum relative half-width of the confidence interval to skip simulation (0 to always simulate)
+     */
+    public GasModel(double tolerance, GasStatsStore store) {
+        this.tolerance = tolerance;
+        this.store = store;
+        this.load();
+    }
+
+    public synchronized void observe(List<TxMessageType> types, int signers, long gasUsed) {
+        double[] _x = features(types, signers);
+        for (int i = 0; i < FEATURES; i++) {
+            for (int j = 0; j < FEATURES; j++) {
+                this.xtx[i][j] += _x[i] * _x[j];
+            }
+            this.xty[i] += _x[i] * gasUsed;
+        }
+        this.yty += (double) gasUsed * gasUsed;
+        this.samples++;
+        this.mixes.merge(mixOf(types, signers), 1, Integer::sum);
+        if (this.forcedSimulations > 0) {
+            this.forcedSimulations--;
+        }
+        this.save();
+    }
+
+    public synchronized void onOutOfGas() {
+        this.forcedSimulations = SIMULATIONS_AFTER_OUT_OF_GAS;
+    }
+
+    /**
+     * @return the expected gas of a transaction, or empty if it must be simulated
+     */
+    public synchronized OptionalLong estimate(List<TxMessageType> types, int signers) {
+        if (this.tolerance <= 0 || this.forcedSimulations > 0 || this.samples <= FEATURES
+                || this.mixes.getOrDefault(mixOf(types, signers), 0) < MIN_MIX_SAMPLES) {
+            return OptionalLong.empty();
+        }
+        double[][] _a = new double[FEATURES][];
+        for (int i = 0; i < FEATURES; i++) {
+            _a[i] = this.xtx[i].clone();
+            _a[i][i] += RIDGE;
+        }
+        double[] _beta = solve(_a, this.xty);
+        double[] _x = features(types, signers);
+        double _predicted = dot(_beta, _x);
+        // Residual variance of the fit, then variance of a new observation at _x
+        double _sse = this.yty - 2 * dot(_beta, this.xty);
+        for (int i = 0; i < FEATURES; i++) {
+            _sse += _beta[i] * dot(_a[i], _beta);
+        }
+        double _sigma2 = Math.max(_sse, 0d) / (this.samples - FEATURES);
+        double _variance = _sigma2 * (1 + dot(_x, solve(_a, _x)));
+        double _halfWidth = 2 * Math.sqrt(_variance);
+        if (_predicted <= 0 || _halfWidth > this.tolerance * _predicted) {
+            return OptionalLong.empty();
+        }
+        return OptionalLong.of((long) Math.ceil(_predicted));
+    }
+
+    private static double[] features(List<TxMessageType> types, int signers) {
+        double[] ret = new double[FEATURES];
+        ret[0] = 1d;
+        types.forEach(_type -> ret[1 + _type.ordinal()]++);
+        ret[FEATURES - 1] = signers;
+        return ret;
+    }
+
+    /**
+     * @return the message mix of a transaction : the distinct message types, and whether it has several signers
+     */
+    public static String mixOf(List<TxMessageType> types, int signers) {
+        return new TreeSet<>(types) + (signers > 1 ? "/multi" : "/single");
+    }
+
+    private void load() {
+        try {
+            double[] _xtx = parse(this.store.get(XTX, ""));
+            double[] _xty = parse(this.store.get(XTY, ""));
+            if (_xtx.length != FEATURES * FEATURES || _xty.length != FEATURES) {
+                return;
+            }
+            for (int i = 0; i < FEATURES; i++) {
+                System.arraycopy(_xtx, i * FEATURES, this.xtx[i], 0, FEATURES);
+            }
+            System.arraycopy(_xty, 0, this.xty, 0, FEATURES);
+            this.yty = Double.parseDouble(this.store.get(YTY, "0"));
+            this.samples = Long.parseLong(this.store.get(SAMPLES, "0"));
+            for (String _mix : this.store.get(MIXES, "").split(";")) {
+                int _sep = _mix.lastIndexOf('=');
+                if (_sep > 0) {
+                    this.mixes.put(_mix.substring(0, _sep), Integer.parseInt(_mix.substring(_sep + 1)));
+                }
+            }
+        } catch (NumberFormatException ex) {
+            System.out.println("WARNING: Could not read the gas model : " + ex.getMessage());
+        }
+    }
+
+    private void save() {
+        StringJoiner _xtx = new StringJoiner(",");
+        Arrays.stream(this.xtx).forEach(_row -> Arrays.stream(_row).forEach(_v -> _xtx.add(Double.toString(_v))));
+        StringJoiner _xty = new StringJoiner(",");
+        Arrays.stream(this.xty).forEach(_v -> _xty.add(Double.toString(_v)));
+        StringJoiner _mixes = new StringJoiner(";");
+        this.mixes.forEach((_mix, _count) -> _mixes.add(_mix + "=" + _count));
+        this.store.set(XTX, _xtx.toString());
+        this.store.set(XTY, _xty.toString());
+        this.store.set(YTY, Double.toString(this.yty));
+        this.store.set(SAMPLES, Long.toString(this.samples));
+        this.store.set(MIXES, _mixes.toString());
+        this.store.save();
+    }
+
+    private static double[] parse(String values) {
+        return values.isBlank() ? new double[0] : Arrays.stream(values.split(",")).mapToDouble(Double::parseDouble).toArray();
+    }
+
+    private static double dot(double[] a, double[] b) {
+        double ret = 0d;
+        for (int i = 0; i < a.length; i++) {
+            ret += a[i] * b[i];
+        }
+        return ret;
+    }
+
+    /**
+     * Solves a.x = b by Gaussian elimination with partial pivoting (a is left untouched)
+     */
+    private static double[] solve(double[][] a, double[] b) {
+        int n = b.length;
+        double[][] _m = new double[n][n + 1];
+        for (int i = 0; i < n; i++) {
+            System.arraycopy(a[i], 0, _m[i], 0, n);
+            _m[i][n] = b[i];
+        }
+        for (int col = 0; col < n; col++) {
+            int _pivot = col;
+            for (int row = col + 1; row < n; row++) {
+                if (Math.abs(_m[row][col]) > Math.abs(_m[_pivot][col])) {
+                    _pivot = row;
+                }
+            }
+            double[] _tmp = _m[col];
+            _m[col] = _m[_pivot];
+            _m[_pivot] = _tmp;
+            for (int row = col + 1; row < n; row++) {
+                double _factor = _m[row][col] / _m[col][col];
+                for (int k = col; k <= n; k++) {
+                    _m[row][k] -= _factor * _m[col][k];
+                }
+            }
+        }
+        double[] ret = new double[n];
+        for (int row = n - 1; row >= 0; row--) {
+            double _sum = _m[row][n];
+            for (int k = row + 1; k < n; k++) {
+                _sum -= _m[row][k] * ret[k];
+            }
+            ret[row] = _sum / _m[row][row];
+        }
+        return ret;
+    }
+
+}
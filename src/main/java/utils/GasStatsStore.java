@@ -0,0 +1,62 @@
+package utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * Small properties file keeping what was learnt about gas and fees (gas model, safety margins, gas price) across restarts.
+ * The file is rewritten atomically on each save. Without a file, values are only kept in memory.
+ */
+public class GasStatsStore {
+
+    private final Path file;
+    private final Properties properties = new Properties();
+
+    private GasStatsStore(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * @param file the file to load (null to keep values in memory only)
+     */
+    public static GasStatsStore load(Path file) {
+        GasStatsStore ret = new GasStatsStore(file);
+        if (file != null && Files.exists(file)) {
+            try (InputStream _in = Files.newInputStream(file)) {
+                ret.properties.load(_in);
+            } catch (IOException ex) {
+                System.out.println("WARNING: Could not read gas statistics from '" + file + "' : " + ex.getMessage());
+            }
+        }
+        return ret;
+    }
+
+    public synchronized String get(String key, String defaultValue) {
+        return this.properties.getProperty(key, defaultValue);
+    }
+
+    public synchronized void set(String key, String value) {
+        this.properties.setProperty(key, value);
+    }
+
+    public synchronized void save() {
+        if (this.file == null) {
+            return;
+        }
+        Path _tmp = this.file.resolveSibling(this.file.getFileName() + ".tmp");
+        try {
+            try (OutputStream _out = Files.newOutputStream(_tmp)) {
+                this.properties.store(_out, "FX Auto-Compounder gas statistics");
+            }
+            Files.move(_tmp, this.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            System.out.println("WARNING: Could not save gas statistics to '" + this.file + "' : " + ex.getMessage());
+        }
+    }
+
+}
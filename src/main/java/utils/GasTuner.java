@@ -0,0 +1,163 @@
+package utils;
+
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Feedback loop tuning the gas limit and the gas price of transactions from their realized gas usage.
+ * For each message mix, the ratios of used gas to expected gas (simulated or estimated) are kept over a sliding window :
+ * the safety margin is set just above the worst observed ratio instead of a fixed coefficient, and falls back to the default margin
+ * after an out-of-gas failure or when failures are too frequent.
+ * The gas price is either static, or follows the minimum fee reported by the node when it rejects a transaction for insufficient fee.
+ * Everything is kept in the gas statistics store, so that the tuning survives restarts.
+ */
+public class GasTuner {
+
+    public static final int ERR_INSUFFICIENT_FEE = 13;
+    private static final int WINDOW = 50;
+    private static final int MIN_SAMPLES = 10;
+    private static final double HEADROOM = 1.02;
+    private static final double MIN_MARGIN = 1.05;
+    private static final double MAX_MARGIN = 2.0;
+    private static final double MAX_FAILURE_RATE = 0.02;
+    private static final Pattern REQUIRED_FEE = Pattern.compile("required: ?(\\d+)FX");
+    private static final String GAS_PRICE = "tuner.gasPrice";
+    private static final String MIX = "tuner.mix.";
+
+    private static final class MixStats {
+
+        private final Deque<Double> ratios = new ArrayDeque<>();
+        private long successes = 0L;
+        private long failures = 0L;
+
+    }
+
+    private final double defaultMargin;
+    private final boolean nodeGasPrice;
+    private final GasStatsStore store;
+    private final Map<String, MixStats> mixes = new HashMap<>();
+    private long gasPrice;
+
+    /**
+     * @param defaultMargin the safety margin used until enough transactions of a mix are observed
+     * @param gasPrice the static gas price, or the initial gas price when following the node minimum (in atto-FX)
+     * @param nodeGasPrice true to follow the minimum gas price reported by the node
+     */
+    public GasTuner(double defaultMargin, long gasPrice, boolean nodeGasPrice, GasStatsStore store) {
+        this.defaultMargin = defaultMargin;
+        this.nodeGasPrice = nodeGasPrice;
+        this.store = store;
+        this.gasPrice = gasPrice;
+        try {
+            if (nodeGasPrice) {
+                this.gasPrice = Long.parseLong(store.get(GAS_PRICE, Long.toString(gasPrice)));
+            }
+        } catch (NumberFormatException ex) {
+            System.out.println("WARNING: Could not read the gas price : " + ex.getMessage());
+        }
+    }
+
+    public synchronized long getGasPrice() {
+        return this.gasPrice;
+    }
+
+    public synchronized double getDefaultMargin() {
+        return this.defaultMargin;
+    }
+
+    /**
+     * @return the safety margin to apply to the expected gas of a transaction of this mix
+     */
+    public synchronized double getMargin(String mix) {
+        MixStats _stats = this.getStats(mix);
+        long _total = _stats.successes + _stats.failures;
+        if (_stats.ratios.size() < MIN_SAMPLES || (_total > 0 && (double) _stats.failures / _total > MAX_FAILURE_RATE)) {
+            return this.defaultMargin;
+        }
+        double _worst = _stats.ratios.stream().mapToDouble(Double::doubleValue).max().orElse(this.defaultMargin);
+        return Math.min(MAX_MARGIN, Math.max(MIN_MARGIN, _worst * HEADROOM));
+    }
+
+    /**
+     * Records the gas used by a committed transaction, compared to its expected gas (before margin)
+     */
+    public synchronized void observe(String mix, long expectedGas, long gasUsed) {
+        if (expectedGas <= 0 || gasUsed <= 0) {
+            return;
+        }
+        MixStats _stats = this.getStats(mix);
+        _stats.ratios.addLast((double) gasUsed / expectedGas);
+        while (_stats.ratios.size() > WINDOW) {
+            _stats.ratios.removeFirst();
+        }
+        _stats.successes++;
+        this.save(mix, _stats);
+    }
+
+    /**
+     * An out-of-gas failure discards the observed ratios of the mix : the default margin applies again until enough new transactions are observed
+     */
+    public synchronized void onOutOfGas(String mix) {
+        MixStats _stats = this.getStats(mix);
+        _stats.ratios.clear();
+        _stats.failures++;
+        this.save(mix, _stats);
+    }
+
+    /**
+     * Follows the minimum fee reported by the node when a transaction was rejected for insufficient fee
+     * @return true if the gas price was raised
+     */
+    public synchronized boolean onInsufficientFee(String rawLog, long gasLimit) {
+        Matcher _m = REQUIRED_FEE.matcher(rawLog != null ? rawLog : "");
+        if (!this.nodeGasPrice || gasLimit <= 0 || !_m.find()) {
+            return false;
+        }
+        // Required fees above 9.22 $FX do not fit in a long of atto-FX : only the resulting gas price must
+        BigInteger _required = new BigInteger(_m.group(1));
+        BigInteger[] _division = _required.divideAndRemainder(BigInteger.valueOf(gasLimit));
+        BigInteger _ceil = _division[1].signum() > 0 ? _division[0].add(BigInteger.ONE) : _division[0];
+        long _gasPrice = _ceil.min(BigInteger.valueOf(Long.MAX_VALUE)).longValue();
+        if (_gasPrice <= this.gasPrice) {
+            return false;
+        }
+        this.gasPrice = _gasPrice;
+        this.store.set(GAS_PRICE, Long.toString(_gasPrice));
+        this.store.save();
+        return true;
+    }
+
+    private MixStats getStats(String mix) {
+        return this.mixes.computeIfAbsent(mix, _mix -> {
+            MixStats _stats = new MixStats();
+            try {
+                String _ratios = this.store.get(MIX + _mix + ".ratios", "");
+                if (!_ratios.isBlank()) {
+                    Arrays.stream(_ratios.split(",")).map(Double::valueOf).forEach(_stats.ratios::addLast);
+                }
+                _stats.successes = Long.parseLong(this.store.get(MIX + _mix + ".successes", "0"));
+                _stats.failures = Long.parseLong(this.store.get(MIX + _mix + ".failures", "0"));
+            } catch (NumberFormatException ex) {
+                System.out.println("WARNING: Could not read the gas margins of '" + _mix + "' : " + ex.getMessage());
+            }
+            return _stats;
+        });
+    }
+
+    private void save(String mix, MixStats stats) {
+        StringJoiner _ratios = new StringJoiner(",");
+        stats.ratios.forEach(_r -> _ratios.add(Double.toString(_r)));
+        this.store.set(MIX + mix + ".ratios", _ratios.toString());
+        this.store.set(MIX + mix + ".successes", Long.toString(stats.successes));
+        this.store.set(MIX + mix + ".failures", Long.toString(stats.failures));
+        this.store.save();
+    }
+
+}
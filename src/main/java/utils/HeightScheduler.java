@@ -0,0 +1,155 @@
+package utils;
+
+import eu.frenchxcore.api.CosmosGrpcApi;
+import libs.CancellationScope;
+import libs.NodePool;
+
+import java.util.Date;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Runs the auto-compound cycle every time the chain has produced a given number of new blocks.
+ * The latest block height is polled cheaply, and the cycle is also triggered when the maximum period elapsed (e.g. if the node cannot report its height).
+ * The cycle is also triggered as soon as the optional due check reports that some work is due (e.g. accounts scheduled on a timer wheel).
+ * Triggers received while a cycle is still running are coalesced : there is never more than one cycle in flight.
+ * Each cycle runs within its own cancellation scope, under a deadline : all the node requests sent by an overrunning cycle are cancelled,
+ * so that it is abandoned as soon as it unwinds, and the next cycle only starts once it did. Height polls and other background requests are left alone.
+ */
+public class HeightScheduler {
+
+    private final NodePool<CosmosGrpcApi> nodes;
+    private final Runnable cycle;
+    private final long blocksPerCycle;
+    private final long pollPeriodMs;
+    private final long maxPeriodMs;
+    private final long deadlineMs;
+    private final ScheduledExecutorService poller = Executors.newSingleThreadScheduledExecutor(_r -> {
+        Thread _t = new Thread(_r, "height-poller");
+        _t.setDaemon(true);
+        return _t;
+    });
+    private final ExecutorService cycleExecutor = Executors.newSingleThreadExecutor(_r -> {
+        Thread _t = new Thread(_r, "autocompound-cycle");
+        _t.setDaemon(true);
+        return _t;
+    });
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private volatile long lastCycleHeight = -1L;
+    private volatile long lastCycleTime = 0L;
+    private volatile boolean heightWarning = false;
+    private volatile BooleanSupplier dueCheck = () -> false;
+    private volatile long blockTimeMs = -1L;
+    private volatile CancellationScope cycleScope = null;
+    private long lastPollHeight = -1L;
+    private long lastPollHeightTime = 0L;
+
+    /**
+     * @param deadlineMs the maximum duration of a cycle, after which its node requests are cancelled
+     */
+    public HeightScheduler(NodePool<CosmosGrpcApi> nodes, Runnable cycle, long blocksPerCycle, long pollPeriodMs, long maxPeriodMs, long deadlineMs) {
+        this.nodes = nodes;
+        this.cycle = cycle;
+        this.blocksPerCycle = blocksPerCycle;
+        this.pollPeriodMs = pollPeriodMs;
+        this.maxPeriodMs = maxPeriodMs;
+        this.deadlineMs = deadlineMs;
+    }
+
+    public void start() {
+        this.poller.scheduleWithFixedDelay(this::poll, 0, this.pollPeriodMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        this.poller.shutdownNow();
+        CancellationScope _scope = this.cycleScope;
+        if (_scope != null) {
+            _scope.cancel();
+        }
+        this.cycleExecutor.shutdownNow();
+    }
+
+    public void setDueCheck(BooleanSupplier dueCheck) {
+        this.dueCheck = dueCheck;
+    }
+
+    /**
+     * @return true if the current (or last) cycle overran its deadline : its node requests were cancelled
+     */
+    public boolean isOverrun() {
+        CancellationScope _scope = this.cycleScope;
+        return _scope != null && _scope.isCancelled();
+    }
+
+    public long getLastCycleHeight() {
+        return lastCycleHeight;
+    }
+
+    /**
+     * @return the expected duration of a cycle, from the observed average block time (or the maximum period while unknown)
+     */
+    public long getCyclePeriodMs() {
+        long _blockTimeMs = this.blockTimeMs;
+        return _blockTimeMs > 0 ? Math.min(this.blocksPerCycle * _blockTimeMs, this.maxPeriodMs) : this.maxPeriodMs;
+    }
+
+    private void poll() {
+        long _height = -1L;
+        try {
+            _height = this.nodes.read("tmGetLatestBlock", cosmos.base.tendermint.v1beta1.Query.GetLatestBlockRequest::getDefaultInstance, _c -> _c.tmGetLatestBlock()).get(this.pollPeriodMs, TimeUnit.MILLISECONDS).getBlock().getHeader().getHeight();
+            this.heightWarning = false;
+        } catch (Exception ex) {
+            if (!this.heightWarning) {
+                this.heightWarning = true;
+                System.out.println("WARNING: " + new Date() + " : Could not query the latest block height : " + ex.getMessage());
+            }
+        }
+        long _now = System.currentTimeMillis();
+        if (_height > this.lastPollHeight) {
+            if (this.lastPollHeight > 0) {
+                long _blockTimeMs = (_now - this.lastPollHeightTime) / (_height - this.lastPollHeight);
+                this.blockTimeMs = this.blockTimeMs < 0 ? _blockTimeMs : (7 * this.blockTimeMs + _blockTimeMs) / 8;
+            }
+            this.lastPollHeight = _height;
+            this.lastPollHeightTime = _now;
+        }
+        boolean _newBlocks = _height > 0 && (this.lastCycleHeight < 0 || _height - this.lastCycleHeight >= this.blocksPerCycle);
+        boolean _timeElapsed = _now - this.lastCycleTime >= this.maxPeriodMs;
+        if (_newBlocks || _timeElapsed || this.dueCheck.getAsBoolean()) {
+            this.trigger(_height);
+        }
+    }
+
+    private void trigger(long height) {
+        if (!this.running.compareAndSet(false, true)) {
+            // A cycle is still running : this trigger is coalesced, the next poll will trigger again if still required
+            return;
+        }
+        if (height > 0) {
+            this.lastCycleHeight = height;
+        }
+        this.lastCycleTime = System.currentTimeMillis();
+        CancellationScope _scope = new CancellationScope();
+        this.cycleScope = _scope;
+        ScheduledFuture<?> _deadline = this.poller.schedule(() -> this.overrun(_scope), this.deadlineMs, TimeUnit.MILLISECONDS);
+        this.cycleExecutor.execute(() -> {
+            try {
+                _scope.run(this.cycle);
+            } finally {
+                _deadline.cancel(false);
+                this.running.set(false);
+            }
+        });
+    }
+
+    private void overrun(CancellationScope scope) {
+        int _cancelled = scope.cancel();
+        System.out.println("WARNING: " + new Date() + " : The cycle overran its deadline (" + this.deadlineMs / 1000L + " s) : it is abandoned, " + _cancelled + " pending node request(s) cancelled.");
+    }
+
+}
@@ -0,0 +1,423 @@
+package utils;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.MessageLite;
+import com.google.protobuf.Parser;
+import io.grpc.Status;
+import libs.NodePool;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Capture of all the requests sent to the FX nodes along with their responses, to replay cycles offline.
+ * <p>
+ * The file starts with a header (magic, version and start time), followed by records : method declarations, calls and cycle starts.
+ * A call holds its method, its start time and latency (in micro-seconds), its request as length-prefixed protobuf bytes,
+ * then its gRPC status code followed by either the response protobuf bytes or the error description.
+ * <p>
+ * On replay, a request is answered with the next recorded response to the very same request (the last one is repeated once they are all used,
+ * e.g. for confirmation polls). Requests which cannot match byte for byte (simulations and broadcasts, whose memo holds the signing date)
+ * are answered with the next unused response of the same method, in recording order.
+ */
+public final class NodeCapture {
+
+    private static final int MAGIC = 0x46585243; // "FXRC"
+    private static final int VERSION = 1;
+    private static final int RECORD_METHOD = 1;
+    private static final int RECORD_CALL = 2;
+    private static final int RECORD_CYCLE = 3;
+
+    private NodeCapture() {
+    }
+
+    /**
+     * The start of a recorded cycle
+     */
+    public static final class Cycle {
+
+        private final long offsetMs;
+        private final long cyclePeriodMs;
+        private final int pendingTxs;
+
+        private Cycle(long offsetMs, long cyclePeriodMs, int pendingTxs) {
+            this.offsetMs = offsetMs;
+            this.cyclePeriodMs = cyclePeriodMs;
+            this.pendingTxs = pendingTxs;
+        }
+
+        /**
+         * @return the start of the cycle, since the start of the capture
+         */
+        public long getOffsetMs() {
+            return offsetMs;
+        }
+
+        public long getCyclePeriodMs() {
+            return cyclePeriodMs;
+        }
+
+        /**
+         * @return the number of transactions which were still waiting for confirmation
+         */
+        public int getPendingTxs() {
+            return pendingTxs;
+        }
+
+    }
+
+    /**
+     * Writes all requests going through the node pool, and their responses, to the capture file
+     */
+    public static final class Recorder implements NodePool.Interceptor {
+
+        private final CodedOutputStream out;
+        private final OutputStream file;
+        private final long startTime = System.currentTimeMillis();
+        private final long startNanos = System.nanoTime();
+        private final Map<String, Integer> methodIds = new HashMap<>();
+        private final Map<String, String> responseTypes = new HashMap<>();
+        private boolean closed = false;
+
+        public Recorder(Path path) throws IOException {
+            Path _parent = path.toAbsolutePath().getParent();
+            if (_parent != null) {
+                Files.createDirectories(_parent);
+            }
+            this.file = Files.newOutputStream(path);
+            this.out = CodedOutputStream.newInstance(this.file, 65536);
+            this.out.writeFixed32NoTag(MAGIC);
+            this.out.writeFixed32NoTag(VERSION);
+            this.out.writeFixed64NoTag(this.startTime);
+        }
+
+        @Override
+        public <T> CompletableFuture<T> intercept(String method, Supplier<?> request, Supplier<CompletableFuture<T>> call) {
+            long _start = System.nanoTime();
+            return call.get().whenComplete((_value, _ex) -> {
+                long _latency = System.nanoTime() - _start;
+                try {
+                    this.write(method, request.get(), _start, _latency, _value, _ex);
+                } catch (Exception ex) {
+                    System.out.println("WARNING: Could not record the '" + method + "' request : " + ex.getMessage());
+                }
+            });
+        }
+
+        /**
+         * Marks the start of a cycle, and flushes the calls recorded so far
+         */
+        public synchronized void cycle(long cyclePeriodMs, int pendingTxs) throws IOException {
+            if (this.closed) {
+                return;
+            }
+            this.out.writeUInt32NoTag(RECORD_CYCLE);
+            this.out.writeUInt64NoTag(System.currentTimeMillis() - this.startTime);
+            this.out.writeUInt64NoTag(cyclePeriodMs);
+            this.out.writeUInt32NoTag(pendingTxs);
+            this.out.flush();
+        }
+
+        public synchronized void close() throws IOException {
+            if (!this.closed) {
+                this.closed = true;
+                this.out.flush();
+                this.file.close();
+            }
+        }
+
+        private synchronized void write(String method, Object request, long start, long latency, Object response, Throwable error) throws IOException {
+            if (this.closed) {
+                return;
+            }
+            String _type = response instanceof MessageLite ? response.getClass().getName() : "";
+            Integer _id = this.methodIds.get(method);
+            if (_id == null || (!_type.isEmpty() && !_type.equals(this.responseTypes.get(method)))) {
+                // Methods are declared again once the type of their response is known
+                _id = _id != null ? _id : this.methodIds.size();
+                this.methodIds.put(method, _id);
+                this.responseTypes.put(method, _type);
+                this.out.writeUInt32NoTag(RECORD_METHOD);
+                this.out.writeUInt32NoTag(_id);
+                this.out.writeStringNoTag(method);
+                this.out.writeStringNoTag(_type);
+            }
+            this.out.writeUInt32NoTag(RECORD_CALL);
+            this.out.writeUInt32NoTag(_id);
+            this.out.writeUInt64NoTag(Math.max(0L, (start - this.startNanos) / 1000L));
+            this.out.writeUInt64NoTag(latency / 1000L);
+            this.out.writeBytesNoTag(request instanceof MessageLite ? ((MessageLite) request).toByteString() : ByteString.EMPTY);
+            if (error == null && response instanceof MessageLite) {
+                this.out.writeUInt32NoTag(Status.Code.OK.value());
+                this.out.writeBytesNoTag(((MessageLite) response).toByteString());
+            } else {
+                Status _status = error != null ? Status.fromThrowable(error) : Status.INTERNAL.withDescription("Unsupported response");
+                this.out.writeUInt32NoTag(_status.getCode() == Status.Code.OK ? Status.Code.UNKNOWN.value() : _status.getCode().value());
+                this.out.writeStringNoTag(_status.getDescription() != null ? _status.getDescription() : "");
+            }
+        }
+
+    }
+
+    private static final class Call {
+
+        private final int method;
+        private final long latencyMicros;
+        private final ByteString response;
+        private final int code;
+        private final String description;
+        private boolean used = false;
+
+        private Call(int method, long latencyMicros, ByteString response, int code, String description) {
+            this.method = method;
+            this.latencyMicros = latencyMicros;
+            this.response = response;
+            this.code = code;
+            this.description = description;
+        }
+
+    }
+
+    /**
+     * Answers all requests going through the node pool from a capture file, without any node.
+     * It also provides the clock of the replayed cycles : the recorded start of the current cycle, plus the time elapsed since it was replayed.
+     */
+    public static final class Replayer implements NodePool.Interceptor {
+
+        private final long startTime;
+        private final boolean originalTiming;
+        private final List<String> methods = new ArrayList<>();
+        private final List<Parser<?>> parsers = new ArrayList<>();
+        private final Map<String, Map<ByteString, Queue<Call>>> byRequest = new HashMap<>();
+        private final Map<String, Map<ByteString, Call>> lastByRequest = new HashMap<>();
+        private final Map<String, Queue<Call>> byMethod = new HashMap<>();
+        private final List<Cycle> cycles = new ArrayList<>();
+        private final AtomicLong matched = new AtomicLong();
+        private final AtomicLong reordered = new AtomicLong();
+        private final AtomicLong missing = new AtomicLong();
+        private volatile long cycleTime;
+        private volatile long cycleStartNanos = System.nanoTime();
+        private volatile long cyclePeriodMs = 0L;
+        // Answers always complete on these threads : completing on the calling thread would nest every queued request of the in-flight limiter
+        private final ScheduledExecutorService executor = Executors.newScheduledThreadPool(2, _r -> {
+            Thread _t = new Thread(_r, "node-replay");
+            _t.setDaemon(true);
+            return _t;
+        });
+
+        /**
+         * @param originalTiming true to answer each request after its recorded latency, false to answer at once
+         */
+        public Replayer(Path path, boolean originalTiming) throws IOException {
+            this.originalTiming = originalTiming;
+            try (InputStream _file = Files.newInputStream(path)) {
+                CodedInputStream _in = CodedInputStream.newInstance(_file, 65536);
+                _in.setSizeLimit(Integer.MAX_VALUE);
+                if (_in.readFixed32() != MAGIC) {
+                    throw new IOException("'" + path + "' is not a capture file");
+                }
+                int _version = _in.readFixed32();
+                if (_version != VERSION) {
+                    throw new IOException("Unsupported capture version " + _version);
+                }
+                this.startTime = _in.readFixed64();
+                this.cycleTime = this.startTime;
+                try {
+                    while (!_in.isAtEnd()) {
+                        this.read(_in);
+                        // The size limit applies to the whole stream : it is reset after each record
+                        _in.resetSizeCounter();
+                    }
+                } catch (IOException ex) {
+                    // The recording was interrupted in the middle of a record : everything before it is kept
+                    System.out.println("WARNING: The capture '" + path + "' ends with an incomplete record : " + ex.getMessage());
+                }
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> CompletableFuture<T> intercept(String method, Supplier<?> request, Supplier<CompletableFuture<T>> call) {
+            Object _request = request.get();
+            Call _call = this.next(method, _request instanceof MessageLite ? ((MessageLite) _request).toByteString() : ByteString.EMPTY);
+            CompletableFuture<T> ret = new CompletableFuture<>();
+            Runnable _answer = () -> {
+                if (_call == null) {
+                    ret.completeExceptionally(Status.NOT_FOUND.withDescription("No '" + method + "' request left in the capture").asRuntimeException());
+                } else if (_call.code != Status.Code.OK.value()) {
+                    ret.completeExceptionally(Status.fromCodeValue(_call.code).withDescription(_call.description).asRuntimeException());
+                } else {
+                    try {
+                        ret.complete((T) this.parsers.get(_call.method).parseFrom(_call.response));
+                    } catch (Exception ex) {
+                        ret.completeExceptionally(ex);
+                    }
+                }
+            };
+            if (this.originalTiming && _call != null) {
+                this.executor.schedule(_answer, _call.latencyMicros, TimeUnit.MICROSECONDS);
+            } else {
+                this.executor.execute(_answer);
+            }
+            return ret;
+        }
+
+        public List<Cycle> getCycles() {
+            return this.cycles;
+        }
+
+        /**
+         * Moves the clock to the recorded start of the cycle
+         */
+        public void startCycle(Cycle cycle) {
+            this.cycleTime = this.startTime + cycle.getOffsetMs();
+            this.cycleStartNanos = System.nanoTime();
+            this.cyclePeriodMs = cycle.getCyclePeriodMs();
+        }
+
+        public long currentTimeMillis() {
+            return this.cycleTime + (System.nanoTime() - this.cycleStartNanos) / 1000000L;
+        }
+
+        /**
+         * @return the cycle period recorded at the start of the current cycle
+         */
+        public long getCyclePeriodMs() {
+            return this.cyclePeriodMs;
+        }
+
+        /**
+         * @return the number of requests answered with a recorded response to the very same request
+         */
+        public long getMatched() {
+            return this.matched.get();
+        }
+
+        /**
+         * @return the number of requests answered with the next recorded response of the same method
+         */
+        public long getReordered() {
+            return this.reordered.get();
+        }
+
+        /**
+         * @return the number of requests for which the capture had no response left
+         */
+        public long getMissing() {
+            return this.missing.get();
+        }
+
+        public void stop() {
+            this.executor.shutdownNow();
+        }
+
+        private synchronized Call next(String method, ByteString request) {
+            Map<ByteString, Call> _last = this.lastByRequest.computeIfAbsent(method, _k -> new HashMap<>());
+            Call ret = poll(this.byRequest.getOrDefault(method, Map.of()).get(request));
+            if (ret != null) {
+                this.matched.incrementAndGet();
+                _last.put(request, ret);
+                return ret;
+            }
+            ret = _last.get(request);
+            if (ret != null) {
+                this.matched.incrementAndGet();
+                return ret;
+            }
+            ret = poll(this.byMethod.get(method));
+            if (ret != null) {
+                this.reordered.incrementAndGet();
+                _last.put(request, ret);
+                return ret;
+            }
+            this.missing.incrementAndGet();
+            return null;
+        }
+
+        /**
+         * @return the first unused call of the queue, now used
+         */
+        private static Call poll(Queue<Call> calls) {
+            if (calls == null) {
+                return null;
+            }
+            Call ret;
+            while ((ret = calls.poll()) != null && ret.used) {
+                // Already used by another request
+            }
+            if (ret != null) {
+                ret.used = true;
+            }
+            return ret;
+        }
+
+        private void read(CodedInputStream in) throws IOException {
+            int _record = in.readUInt32();
+            switch (_record) {
+                case RECORD_METHOD: {
+                    int _id = in.readUInt32();
+                    String _name = in.readString();
+                    String _type = in.readString();
+                    while (this.methods.size() <= _id) {
+                        this.methods.add(null);
+                        this.parsers.add(null);
+                    }
+                    this.methods.set(_id, _name);
+                    if (!_type.isEmpty()) {
+                        this.parsers.set(_id, parserOf(_type));
+                    }
+                    break;
+                }
+                case RECORD_CALL: {
+                    int _method = in.readUInt32();
+                    in.readUInt64(); // start offset : calls are kept in recording order
+                    long _latency = in.readUInt64();
+                    ByteString _request = in.readBytes();
+                    int _code = in.readUInt32();
+                    if (_method >= this.methods.size() || this.methods.get(_method) == null) {
+                        throw new IOException("Undeclared method " + _method);
+                    }
+                    Call _call = _code == Status.Code.OK.value() ?
+                            new Call(_method, _latency, in.readBytes(), _code, null) :
+                            new Call(_method, _latency, null, _code, in.readString());
+                    String _name = this.methods.get(_method);
+                    this.byRequest.computeIfAbsent(_name, _k -> new HashMap<>()).computeIfAbsent(_request, _k -> new ArrayDeque<>()).add(_call);
+                    this.byMethod.computeIfAbsent(_name, _k -> new ArrayDeque<>()).add(_call);
+                    break;
+                }
+                case RECORD_CYCLE:
+                    this.cycles.add(new Cycle(in.readUInt64(), in.readUInt64(), in.readUInt32()));
+                    break;
+                default:
+                    throw new IOException("Unknown record " + _record);
+            }
+        }
+
+        private static Parser<?> parserOf(String type) throws IOException {
+            try {
+                return (Parser<?>) Class.forName(type).getMethod("parser").invoke(null);
+            } catch (Exception ex) {
+                throw new IOException("Unknown response type '" + type + "'");
+            }
+        }
+
+    }
+
+}
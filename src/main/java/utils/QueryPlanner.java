@@ -0,0 +1,132 @@
+package utils;
+
+import com.google.protobuf.ByteString;
+import cosmos.base.query.v1beta1.Pagination;
+import cosmos.base.v1beta1.CoinOuterClass;
+import eu.frenchxcore.api.CosmosGrpcApi;
+import io.grpc.Status;
+import libs.InFlightLimiter;
+import libs.NodePool;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Picks the cheapest available query for each data needed while refreshing accounts :
+ * - all rewards of a delegator are fetched with a single 'DelegationTotalRewards' query, falling back to one query per validator if the node does not support it,
+ * - delegations are fetched with a large page size, so that a single query is required in most cases.
+ */
+public class QueryPlanner {
+
+    public static final long DELEGATIONS_PAGE_SIZE = 1000L;
+
+    private final NodePool<CosmosGrpcApi> nodes;
+    private final InFlightLimiter limiter;
+    private final AtomicBoolean totalRewardsSupported = new AtomicBoolean(true);
+
+    public QueryPlanner(NodePool<CosmosGrpcApi> nodes, InFlightLimiter limiter) {
+        this.nodes = nodes;
+        this.limiter = limiter;
+    }
+
+    public CompletableFuture<FxAmount> queryBalance(String fxDelegatorAddress) {
+        return this.limiter.submit(() -> this.nodes.read("bankQueryBalance",
+                () -> cosmos.bank.v1beta1.QueryOuterClass.QueryBalanceRequest.newBuilder().setAddress(fxDelegatorAddress).setDenom("FX").build(),
+                _c -> _c.bankQueryBalance(fxDelegatorAddress, "FX")))
+                .thenApply(_b -> FxAmount.fromCoin(_b.getBalance().getAmountBytes()));
+    }
+
+    public CompletableFuture<FxAmount> queryCommission(String fxValidatorAddress) {
+        return this.limiter.submit(() -> this.nodes.read("distributionQueryValidatorCommission",
+                () -> cosmos.distribution.v1beta1.QueryOuterClass.QueryValidatorCommissionRequest.newBuilder().setValidatorAddress(fxValidatorAddress).build(),
+                _c -> _c.distributionQueryValidatorCommission(fxValidatorAddress)))
+                .thenApply(_commission -> sumFx(_commission.getCommission().getCommissionList()));
+    }
+
+    /**
+     * @return the $FX pending rewards of the FX delegator address on each of its validators
+     */
+    public CompletableFuture<Map<String/*fxvaloper*/, FxAmount>> queryRewards(String fxDelegatorAddress) {
+        if (!this.totalRewardsSupported.get()) {
+            return this.queryRewardsPerValidator(fxDelegatorAddress);
+        }
+        return this.limiter.submit(() -> this.nodes.read("distributionQueryDelegationTotalRewards",
+                () -> cosmos.distribution.v1beta1.QueryOuterClass.QueryDelegationTotalRewardsRequest.newBuilder().setDelegatorAddress(fxDelegatorAddress).build(),
+                _c -> _c.distributionQueryDelegationTotalRewards(fxDelegatorAddress)))
+                .<CompletableFuture<Map<String, FxAmount>>>handle((_total, _ex) -> {
+                    if (_ex != null) {
+                        if (Status.fromThrowable(_ex).getCode() == Status.Code.UNIMPLEMENTED && this.totalRewardsSupported.getAndSet(false)) {
+                            System.out.println("WARNING: The FX node does not support the 'DelegationTotalRewards' query : rewards will be queried per validator.");
+                        }
+                        return this.queryRewardsPerValidator(fxDelegatorAddress);
+                    }
+                    Map<String/*fxvaloper*/, FxAmount> vRewards = new HashMap<>();
+                    _total.getRewardsList().forEach(_r -> vRewards.put(_r.getValidatorAddress(), sumFx(_r.getRewardList())));
+                    return CompletableFuture.completedFuture(vRewards);
+                })
+                .thenCompose(_f -> _f);
+    }
+
+    /**
+     * @return the sum of the $FX decimal coins (other denominations are ignored)
+     */
+    public static FxAmount sumFx(List<CoinOuterClass.DecCoin> coins) {
+        FxAmount.Sum ret = new FxAmount.Sum();
+        for (int i = 0; i < coins.size(); i++) {
+            CoinOuterClass.DecCoin _coin = coins.get(i);
+            if (_coin.getDenom().equals("FX")) {
+                ret.addDecCoin(_coin.getAmountBytes());
+            }
+        }
+        return ret.get();
+    }
+
+    private CompletableFuture<Map<String/*fxvaloper*/, FxAmount>> queryRewardsPerValidator(String fxDelegatorAddress) {
+        return this.limiter.submit(() -> this.nodes.read("stakingQueryDelegatorValidators",
+                () -> cosmos.staking.v1beta1.QueryOuterClass.QueryDelegatorValidatorsRequest.newBuilder().setDelegatorAddr(fxDelegatorAddress).build(),
+                _c -> _c.stakingQueryDelegatorValidators(fxDelegatorAddress)))
+                .thenCompose(_validators -> {
+                    Map<String/*fxvaloper*/, CompletableFuture<FxAmount>> _vRewards = new LinkedHashMap<>();
+                    _validators.getValidatorsList().forEach(_v -> _vRewards.put(_v.getOperatorAddress(),
+                            this.limiter.submit(() -> this.nodes.read("distributionQueryDelegationRewards",
+                                    () -> cosmos.distribution.v1beta1.QueryOuterClass.QueryDelegationRewardsRequest.newBuilder().setDelegatorAddress(fxDelegatorAddress).setValidatorAddress(_v.getOperatorAddress()).build(),
+                                    _c -> _c.distributionQueryDelegationRewards(fxDelegatorAddress, _v.getOperatorAddress())))
+                                    .thenApply(_r -> sumFx(_r.getRewardsList()))));
+                    return CompletableFuture.allOf(_vRewards.values().toArray(new CompletableFuture[0]))
+                            .thenApply(_v -> {
+                                Map<String/*fxvaloper*/, FxAmount> vRewards = new HashMap<>();
+                                _vRewards.forEach((_validator, _f) -> vRewards.put(_validator, _f.join()));
+                                return vRewards;
+                            });
+                });
+    }
+
+    /**
+     * @return all the delegations of the FX delegator address (following pagination)
+     */
+    public CompletableFuture<Map<String/*fxvaloper*/, FxAmount>> queryDelegations(String fxDelegatorAddress) {
+        return this.queryDelegations(fxDelegatorAddress, ByteString.EMPTY, new HashMap<>());
+    }
+
+    private CompletableFuture<Map<String/*fxvaloper*/, FxAmount>> queryDelegations(String fxDelegatorAddress, ByteString pageKey, Map<String/*fxvaloper*/, FxAmount> vDelegations) {
+        Pagination.PageRequest pr = Pagination.PageRequest.newBuilder().setKey(pageKey).setLimit(DELEGATIONS_PAGE_SIZE).build();
+        return this.limiter.submit(() -> this.nodes.read("stakingQueryDelegatorDelegations",
+                () -> cosmos.staking.v1beta1.QueryOuterClass.QueryDelegatorDelegationsRequest.newBuilder().setDelegatorAddr(fxDelegatorAddress).setPagination(pr).build(),
+                _c -> _c.stakingQueryDelegatorDelegations(fxDelegatorAddress, pr)))
+                .thenCompose(_delegations -> {
+                    _delegations.getDelegationResponsesList().forEach(_r -> vDelegations.merge(
+                            _r.getDelegation().getValidatorAddress(),
+                            FxAmount.fromDecCoin(_r.getDelegation().getSharesBytes()),
+                            FxAmount::add));
+                    ByteString _nextKey = _delegations.getPagination().getNextKey();
+                    return _nextKey.isEmpty() ?
+                            CompletableFuture.completedFuture(vDelegations) :
+                            this.queryDelegations(fxDelegatorAddress, _nextKey, vDelegations);
+                });
+    }
+
+}
@@ -0,0 +1,48 @@
+package utils;
+
+/**
+ * Immutable totals gathered while refreshing accounts.
+ * Each account refresh produces its own instance, which are then reduced together once all queries have completed.
+ */
+public final class RefreshTotals {
+
+    public static final RefreshTotals ZERO = new RefreshTotals(FxAmount.ZERO, FxAmount.ZERO, FxAmount.ZERO, FxAmount.ZERO);
+
+    private final FxAmount balance;
+    private final FxAmount commissionFee;
+    private final FxAmount rewards;
+    private final FxAmount delegations;
+
+    public RefreshTotals(FxAmount balance, FxAmount commissionFee, FxAmount rewards, FxAmount delegations) {
+        this.balance = balance;
+        this.commissionFee = commissionFee;
+        this.rewards = rewards;
+        this.delegations = delegations;
+    }
+
+    public RefreshTotals add(RefreshTotals other) {
+        return new RefreshTotals(
+                this.balance.add(other.balance),
+                this.commissionFee.add(other.commissionFee),
+                this.rewards.add(other.rewards),
+                this.delegations.add(other.delegations)
+        );
+    }
+
+    public FxAmount getBalance() {
+        return balance;
+    }
+
+    public FxAmount getCommissionFee() {
+        return commissionFee;
+    }
+
+    public FxAmount getRewards() {
+        return rewards;
+    }
+
+    public FxAmount getDelegations() {
+        return delegations;
+    }
+
+}
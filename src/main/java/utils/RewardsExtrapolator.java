@@ -0,0 +1,146 @@
+package utils;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Learns how fast rewards (per delegator and validator) and commissions (per validator) accrue from successive snapshots,
+ * so that pending amounts can be predicted locally between two real refreshes.
+ * Accrual rates are smoothed with an exponentially weighted moving average.
+ */
+public class RewardsExtrapolator {
+
+    private static final double SMOOTHING = 0.3;
+
+    private static final class Series {
+
+        private FxAmount lastAmount;
+        private long lastTime;
+        private double ratePerMs = Double.NaN;
+
+        private Series(FxAmount amount, long time) {
+            this.lastAmount = amount;
+            this.lastTime = time;
+        }
+
+        private synchronized void update(FxAmount amount, long time) {
+            if (time > this.lastTime && amount.compareTo(this.lastAmount) >= 0) {
+                double _rate = amount.subtract(this.lastAmount).doubleValue() / (time - this.lastTime);
+                this.ratePerMs = Double.isNaN(this.ratePerMs) ? _rate : SMOOTHING * _rate + (1 - SMOOTHING) * this.ratePerMs;
+            }
+            // When the amount decreased, rewards were withdrawn : only the baseline is reset, the learnt rate is kept
+            this.lastAmount = amount;
+            this.lastTime = time;
+        }
+
+        private synchronized boolean isKnown() {
+            return !Double.isNaN(this.ratePerMs);
+        }
+
+        private synchronized double getRate() {
+            return Double.isNaN(this.ratePerMs) ? 0d : this.ratePerMs;
+        }
+
+        private synchronized FxAmount predict(long time) {
+            if (Double.isNaN(this.ratePerMs) || time <= this.lastTime) {
+                return this.lastAmount;
+            }
+            return this.lastAmount.add(FxAmount.ofFx(this.ratePerMs * (time - this.lastTime)));
+        }
+
+    }
+
+    private final Map<String, Series> series = new ConcurrentHashMap<>();
+    private final Set<FxAccount> invalidated = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Records the amounts of a freshly refreshed account
+     */
+    public void observe(FxAccount account, long time) {
+        account.getRewards().forEach((_validator, _rewards) -> this.update(rewardsKey(account, _validator), _rewards, time));
+        if (account.isValidator()) {
+            this.update(commissionKey(account), account.getCommissionFee(), time);
+        }
+        this.invalidated.remove(account);
+    }
+
+    /**
+     * Forces a real refresh of this account next time (e.g. after a withdrawal)
+     */
+    public void invalidate(FxAccount account) {
+        this.invalidated.add(account);
+    }
+
+    /**
+     * @return true if accrual rates are known for all rewards and commission of this account
+     */
+    public boolean isPredictable(FxAccount account) {
+        if (this.invalidated.contains(account)) {
+            return false;
+        }
+        for (String _validator : account.getRewards().keySet()) {
+            Series _s = this.series.get(rewardsKey(account, _validator));
+            if (_s == null || !_s.isKnown()) {
+                return false;
+            }
+        }
+        if (account.isValidator()) {
+            Series _s = this.series.get(commissionKey(account));
+            return _s != null && _s.isKnown();
+        }
+        return true;
+    }
+
+    /**
+     * @return the learnt accrual rate of all rewards and commission of this account, in $FX per millisecond
+     */
+    public double getRatePerMs(FxAccount account) {
+        double ret = 0d;
+        for (String _validator : account.getRewards().keySet()) {
+            Series _s = this.series.get(rewardsKey(account, _validator));
+            ret += _s != null ? _s.getRate() : 0d;
+        }
+        if (account.isValidator()) {
+            Series _s = this.series.get(commissionKey(account));
+            ret += _s != null ? _s.getRate() : 0d;
+        }
+        return ret;
+    }
+
+    public FxAmount predictRewards(FxAccount account, long time) {
+        FxAmount.Sum ret = new FxAmount.Sum();
+        account.getRewards().forEach((_validator, _rewards) -> {
+            Series _s = this.series.get(rewardsKey(account, _validator));
+            ret.add(_s != null ? _s.predict(time) : _rewards);
+        });
+        return ret.get();
+    }
+
+    /**
+     * @return the predicted commission of the validator (zero for a delegator)
+     */
+    public FxAmount predictCommission(FxAccount account, long time) {
+        if (!account.isValidator()) {
+            return FxAmount.ZERO;
+        }
+        Series _s = this.series.get(commissionKey(account));
+        return _s != null ? _s.predict(time) : account.getCommissionFee();
+    }
+
+    private void update(String key, FxAmount amount, long time) {
+        Series _s = this.series.putIfAbsent(key, new Series(amount, time));
+        if (_s != null) {
+            _s.update(amount, time);
+        }
+    }
+
+    private static String rewardsKey(FxAccount account, String fxValidatorAddress) {
+        return account.getFxDelegatorAddress() + "/" + fxValidatorAddress;
+    }
+
+    private static String commissionKey(FxAccount account) {
+        return "commission/" + account.getFxValidatorAddress();
+    }
+
+}
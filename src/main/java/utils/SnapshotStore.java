@@ -0,0 +1,373 @@
+package utils;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only, memory-mapped time series of the amounts learnt at each cycle : balance, commission, and rewards and delegation
+ * on each validator of every refreshed account, along with the cumulated fees paid and amounts restaked.
+ * <p>
+ * Each series is declared once, then each cycle appends a frame holding, for the series which changed, the difference with their
+ * previous value (in micro-FX, as zigzag varints) : unchanged delegations cost nothing, and rewards accrued in a few minutes
+ * take a few bytes. Frames can only be read in order, in a single pass from the start of the file.
+ */
+public class SnapshotStore {
+
+    private static final int MAGIC = 0x46585353; // "FXSS"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 24; // magic(4) + version(4) + end offset(8) + last frame time(8)
+    private static final int INITIAL_SIZE = 1 << 20;
+    private static final byte RECORD_SERIES = 1;
+    private static final byte RECORD_FRAME = 2;
+
+    public enum Kind {
+        BALANCE,
+        COMMISSION,
+        REWARDS,
+        DELEGATION,
+        /** Cumulated transaction fees paid by the account */
+        FEES,
+        /** Cumulated amounts restaked by the account */
+        RESTAKED
+    }
+
+    public static final class Series {
+
+        private final int id;
+        private final Kind kind;
+        private final String account;
+        private final String validator;
+        private long value;
+
+        private Series(int id, Kind kind, String account, String validator) {
+            this.id = id;
+            this.kind = kind;
+            this.account = account;
+            this.validator = validator;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public String getAccount() {
+            return account;
+        }
+
+        /**
+         * @return the validator of REWARDS and DELEGATION series, empty otherwise
+         */
+        public String getValidator() {
+            return validator;
+        }
+
+    }
+
+    /**
+     * Receives the content of the store, in the order it was appended
+     */
+    public interface Visitor {
+
+        default void onStart(long lastTime) {
+        }
+
+        void onFrame(long time);
+
+        /**
+         * @param previous the previous value of the series (in micro-FX)
+         * @param value the new value of the series (in micro-FX)
+         */
+        void onSample(long time, Series series, long previous, long value);
+
+    }
+
+    private final Path path;
+    private final RandomAccessFile file;
+    private MappedByteBuffer buffer;
+    private final List<Series> series = new ArrayList<>();
+    private final Map<String, Series> seriesByKey = new HashMap<>();
+    private final Map<String/*fx*/, List<Series>> seriesByAccount = new HashMap<>();
+    private ByteBuffer frame = ByteBuffer.allocate(1 << 12);
+    private long end = HEADER_SIZE;
+    private long lastTime = 0L;
+
+    private SnapshotStore(Path path) throws IOException {
+        this.path = path;
+        this.file = new RandomAccessFile(path.toFile(), "rw");
+    }
+
+    /**
+     * Opens (or creates) the store, replaying its content to resume the series where they stopped
+     */
+    public static SnapshotStore open(Path path) throws IOException {
+        boolean _exists = Files.isRegularFile(path) && Files.size(path) > 0;
+        SnapshotStore ret = new SnapshotStore(path);
+        try {
+            if (_exists) {
+                ret.buffer = ret.file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, ret.file.length());
+                ret.end = read(ret.buffer, ret.series, null);
+                ret.lastTime = ret.buffer.getLong(16);
+                ret.series.forEach(_s -> {
+                    ret.seriesByKey.put(key(_s.kind, _s.account, _s.validator), _s);
+                    ret.seriesByAccount.computeIfAbsent(_s.account, _a -> new ArrayList<>()).add(_s);
+                });
+            } else {
+                ret.buffer = ret.file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, INITIAL_SIZE);
+                ret.buffer.putInt(0, MAGIC).putInt(4, VERSION);
+                ret.commit(HEADER_SIZE, 0L);
+            }
+        } catch (IOException ex) {
+            ret.file.close();
+            throw ex;
+        }
+        return ret;
+    }
+
+    /**
+     * Reads the whole store in a single pass
+     */
+    public static void scan(Path path, Visitor visitor) throws IOException {
+        try (FileChannel _fc = FileChannel.open(path)) {
+            read(_fc.map(FileChannel.MapMode.READ_ONLY, 0, _fc.size()), new ArrayList<>(), visitor);
+        }
+    }
+
+    /**
+     * Appends the amounts of freshly queried accounts : validators no longer delegated to (or without rewards) are set to zero
+     */
+    public synchronized void append(long time, Collection<FxAccount> accounts) throws IOException {
+        this.frame.clear();
+        int _count = 0;
+        for (FxAccount _account : accounts) {
+            String _address = _account.getFxDelegatorAddress();
+            _count += this.sample(Kind.BALANCE, _address, "", _account.getBalance().toMicro());
+            if (_account.isValidator()) {
+                _count += this.sample(Kind.COMMISSION, _address, "", _account.getCommissionFee().toMicro());
+            }
+            // Only existing series are set to zero here : the series of the account are not modified while iterated
+            for (Series _series : this.seriesByAccount.getOrDefault(_address, List.of())) {
+                if ((_series.kind == Kind.REWARDS && !_account.getRewards().containsKey(_series.validator))
+                        || (_series.kind == Kind.DELEGATION && !_account.getDelegations().containsKey(_series.validator))) {
+                    _count += this.sample(_series.kind, _address, _series.validator, 0L);
+                }
+            }
+            for (Map.Entry<String, FxAmount> _rewards : _account.getRewards().entrySet()) {
+                _count += this.sample(Kind.REWARDS, _address, _rewards.getKey(), _rewards.getValue().toMicro());
+            }
+            for (Map.Entry<String, FxAmount> _delegation : _account.getDelegations().entrySet()) {
+                _count += this.sample(Kind.DELEGATION, _address, _delegation.getKey(), _delegation.getValue().toMicro());
+            }
+        }
+        this.endFrame(time, _count);
+    }
+
+    /**
+     * Appends the fee of a committed transaction, and the amounts it restaked
+     */
+    public synchronized void appendCompounding(long time, FxAccount feePayer, FxAmount fee, Map<FxAccount, FxAmount> restaked) throws IOException {
+        this.frame.clear();
+        int _count = this.add(Kind.FEES, feePayer.getFxDelegatorAddress(), fee.toMicro());
+        for (Map.Entry<FxAccount, FxAmount> _restaked : restaked.entrySet()) {
+            _count += this.add(Kind.RESTAKED, _restaked.getKey().getFxDelegatorAddress(), _restaked.getValue().toMicro());
+        }
+        this.endFrame(time, _count);
+    }
+
+    public synchronized void close() throws IOException {
+        this.buffer.force();
+        this.file.close();
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    private int add(Kind kind, String account, long amount) throws IOException {
+        Series _series = this.seriesByKey.get(key(kind, account, ""));
+        return this.sample(kind, account, "", (_series == null ? 0L : _series.value) + amount);
+    }
+
+    /**
+     * Declares the series if needed, and writes its new value in the current frame
+     * @return the number of samples written (0 if the value did not change)
+     */
+    private int sample(Kind kind, String account, String validator, long value) throws IOException {
+        String _key = key(kind, account, validator);
+        Series _series = this.seriesByKey.get(_key);
+        if (_series == null) {
+            _series = new Series(this.series.size(), kind, account, validator);
+            this.series.add(_series);
+            this.seriesByKey.put(_key, _series);
+            this.seriesByAccount.computeIfAbsent(account, _a -> new ArrayList<>()).add(_series);
+            // Series declarations are written right away, ahead of the frame being built
+            ByteBuffer _record = ByteBuffer.allocate(16 + 3 * (account.length() + validator.length()));
+            _record.put(RECORD_SERIES);
+            putVarLong(_record, _series.id);
+            _record.put((byte) kind.ordinal());
+            putString(_record, account);
+            putString(_record, validator);
+            _record.flip();
+            this.write(_record);
+        }
+        if (value == _series.value) {
+            return 0;
+        }
+        if (this.frame.remaining() < 20) {
+            this.frame = ByteBuffer.allocate(this.frame.capacity() * 2).put(this.frame.flip());
+        }
+        putVarLong(this.frame, _series.id);
+        putVarLong(this.frame, zigzag(value - _series.value));
+        _series.value = value;
+        return 1;
+    }
+
+    private void endFrame(long time, int count) throws IOException {
+        ByteBuffer _header = ByteBuffer.allocate(21);
+        _header.put(RECORD_FRAME);
+        putVarLong(_header, Math.max(0L, time - this.lastTime));
+        putVarLong(_header, count);
+        _header.flip();
+        this.frame.flip();
+        this.ensureCapacity(_header.remaining() + this.frame.remaining());
+        long _position = this.end;
+        this.buffer.put((int) _position, _header, 0, _header.remaining());
+        _position += _header.remaining();
+        this.buffer.put((int) _position, this.frame, 0, this.frame.remaining());
+        _position += this.frame.remaining();
+        this.commit(_position, Math.max(time, this.lastTime));
+    }
+
+    private void write(ByteBuffer record) throws IOException {
+        this.ensureCapacity(record.remaining());
+        this.buffer.put((int) this.end, record, 0, record.remaining());
+        this.commit(this.end + record.remaining(), this.lastTime);
+    }
+
+    /**
+     * Records are written past the end offset first : the header is only updated once they are complete
+     */
+    private void commit(long end, long lastTime) {
+        this.end = end;
+        this.lastTime = lastTime;
+        this.buffer.putLong(8, end).putLong(16, lastTime);
+    }
+
+    private void ensureCapacity(int bytes) throws IOException {
+        if (this.end + bytes > this.buffer.capacity()) {
+            long _size = Math.max((long) this.buffer.capacity() * 2, this.end + bytes);
+            if (_size > Integer.MAX_VALUE) {
+                throw new IOException("snapshot store is full");
+            }
+            this.buffer.force();
+            this.buffer = this.file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, _size);
+        }
+    }
+
+    /**
+     * @param series filled with the series declared in the store, holding their last value
+     * @return the end offset of the store
+     */
+    private static long read(ByteBuffer buffer, List<Series> series, Visitor visitor) throws IOException {
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("invalid header");
+        }
+        long _end = buffer.getLong(8);
+        if (_end < HEADER_SIZE || _end > buffer.limit()) {
+            throw new IOException("truncated file");
+        }
+        if (visitor != null) {
+            visitor.onStart(buffer.getLong(16));
+        }
+        ByteBuffer _records = buffer.duplicate().position(HEADER_SIZE).limit((int) _end);
+        long _time = 0L;
+        try {
+            while (_records.hasRemaining()) {
+                byte _type = _records.get();
+                if (_type == RECORD_SERIES) {
+                    int _id = (int) getVarLong(_records);
+                    Kind _kind = Kind.values()[_records.get()];
+                    if (_id != series.size()) {
+                        throw new IOException("corrupted series declaration");
+                    }
+                    series.add(new Series(_id, _kind, getString(_records), getString(_records)));
+                } else if (_type == RECORD_FRAME) {
+                    _time += getVarLong(_records);
+                    long _count = getVarLong(_records);
+                    if (visitor != null) {
+                        visitor.onFrame(_time);
+                    }
+                    for (long i = 0; i < _count; i++) {
+                        Series _series = series.get((int) getVarLong(_records));
+                        long _previous = _series.value;
+                        _series.value += unzigzag(getVarLong(_records));
+                        if (visitor != null) {
+                            visitor.onSample(_time, _series, _previous, _series.value);
+                        }
+                    }
+                } else {
+                    throw new IOException("unknown record type " + _type);
+                }
+            }
+        } catch (BufferUnderflowException | IndexOutOfBoundsException ex) {
+            throw new IOException("corrupted record");
+        }
+        return _end;
+    }
+
+    private static String key(Kind kind, String account, String validator) {
+        return kind.ordinal() + ":" + account + ":" + validator;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1L);
+    }
+
+    private static void putVarLong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0L) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static long getVarLong(ByteBuffer buffer) throws IOException {
+        long ret = 0L;
+        for (int _shift = 0; _shift < 64; _shift += 7) {
+            byte _b = buffer.get();
+            ret |= (long) (_b & 0x7F) << _shift;
+            if ((_b & 0x80) == 0) {
+                return ret;
+            }
+        }
+        throw new IOException("invalid varint");
+    }
+
+    private static void putString(ByteBuffer buffer, String value) {
+        byte[] _bytes = value.getBytes(StandardCharsets.UTF_8);
+        putVarLong(buffer, _bytes.length);
+        buffer.put(_bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) throws IOException {
+        byte[] _bytes = new byte[(int) getVarLong(buffer)];
+        buffer.get(_bytes);
+        return new String(_bytes, StandardCharsets.UTF_8);
+    }
+
+}
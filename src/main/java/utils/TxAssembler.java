@@ -0,0 +1,156 @@
+package utils;
+
+import com.google.protobuf.Any;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Message;
+import cosmos.tx.signing.v1beta1.Signing;
+import cosmos.tx.v1beta1.TxOuterClass;
+import libs.SigningService;
+import org.bitcoinj.core.ECKey;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Assembles a multi-signer transaction once per cycle, and reuses it for both the gas simulation and the broadcast.
+ * Body bytes are only serialized again when a message is changed, and auth-info bytes are serialized once and shared by all signers,
+ * which all sign in parallel.
+ */
+public class TxAssembler {
+
+    private final String chainId;
+    private final TxOuterClass.TxBody.Builder bodyBuilder;
+    private final Map<FxAccount, AccountMetadataCache.Metadata> signers = new LinkedHashMap<>();
+    private final Map<FxAccount, Integer> sequenceOffsets = new HashMap<>();
+    private final List<TxMessageType> messageTypes = new ArrayList<>();
+    private ByteString bodyBytes = null;
+
+    public TxAssembler(String chainId, String memo) {
+        this.chainId = chainId;
+        this.bodyBuilder = TxOuterClass.TxBody.newBuilder()
+                .setMemo(memo)
+                .setTimeoutHeight(0);
+    }
+
+    /**
+     * @return the index of the message, to be used when patching it later on
+     */
+    public int addMessage(FxAccount signer, AccountMetadataCache.Metadata metadata, TxMessageType type, Message message) {
+        this.bodyBuilder.addMessages(Any.pack(message, ""));
+        this.messageTypes.add(type);
+        this.signers.putIfAbsent(signer, metadata);
+        this.bodyBytes = null;
+        return this.bodyBuilder.getMessagesCount() - 1;
+    }
+
+    public void setMessage(int index, Message message) {
+        this.bodyBuilder.setMessages(index, Any.pack(message, ""));
+        this.bodyBytes = null;
+    }
+
+    public void removeMessage(int index) {
+        this.bodyBuilder.removeMessages(index);
+        this.messageTypes.remove(index);
+        this.bodyBytes = null;
+    }
+
+    public int getMessageCount() {
+        return this.bodyBuilder.getMessagesCount();
+    }
+
+    public List<TxMessageType> getMessageTypes() {
+        return this.messageTypes;
+    }
+
+    public Set<FxAccount> getSigners() {
+        return this.signers.keySet();
+    }
+
+    /**
+     * When an account signs several transactions of the same cycle, each one is signed with the next sequence
+     */
+    public void setSequenceOffset(FxAccount signer, int offset) {
+        this.sequenceOffsets.put(signer, offset);
+    }
+
+    private long getSignSequence(FxAccount signer) {
+        return this.signers.get(signer).getSequence() + this.sequenceOffsets.getOrDefault(signer, 0);
+    }
+
+    public ByteString getBodyBytes() {
+        if (this.bodyBytes == null) {
+            this.bodyBytes = this.bodyBuilder.build().toByteString();
+        }
+        return this.bodyBytes;
+    }
+
+    /**
+     * Builds the unsigned transaction used for gas simulation (empty public keys and signatures, zero fee).
+     */
+    public TxOuterClass.Tx buildSimulationTx() {
+        TxOuterClass.AuthInfo.Builder _fakeAuthInfoBuilder = TxOuterClass.AuthInfo.newBuilder()
+                .setFee(TxOuterClass.Fee.newBuilder().addAmount(cosmos.base.v1beta1.CoinOuterClass.Coin.newBuilder().setDenom("FX").setAmount("0").build()).setGasLimit(0).build());
+        TxOuterClass.Tx.Builder _simTxBuilder = TxOuterClass.Tx.newBuilder();
+        this.signers.values().forEach(_metadata -> {
+            TxOuterClass.SignerInfo _fakeSignerInfo = TxOuterClass.SignerInfo.newBuilder()
+                    .setModeInfo(TxOuterClass.ModeInfo.newBuilder().setSingle(TxOuterClass.ModeInfo.Single.newBuilder().setMode(Signing.SignMode.SIGN_MODE_UNSPECIFIED).build()).build())
+                    .setPublicKey(Any.pack(cosmos.crypto.secp256k1.Keys.PubKey.newBuilder().setKey(ByteString.EMPTY).build(), ""))
+                    .setSequence(_metadata.getSequence())
+                    .build();
+            _fakeAuthInfoBuilder.addSignerInfos(_fakeSignerInfo);
+            _simTxBuilder.addSignatures(ByteString.EMPTY);
+        });
+        return _simTxBuilder
+                .setBody(this.bodyBuilder.build())
+                .setAuthInfo(_fakeAuthInfoBuilder.build())
+                .build();
+    }
+
+    /**
+     * Signs the transaction with the given fee and gas limit, using the current sequences plus the sequence offsets.
+     * The returned raw transaction reuses the serialized body and auth-info bytes, so it can be broadcast without any further serialization.
+     */
+    public TxOuterClass.TxRaw sign(FxAmount fee, long gasLimit) {
+        TxOuterClass.AuthInfo.Builder _authInfoBuilder = TxOuterClass.AuthInfo.newBuilder()
+                .setFee(TxOuterClass.Fee.newBuilder()
+                        .addAmount(cosmos.base.v1beta1.CoinOuterClass.Coin.newBuilder().setDenom("FX").setAmount(fee.toAttoString()).build())
+                        .setGasLimit(gasLimit)
+                        .build()
+                );
+        this.signers.forEach((_account, _metadata) -> {
+            cosmos.crypto.secp256k1.Keys.PubKey publicKeyFrom = cosmos.crypto.secp256k1.Keys.PubKey.newBuilder()
+                    .setKey(ByteString.copyFrom(_account.getPrivateKey().getPubKey()))
+                    .build();
+            TxOuterClass.SignerInfo _signerInfo = TxOuterClass.SignerInfo.newBuilder()
+                    .setModeInfo(TxOuterClass.ModeInfo.newBuilder().setSingle(TxOuterClass.ModeInfo.Single.newBuilder().setMode(Signing.SignMode.SIGN_MODE_DIRECT).build()).build())
+                    .setPublicKey(Any.pack(publicKeyFrom, ""))
+                    .setSequence(this.getSignSequence(_account))
+                    .build();
+            _authInfoBuilder.addSignerInfos(_signerInfo);
+        });
+        ByteString _bodyBytes = this.getBodyBytes();
+        ByteString _authInfoBytes = _authInfoBuilder.build().toByteString();
+        TxOuterClass.TxRaw.Builder _txRawBuilder = TxOuterClass.TxRaw.newBuilder()
+                .setBodyBytes(_bodyBytes)
+                .setAuthInfoBytes(_authInfoBytes);
+        List<TxOuterClass.SignDoc> _signDocs = new ArrayList<>(this.signers.size());
+        List<ECKey> _keys = new ArrayList<>(this.signers.size());
+        this.signers.forEach((_account, _metadata) -> {
+            _signDocs.add(TxOuterClass.SignDoc.newBuilder()
+                    .setBodyBytes(_bodyBytes)
+                    .setAuthInfoBytes(_authInfoBytes)
+                    .setChainId(this.chainId)
+                    .setAccountNumber(_metadata.getAccountNumber())
+                    .build());
+            _keys.add(_account.getSigningKey());
+        });
+        // Sign transaction
+        SigningService.getInstance().signAll(_signDocs, _keys).forEach(_signature -> _txRawBuilder.addSignatures(ByteString.copyFrom(_signature)));
+        return _txRawBuilder.build();
+    }
+
+}
@@ -0,0 +1,76 @@
+package utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One of the transactions planned for a cycle, along with the delegations it restakes.
+ * The transaction fee is paid by its first signer, deducted from its delegation.
+ */
+public class TxChunk {
+
+    public static final class Delegation {
+
+        private final FxAccount account;
+        private final int messageIndex;
+        private final FxAmount amount;
+
+        public Delegation(FxAccount account, int messageIndex, FxAmount amount) {
+            this.account = account;
+            this.messageIndex = messageIndex;
+            this.amount = amount;
+        }
+
+        public FxAccount getAccount() {
+            return account;
+        }
+
+        public int getMessageIndex() {
+            return messageIndex;
+        }
+
+        public FxAmount getAmount() {
+            return amount;
+        }
+
+    }
+
+    private final TxAssembler tx;
+    private final List<Delegation> delegations = new ArrayList<>();
+    private long estimatedGas;
+
+    public TxChunk(TxAssembler tx, long estimatedGas) {
+        this.tx = tx;
+        this.estimatedGas = estimatedGas;
+    }
+
+    public TxAssembler getTx() {
+        return tx;
+    }
+
+    public List<Delegation> getDelegations() {
+        return delegations;
+    }
+
+    /**
+     * Removes the delegation and its message from the transaction, shifting the message indexes of the following delegations
+     */
+    public void removeDelegation(Delegation delegation) {
+        this.tx.removeMessage(delegation.messageIndex);
+        this.delegations.remove(delegation);
+        this.delegations.replaceAll(_d -> _d.messageIndex > delegation.messageIndex ? new Delegation(_d.account, _d.messageIndex - 1, _d.amount) : _d);
+    }
+
+    public FxAccount getFeePayer() {
+        return this.tx.getSigners().isEmpty() ? null : this.tx.getSigners().iterator().next();
+    }
+
+    public long getEstimatedGas() {
+        return estimatedGas;
+    }
+
+    void addEstimatedGas(long gas) {
+        this.estimatedGas += gas;
+    }
+
+}
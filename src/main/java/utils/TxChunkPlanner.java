@@ -0,0 +1,89 @@
+package utils;
+
+import com.google.protobuf.Message;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Splits the messages of a cycle into several transactions, bounded by a maximum number of messages and an estimated gas.
+ * All the messages of an account are kept in the same transaction whenever possible, so that each account signs as few transactions as possible.
+ * An account signing several transactions gets consecutive sequences, so that all transactions can be signed upfront and broadcast as a pipeline.
+ */
+public class TxChunkPlanner {
+
+    public static final long ESTIMATED_GAS_PER_TX = 60000L;
+    public static final long ESTIMATED_GAS_PER_SIGNER = 40000L;
+
+    private final String chainId;
+    private final String memo;
+    private final int maxMessages;
+    private final long maxGas;
+    private final List<TxChunk> chunks = new ArrayList<>();
+
+    public TxChunkPlanner(String chainId, String memo, int maxMessages, long maxGas) {
+        this.chainId = chainId;
+        this.memo = memo;
+        this.maxMessages = maxMessages;
+        this.maxGas = maxGas;
+    }
+
+    /**
+     * Starts a new transaction if all the messages of this account do not fit in the current one.
+     */
+    public void startAccount(FxAccount account, List<TxMessageType> messageTypes) {
+        TxChunk _current = this.current();
+        long _gas = ESTIMATED_GAS_PER_SIGNER + messageTypes.stream().mapToLong(TxMessageType::getEstimatedGas).sum();
+        if (_current != null && !this.fits(_current, messageTypes.size(), _gas)) {
+            this.newChunk();
+        }
+    }
+
+    /**
+     * @return the index of the message within the current transaction
+     */
+    public int add(FxAccount signer, AccountMetadataCache.Metadata metadata, TxMessageType type, Message message) {
+        TxChunk _current = this.current();
+        if (_current == null || !this.fits(_current, 1, type.getEstimatedGas() + (_current.getTx().getSigners().contains(signer) ? 0 : ESTIMATED_GAS_PER_SIGNER))) {
+            _current = this.newChunk();
+        }
+        if (!_current.getTx().getSigners().contains(signer)) {
+            _current.addEstimatedGas(ESTIMATED_GAS_PER_SIGNER);
+        }
+        _current.addEstimatedGas(type.getEstimatedGas());
+        return _current.getTx().addMessage(signer, metadata, type, message);
+    }
+
+    /**
+     * Gives consecutive sequences to the accounts signing several of the transactions, in the order they will be broadcast.
+     */
+    public static void assignSequenceOffsets(List<TxChunk> chunks) {
+        Map<FxAccount, Integer> _signedChunks = new HashMap<>();
+        chunks.forEach(_chunk -> _chunk.getTx().getSigners().forEach(_signer ->
+                _chunk.getTx().setSequenceOffset(_signer, _signedChunks.merge(_signer, 1, Integer::sum) - 1)));
+    }
+
+    public TxChunk current() {
+        return this.chunks.isEmpty() ? null : this.chunks.get(this.chunks.size() - 1);
+    }
+
+    public List<TxChunk> getChunks() {
+        return chunks;
+    }
+
+    private boolean fits(TxChunk chunk, int messages, long gas) {
+        if (chunk.getTx().getMessageCount() == 0) {
+            return true;
+        }
+        return chunk.getTx().getMessageCount() + messages <= this.maxMessages && chunk.getEstimatedGas() + gas <= this.maxGas;
+    }
+
+    private TxChunk newChunk() {
+        TxChunk ret = new TxChunk(new TxAssembler(this.chainId, this.memo), ESTIMATED_GAS_PER_TX);
+        this.chunks.add(ret);
+        return ret;
+    }
+
+}
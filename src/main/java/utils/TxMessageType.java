@@ -0,0 +1,22 @@
+package utils;
+
+/**
+ * Message types used by the auto-compounder, along with a conservative gas estimate used to plan transactions before simulation.
+ */
+public enum TxMessageType {
+
+    WITHDRAW_COMMISSION(100000L),
+    WITHDRAW_REWARDS(120000L),
+    DELEGATE(180000L);
+
+    private final long estimatedGas;
+
+    TxMessageType(long estimatedGas) {
+        this.estimatedGas = estimatedGas;
+    }
+
+    public long getEstimatedGas() {
+        return estimatedGas;
+    }
+
+}